@@ -0,0 +1,22 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * A single request against the vCloud API, wrapped so that it can be run
+ * through a <code>RequestLimiter</code>.
+ *
+ * @param <T> The type returned by the request.
+ */
+public interface ApiCall<T>
+{
+	/**
+	 * Perform the request.
+	 * @return The result of the request.
+	 * @throws VCloudException
+	 */
+	T call() throws VCloudException;
+}
@@ -3,29 +3,34 @@
  */
 package vCloudBackupLib;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
-import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.xml.sax.SAXException;
 
+import com.rabbitmq.client.ConnectionFactory;
 import com.vmware.vcloud.api.rest.schema.CaptureVAppParamsType;
 import com.vmware.vcloud.api.rest.schema.CatalogItemType;
+import com.vmware.vcloud.api.rest.schema.CloneVAppParamsType;
 import com.vmware.vcloud.api.rest.schema.ReferenceType;
 import com.vmware.vcloud.api.rest.schema.TaskType;
 import com.vmware.vcloud.api.rest.schema.TasksInProgressType;
@@ -35,13 +40,10 @@ import com.vmware.vcloud.sdk.Metadata;
 import com.vmware.vcloud.sdk.Organization;
 import com.vmware.vcloud.sdk.Task;
 import com.vmware.vcloud.sdk.VCloudException;
-import com.vmware.vcloud.sdk.VM;
 import com.vmware.vcloud.sdk.Vapp;
 import com.vmware.vcloud.sdk.VappTemplate;
 import com.vmware.vcloud.sdk.VcloudClient;
 import com.vmware.vcloud.sdk.Vdc;
-import com.vmware.vcloud.sdk.VirtualDisk;
-import com.vmware.vcloud.sdk.VirtualNetworkCard;
 import com.vmware.vcloud.sdk.admin.extensions.VcloudAdminExtension;
 import com.vmware.vcloud.sdk.constants.Version;
 
@@ -51,38 +53,14 @@ import com.vmware.vcloud.sdk.constants.Version;
  */
 public class Backup 
 {
-	private static final String SHEET_TARGET_VMS = "Target VMs";
-	private static final int COLUMN_DATA_CENTER = 0;
-	private static final String COLUMN_DATA_CENTER_NAME = "Data Center";
-	private static final int COLUMN_CPUS = 1;
-	private static final String COLUMN_CPUS_NAME = "CPUs";
-	private static final int COLUMN_MEMORY = 2;
-	private static final String COLUMN_MEMORY_NAME = "Memory";
-	private static final int COLUMN_EXTRA_STORAGE = 3;
-	private static final String COLUMN_EXTRA_STORAGE_NAME = "Extra Storage";
-	private static final int COLUMN_EXTRA_MEMORY = 4;
-	private static final String COLUMN_EXTRA_MEMORY_NAME = "Extra Memory";
-	private static final int COLUMN_ENVRIONMENT = 5;
-	private static final String COLUMN_ENVRIONMENT_NAME = "Environment";
-	private static final int COLUMN_IP_ADDRESS = 6;
-	private static final String COLUMN_IP_ADDRESS_NAME = "IP Address";
-	private static final int COLUMN_DNS_NAME = 7;
-	private static final String COLUMN_DNS_NAME_NAME = "DNS Name";
-	private static final int COLUMN_HASH = 8;
-	private static final String COLUMN_HASH_NAME = "Hash";
-	private static final int COLUMN_ORGANIZATION = 9;
-	private static final String COLUMN_ORGANIZATION_NAME = "Organization";
-	private static final int COLUMN_VAPP_NAME = 10;
-	private static final String COLUMN_VAPP_NAME_NAME = "vAPP Name";
-	private static final int COLUMN_VM_DESCRIPTION = 11;
-	private static final String COLUMN_VM_DESCRIPTION_NAME = "VM Description";
-	private static final int COLUMN_TEMPLATE = 12;
-	private static final String COLUMN_TEMPLATE_NAME = "Template";
-	private static final int COLUMN_ZONE = 13;
-	private static final String COLUMN_ZONE_NAME = "Zone";
-	private static final int COLUMN_NUMBER = 14;
-	
-	private static final int DEFAULT_DRIVE_COUNT = 2;
+	/**
+	 * The number of Servers whose details are fetched ahead of the writer, per export thread.
+	 */
+	private static final int EXPORT_WINDOW_PER_THREAD = 2;
+	
+	private static final int DEFAULT_STREAM_BUFFER_SIZE = 256;
+	private static final String CLONE_SUFFIX = "-backup-clone";
+	private static final String TYPE_VAPP_TEMPLATE = "application/vnd.vmware.vcloud.vAppTemplate+xml";
 	
 	
 	/**
@@ -112,7 +90,7 @@ public class Backup
 	/**
 	 * The ArrayList of Servers retrieved from the vCloud API.
 	 */
-	private ArrayList<Server> servers;
+	private volatile ArrayList<Server> servers;
 	/**
 	 * Whether or not the user is logged into the vCloud API.
 	 */
@@ -129,8 +107,212 @@ public class Backup
 	 * The name of the private catalog
 	 */
 	private String catalogName;
+	/**
+	 * The number of threads used to crawl the vCloud, 1 crawls one request at a time.
+	 */
+	private int crawlThreads;
+	/**
+	 * The limiter that every vCloud API request is run through.
+	 */
+	private RequestLimiter limiter;
+	/**
+	 * The cache that vCloud references are resolved through.
+	 */
+	private EntityCache entityCache;
+	/**
+	 * The time, in milliseconds, a resolved entity is cached for.
+	 */
+	private long cacheTtl;
+	/**
+	 * The maximum number of resolved entities cached.
+	 */
+	private int cacheMaxEntries;
+	/**
+	 * How the Servers are discovered on <code>Login</code>.
+	 */
+	private InventoryMode inventoryMode;
+	/**
+	 * The number of records fetched per page in <code>InventoryMode.QUERY</code>.
+	 */
+	private int queryPageSize;
+	/**
+	 * Whether a walk crawl leaves each vApp to be fetched when first used.
+	 */
+	private boolean lazyServers;
+	/**
+	 * The number of Servers that may wait between the crawl and the consumer of <code>StreamServers</code>.
+	 */
+	private int streamBufferSize;
+	/**
+	 * The path of the inventory snapshot file, or null to always crawl on <code>Login</code>.
+	 */
+	private String snapshotPath;
+	/**
+	 * The error the last write of the snapshot file failed with, if any.
+	 */
+	private volatile IOException snapshotError;
+	/**
+	 * The background check of a snapshot loaded on <code>Login</code> against the vCloud API.
+	 */
+	private FutureTask<RefreshResult> snapshotValidation;
+	/**
+	 * The maximum number of backups run at once.
+	 */
+	private int backupGlobalLimit;
+	/**
+	 * The maximum number of backups run at once in any one Organization.
+	 */
+	private int backupOrganizationLimit;
+	/**
+	 * The maximum number of backups run at once in any one Vdc.
+	 */
+	private int backupVdcLimit;
+	/**
+	 * The scheduler that runs <code>BackupServers</code>, shared so the limits hold across batches.
+	 */
+	private BackupScheduler backupScheduler;
+	/**
+	 * The order <code>BackupServers</code> starts its Servers in.
+	 */
+	private BackupOrder backupOrder;
+	/**
+	 * How <code>BackupServer</code> captures each vApp.
+	 */
+	private BackupMode backupMode;
+	/**
+	 * Estimates how long each backup will take, from the backups run so far.
+	 */
+	private BackupEstimator backupEstimator;
+	/**
+	 * The journal every backup stage is recorded in, or null to keep no journal.
+	 */
+	private volatile BackupJournal journal;
+	/**
+	 * Resolves the private catalog of each Organization for <code>BackupServer</code>.
+	 */
+	private CatalogResolver catalogResolver;
+	/**
+	 * The tracker that vCloud tasks are waited on through.
+	 */
+	private TaskTracker taskTracker;
+	/**
+	 * The time, in milliseconds, between polls of outstanding vCloud tasks.
+	 */
+	private long taskPollInterval;
+	/**
+	 * The number of outstanding vCloud tasks fetched per poll.
+	 */
+	private int taskBatchSize;
+	/**
+	 * The factory for the AMQP connection task notifications arrive on, or null to only poll.
+	 */
+	private ConnectionFactory notificationFactory;
+	/**
+	 * The exchange vCloud Director publishes task notifications to.
+	 */
+	private String notificationExchange;
+	/**
+	 * The listener for task notifications, while logged in with notifications enabled.
+	 */
+	private TaskNotificationListener taskNotifications;
+	/**
+	 * The number of power tasks a bulk <code>PowerOff</code> or <code>PowerOn</code> keeps outstanding at once.
+	 */
+	private int powerParallelism;
+	/**
+	 * The time, in milliseconds, each Server in a bulk <code>PowerOff</code> or <code>PowerOn</code> is given.
+	 */
+	private long powerTimeout;
+	/**
+	 * The RetentionPolicy of every Server without a policy of its own or of its Environment, or null to keep every backup.
+	 */
+	private RetentionPolicy retentionPolicy;
+	/**
+	 * The RetentionPolicy of each Environment.
+	 */
+	private final EnumMap<Server.Environment, RetentionPolicy> environmentRetention = new EnumMap<Server.Environment, RetentionPolicy>(Server.Environment.class);
+	/**
+	 * The RetentionPolicy of each Server, keyed by Server name.
+	 */
+	private final HashMap<String, RetentionPolicy> serverRetention = new HashMap<String, RetentionPolicy>();
+	/**
+	 * The number of vApp templates <code>PruneBackups</code> deletes at once.
+	 */
+	private int pruneThreads;
+	/**
+	 * The number of Servers whose details <code>ServerDetailExcel</code> fetches at once.
+	 */
+	private int exportThreads;
 	
 	private static VcloudAdminExtension extension;
+	
+	/**
+	 * How the Servers are discovered on <code>Login</code>.
+	 */
+	public static enum InventoryMode
+	{
+		/**
+		 * Walk every Organization, Vdc and vApp.
+		 */
+		WALK, 
+		/**
+		 * Read adminVApp and adminVM records from the query service. This needs a 
+		 * 	system administrator login, and resolves each vApp only when it is used.
+		 */
+		QUERY
+	}
+
+	/**
+	 * The order <code>BackupServers</code> starts its Servers in.
+	 */
+	public static enum BackupOrder
+	{
+		/**
+		 * The order the Servers are passed in.
+		 */
+		SUBMITTED, 
+		/**
+		 * The longest expected backup first, estimated from each Server's past backups, 
+		 * 	or otherwise from the size of its hard disks. This keeps the batch from ending 
+		 * 	with one large vApp running on its own.
+		 */
+		LONGEST_FIRST
+	}
+
+	/**
+	 * The file format <code>ServerDetailExcel</code> writes.
+	 */
+	public static enum ExcelFormat
+	{
+		/**
+		 * An Excel 97 .xls workbook, built in memory and limited to 65,536 rows.
+		 */
+		XLS, 
+		/**
+		 * An .xlsx workbook, streamed to disk so that only a small window of rows 
+		 * 	is held in memory at once, however many Servers are exported.
+		 */
+		XLSX
+	}
+
+	/**
+	 * How <code>BackupServer</code> captures a vApp.
+	 */
+	public static enum BackupMode
+	{
+		/**
+		 * Power the vApp off for the whole capture, and power it back on once the 
+		 * 	vApp template is in the catalog.
+		 */
+		POWER_OFF, 
+		/**
+		 * Power the vApp off only long enough to clone it, power it straight back on, 
+		 * 	then capture the clone and delete it. On a fast provisioned Vdc the clone is 
+		 * 	a linked clone, so the vApp is down for seconds rather than the whole capture.
+		 * 	A vApp that is already off is captured directly, without a clone.
+		 */
+		CLONE
+	}
 
 	/**
 	 * Get the vCloud API url that this Backup object is using.
@@ -159,249 +341,1547 @@ public class Backup
 	{
 		return loggedIn;
 	}
-	
-	
-	
-	
+
 	/**
-	 * Default Constructor
-	 * @throws ParserConfigurationException 
-	 * @throws IOException 
-	 * @throws SAXException 
+	 * Get the Settings read from the settings file. Call <code>StartWatching</code> on them to 
+	 * 	pick up changes to the file without restarting.
+	 * @return The Settings.
 	 */
-	public Backup() throws SAXException, IOException, ParserConfigurationException
-	{		
-		settings = new Settings();
-		settings.ReadSettings();
-		loggedIn = false;
+	public Settings getSettings()
+	{
+		return settings;
+	}
 
-		VcloudClient.setLogLevel(Level.ALL);
+	/**
+	 * Get the number of threads used to crawl the vCloud.
+	 * @return The number of crawl threads.
+	 */
+	public int getCrawlThreads()
+	{
+		return crawlThreads;
 	}
-	
-	
+
 	/**
-	 * Main Constructor
-	 * 
-	 * @param username The username of the user to login to the API as.
-	 * @param password The password of the user to login to the API as.
-	 * @param organization The vCloud Organization the user belongs to.
-	 * @param vCloudURL The URL of the vCloud Director server.
-	 * @throws ParserConfigurationException 
-	 * @throws IOException 
-	 * @throws SAXException 
+	 * Set the number of threads used to crawl the vCloud on <code>Login</code>.
+	 * 	A value of 1 crawls one request at a time.
+	 * @param crawlThreads The number of crawl threads.
 	 */
-	public Backup(String username, String password, String organization, String vCloudURL, String dataCenterName, String catalogName) throws SAXException, IOException, ParserConfigurationException
+	public void setCrawlThreads(int crawlThreads)
 	{
-		this.username = username;
-		this.password = password;
-		this.organization = organization;
-		this.vCloudURL = vCloudURL;	
-		this.dataCenterName = dataCenterName;
-		this.catalogName = catalogName;
+		if (crawlThreads < 1)
+			throw new IllegalArgumentException("crawlThreads must be at least 1");
 		
-		settings = new Settings();
-		settings.ReadSettings();
-		loggedIn = false;
+		this.crawlThreads = crawlThreads;
+	}
 
-		VcloudClient.setLogLevel(Level.ALL);
+	/**
+	 * Get the maximum number of vCloud API requests that may be in flight at once.
+	 * @return The maximum number of requests in flight.
+	 */
+	public int getMaxInFlightRequests()
+	{
+		return limiter.getMaxInFlight();
 	}
-	
-	
+
 	/**
-	 * Get the login name string
-	 * 
-	 * @return The username plus the organization used to login to the API.
+	 * Set the maximum number of vCloud API requests that may be in flight at once,
+	 * 	across every thread used by this Backup object. The limiter backs off below
+	 * 	this when requests start failing or slowing down, and climbs back as they recover.
+	 * 	Used from the next <code>Login</code>.
+	 * @param maxInFlightRequests The maximum number of requests in flight.
 	 */
-	private String GetLoginName()
+	public void setMaxInFlightRequests(int maxInFlightRequests)
 	{
-		return username + "@" + this.organization;
+		limiter = new RequestLimiter(maxInFlightRequests);
 	}
 
-	
 	/**
-	 * Login to the vCloud API.
-	 * 
-	 * @return True if the login was successful, false otherwise.
+	 * Get the limiter that every vCloud API request is run through, which holds its current cap.
+	 * @return The RequestLimiter.
 	 */
-	public boolean Login()
+	public RequestLimiter getRequestLimiter()
 	{
-		boolean success = false;
-		
-		try 
-		{
-			_client = new VcloudClient(vCloudURL, Version.V1_5);
-			_client.login(GetLoginName(), password);
+		return limiter;
+	}
 
-			extension = _client.getVcloudAdminExtension();
-			organizations = GetOrgs();
-			servers = ProcessServers();
-			
-			this.loggedIn = true;
-			success = true;
-		} 
-		catch (VCloudException e) 
-		{
-			loggedIn = false;
-		}
-		
-		return success;
+	/**
+	 * Get how the Servers are discovered on <code>Login</code>.
+	 * @return The InventoryMode.
+	 */
+	public InventoryMode getInventoryMode()
+	{
+		return inventoryMode;
 	}
-	
-	
+
 	/**
-	 * Logout of the vCloud API.
-	 * 
-	 * @return True if the logout was successful, false otherwise.
+	 * Set how the Servers are discovered on <code>Login</code>.
+	 * @param inventoryMode The InventoryMode.
 	 */
-	public boolean Logout()
+	public void setInventoryMode(InventoryMode inventoryMode)
 	{
-		boolean success = false;
-		
+		this.inventoryMode = inventoryMode;
+	}
+
+	/**
+	 * Set the number of records fetched per page in <code>InventoryMode.QUERY</code>. A size above
+	 * 	the 128 records vCloud Director serves per page is lowered to 128.
+	 * @param queryPageSize The number of records fetched per page.
+	 */
+	public void setQueryPageSize(int queryPageSize)
+	{
+		if (queryPageSize < 1)
+			throw new IllegalArgumentException("queryPageSize must be at least 1");
 		
-		try 
-		{
-			_client.logout();
-			
-			loggedIn = false;
-			
-			success = true;
-		} 
-		catch (VCloudException e) 
-		{
-			e.printStackTrace();
-		}	
+		//vCloud Director serves no more than this per page, however many are asked for
+		this.queryPageSize = Math.min(queryPageSize, QueryCrawler.MAX_PAGE_SIZE);
+	}
+
+	/**
+	 * Get whether a walk crawl leaves each vApp to be fetched when first used.
+	 * @return True, if the Servers are lazy, false otherwise.
+	 */
+	public boolean getLazyServers()
+	{
+		return lazyServers;
+	}
+
+	/**
+	 * Set whether a walk crawl leaves each vApp to be fetched when first used. Lazy
+	 * 	Servers hold only references, so <code>Login</code> fetches the Organizations 
+	 * 	and Vdcs but none of the vApps. Servers from <code>InventoryMode.QUERY</code> are always lazy.
+	 * @param lazyServers True, to build lazy Servers, false to fetch every vApp on <code>Login</code>.
+	 */
+	public void setLazyServers(boolean lazyServers)
+	{
+		this.lazyServers = lazyServers;
+	}
+
+	/**
+	 * Set the number of Servers that may wait between the crawl and the consumer of 
+	 * 	<code>StreamServers</code>. Once it is full the crawl waits for the consumer.
+	 * @param streamBufferSize The number of Servers that may wait.
+	 */
+	public void setStreamBufferSize(int streamBufferSize)
+	{
+		if (streamBufferSize < 1)
+			throw new IllegalArgumentException("streamBufferSize must be at least 1");
 		
-		return success;
+		this.streamBufferSize = streamBufferSize;
 	}
 
+	/**
+	 * Set the path of the inventory snapshot file. After each crawl or <code>Refresh</code> the
+	 * 	Servers are written to it, and <code>Login</code> reads them back from it instead of 
+	 * 	crawling, then checks them against the vCloud API in the background.
+	 * @param snapshotPath The path of the snapshot file, or null to always crawl.
+	 */
+	public void setSnapshotPath(String snapshotPath)
+	{
+		this.snapshotPath = snapshotPath;
+	}
 
 	/**
-	 * Get all of the user's Organizations.
-	 * 
-	 * @return A HashMap of all of the user's organizations.
-	 * @throws VCloudException
+	 * Get the background check of the snapshot loaded on the last <code>Login</code>. 
+	 * 	Its result is the <code>RefreshResult</code> of the check, or null if the check failed.
+	 * @return The Future of the check, or null if the last Login crawled instead.
 	 */
-	private HashMap<String, ReferenceType> GetOrgs() throws VCloudException
-	{		
-		HashMap<String, ReferenceType> orgs = _client.getOrgRefsByName();
-		HashMap<String, ReferenceType> returnOrgs = new HashMap<String, ReferenceType>();
+	public Future<RefreshResult> getSnapshotValidation()
+	{
+		return snapshotValidation;
+	}
+
+	/**
+	 * Get the error the last write of the snapshot file failed with. While it is set, the
+	 * 	snapshot on disk is older than <code>getServers</code>.
+	 * @return The IOException of the last write, or null if it succeeded or no snapshot is kept.
+	 */
+	public IOException getSnapshotError()
+	{
+		return snapshotError;
+	}
+
+	/**
+	 * Set the limits on how many backups <code>BackupServers</code> runs at once. Batches
+	 * 	already running take on the new limits as their backups finish.
+	 * @param global The maximum number of backups run at once.
+	 * @param perOrganization The maximum number of backups run at once in any one Organization.
+	 * @param perVdc The maximum number of backups run at once in any one Vdc.
+	 */
+	public synchronized void setBackupLimits(int global, int perOrganization, int perVdc)
+	{
+		if (global < 1 || perOrganization < 1 || perVdc < 1)
+			throw new IllegalArgumentException("Backup limits must be at least 1");
 		
+		this.backupGlobalLimit = global;
+		this.backupOrganizationLimit = perOrganization;
+		this.backupVdcLimit = perVdc;
 		
-		for (String organizationName : orgs.keySet())
+		if (backupScheduler != null)
+			backupScheduler.setLimits(global, perOrganization, perVdc);
+	}
+
+	/**
+	 * Set the file every backup stage is recorded in, so a run that dies part way 
+	 * 	through can be picked up again with <code>ResumeBackups</code>.
+	 * @param journalPath The path of the journal file, or null to keep no journal.
+	 */
+	public synchronized void setJournalPath(String journalPath)
+	{
+		if (journal != null)
 		{
-			if (organizationName != null)
+			try
 			{
-				returnOrgs.put(organizationName, orgs.get(organizationName));
+				journal.close();
+			}
+			
+			catch (IOException e)
+			{
+				e.printStackTrace();
 			}
 		}
 		
-		return returnOrgs;
+		journal = journalPath != null ? new BackupJournal(journalPath) : null;
 	}
-	
-	
+
 	/**
-	 * Get all of the server's associated with the user's Organizations.
-	 * 
-	 * @return An Array of the servers.
-	 * @throws VCloudException 
+	 * Set the file the durations of past backups are kept in, so the estimates behind 
+	 * 	<code>LONGEST_FIRST</code> last from one run to the next. Without one, they last 
+	 * 	only as long as this process.
+	 * @param historyPath The path of the history file, or null to keep the durations in memory only.
+	 */
+	public void setBackupHistoryPath(String historyPath)
+	{
+		try
+		{
+			backupEstimator.setHistoryPath(historyPath);
+		}
+		
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Set the order <code>BackupServers</code> starts its Servers in.
+	 * @param backupOrder The BackupOrder.
+	 */
+	public void setBackupOrder(BackupOrder backupOrder)
+	{
+		this.backupOrder = backupOrder;
+	}
+
+	/**
+	 * Set how <code>BackupServer</code> captures each vApp.
+	 * @param backupMode The BackupMode.
+	 */
+	public void setBackupMode(BackupMode backupMode)
+	{
+		this.backupMode = backupMode;
+	}
+
+	/**
+	 * Get the cache that vCloud references are resolved through, which
+	 * 	holds the hit and miss counts of the last <code>Login</code>.
+	 * @return The EntityCache, or null if not logged in.
+	 */
+	public EntityCache getEntityCache()
+	{
+		return entityCache;
+	}
+
+	/**
+	 * Get the tracker that vCloud tasks are waited on through.
+	 * @return The TaskTracker, or null if not logged in.
+	 */
+	public TaskTracker getTaskTracker()
+	{
+		return taskTracker;
+	}
+
+	/**
+	 * Set how outstanding vCloud tasks are polled, used from the next <code>Login</code>.
+	 * @param taskPollInterval The time, in milliseconds, between polls.
+	 * @param taskBatchSize The number of tasks fetched per poll.
+	 */
+	public void setTaskPolling(long taskPollInterval, int taskBatchSize)
+	{
+		if (taskPollInterval < 1 || taskBatchSize < 1)
+			throw new IllegalArgumentException("taskPollInterval and taskBatchSize must be at least 1");
+		
+		this.taskPollInterval = taskPollInterval;
+		this.taskBatchSize = taskBatchSize;
+	}
+
+	/**
+	 * Have vCloud tasks completed from the notifications vCloud Director publishes over AMQP,
+	 * 	used from the next <code>Login</code>. Polling carries on at a slower rate as a fallback, 
+	 * 	and returns to its normal rate if the broker cannot be reached.
+	 * @param notificationFactory The factory for the AMQP connection, or null to only poll.
+	 * @param notificationExchange The exchange the notifications are published to.
+	 */
+	public void setTaskNotifications(ConnectionFactory notificationFactory, String notificationExchange)
+	{
+		this.notificationFactory = notificationFactory;
+		this.notificationExchange = notificationExchange;
+	}
+
+	/**
+	 * Set the limits of a bulk <code>PowerOff</code> or <code>PowerOn</code>.
+	 * @param powerParallelism The number of power tasks kept outstanding at once.
+	 * @param powerTimeout The time, in milliseconds, each Server's power task is given to finish.
+	 */
+	public void setPowerLimits(int powerParallelism, long powerTimeout)
+	{
+		if (powerParallelism < 1 || powerTimeout < 1)
+			throw new IllegalArgumentException("powerParallelism and powerTimeout must be at least 1");
+		
+		this.powerParallelism = powerParallelism;
+		this.powerTimeout = powerTimeout;
+	}
+
+	/**
+	 * Set the RetentionPolicy of every Server without a policy of its own or of its Environment.
+	 * @param retentionPolicy The RetentionPolicy, or null to keep every backup of those Servers.
+	 */
+	public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy)
+	{
+		this.retentionPolicy = retentionPolicy;
+	}
+
+	/**
+	 * Set the RetentionPolicy of the Servers of an Environment.
+	 * @param environment The Environment.
+	 * @param retentionPolicy The RetentionPolicy, or null to fall back to the default policy.
+	 */
+	public synchronized void setRetentionPolicy(Server.Environment environment, RetentionPolicy retentionPolicy)
+	{
+		if (retentionPolicy == null)
+			environmentRetention.remove(environment);
+		
+		else
+			environmentRetention.put(environment, retentionPolicy);
+	}
+
+	/**
+	 * Set the RetentionPolicy of a single Server, which takes precedence over the policy of its Environment.
+	 * @param serverName The name of the Server.
+	 * @param retentionPolicy The RetentionPolicy, or null to fall back to the policy of its Environment.
+	 */
+	public synchronized void setRetentionPolicy(String serverName, RetentionPolicy retentionPolicy)
+	{
+		if (retentionPolicy == null)
+			serverRetention.remove(serverName);
+		
+		else
+			serverRetention.put(serverName, retentionPolicy);
+	}
+
+	/**
+	 * Set the number of vApp templates <code>PruneBackups</code> deletes at once.
+	 * @param pruneThreads The number of vApp templates deleted at once.
+	 */
+	public void setPruneThreads(int pruneThreads)
+	{
+		if (pruneThreads < 1)
+			throw new IllegalArgumentException("pruneThreads must be at least 1");
+		
+		this.pruneThreads = pruneThreads;
+	}
+
+	/**
+	 * Set the number of Servers whose details <code>ServerDetailExcel</code> fetches at once.
+	 * @param exportThreads The number of Servers fetched at once.
+	 */
+	public void setExportThreads(int exportThreads)
+	{
+		if (exportThreads < 1)
+			throw new IllegalArgumentException("exportThreads must be at least 1");
+		
+		this.exportThreads = exportThreads;
+	}
+
+	/**
+	 * Set how long resolved entities are cached for, used from the next <code>Login</code>.
+	 * @param cacheTtl The time, in milliseconds, a resolved entity is cached for.
+	 */
+	public void setCacheTtl(long cacheTtl)
+	{
+		this.cacheTtl = cacheTtl;
+	}
+
+	/**
+	 * Set the maximum number of resolved entities cached, used from the next <code>Login</code>.
+	 * @param cacheMaxEntries The maximum number of resolved entities cached.
+	 */
+	public void setCacheMaxEntries(int cacheMaxEntries)
+	{
+		if (cacheMaxEntries < 1)
+			throw new IllegalArgumentException("cacheMaxEntries must be at least 1");
+		
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+	
+	
+	
+	
+	/**
+	 * Default Constructor
+	 * @throws ParserConfigurationException 
+	 * @throws IOException 
+	 * @throws SAXException 
+	 */
+	public Backup() throws SAXException, IOException, ParserConfigurationException
+	{		
+		settings = new Settings();
+		settings.ReadSettings();
+		loggedIn = false;
+		crawlThreads = 1;
+		limiter = new RequestLimiter();
+		cacheTtl = EntityCache.DEFAULT_TTL;
+		cacheMaxEntries = EntityCache.DEFAULT_MAX_ENTRIES;
+		inventoryMode = InventoryMode.WALK;
+		queryPageSize = QueryCrawler.DEFAULT_PAGE_SIZE;
+		streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+		backupGlobalLimit = BackupScheduler.DEFAULT_GLOBAL_LIMIT;
+		backupOrganizationLimit = BackupScheduler.DEFAULT_ORGANIZATION_LIMIT;
+		backupVdcLimit = BackupScheduler.DEFAULT_VDC_LIMIT;
+		backupOrder = BackupOrder.LONGEST_FIRST;
+		backupMode = BackupMode.POWER_OFF;
+		backupEstimator = new BackupEstimator();
+		taskPollInterval = TaskTracker.DEFAULT_POLL_INTERVAL;
+		taskBatchSize = TaskTracker.DEFAULT_BATCH_SIZE;
+		notificationExchange = TaskNotificationListener.DEFAULT_EXCHANGE;
+		powerParallelism = PowerBatch.DEFAULT_PARALLELISM;
+		powerTimeout = PowerBatch.DEFAULT_TIMEOUT;
+		pruneThreads = CatalogPruner.DEFAULT_THREADS;
+		exportThreads = ServerDetail.DEFAULT_FETCH_THREADS;
+
+		VcloudClient.setLogLevel(Level.ALL);
+	}
+	
+	
+	/**
+	 * Main Constructor
+	 * 
+	 * @param username The username of the user to login to the API as.
+	 * @param password The password of the user to login to the API as.
+	 * @param organization The vCloud Organization the user belongs to.
+	 * @param vCloudURL The URL of the vCloud Director server.
+	 * @throws ParserConfigurationException 
+	 * @throws IOException 
+	 * @throws SAXException 
+	 */
+	public Backup(String username, String password, String organization, String vCloudURL, String dataCenterName, String catalogName) throws SAXException, IOException, ParserConfigurationException
+	{
+		this.username = username;
+		this.password = password;
+		this.organization = organization;
+		this.vCloudURL = vCloudURL;	
+		this.dataCenterName = dataCenterName;
+		this.catalogName = catalogName;
+		
+		settings = new Settings();
+		settings.ReadSettings();
+		loggedIn = false;
+		crawlThreads = 1;
+		limiter = new RequestLimiter();
+		cacheTtl = EntityCache.DEFAULT_TTL;
+		cacheMaxEntries = EntityCache.DEFAULT_MAX_ENTRIES;
+		inventoryMode = InventoryMode.WALK;
+		queryPageSize = QueryCrawler.DEFAULT_PAGE_SIZE;
+		streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+		backupGlobalLimit = BackupScheduler.DEFAULT_GLOBAL_LIMIT;
+		backupOrganizationLimit = BackupScheduler.DEFAULT_ORGANIZATION_LIMIT;
+		backupVdcLimit = BackupScheduler.DEFAULT_VDC_LIMIT;
+		backupOrder = BackupOrder.LONGEST_FIRST;
+		backupMode = BackupMode.POWER_OFF;
+		backupEstimator = new BackupEstimator();
+		taskPollInterval = TaskTracker.DEFAULT_POLL_INTERVAL;
+		taskBatchSize = TaskTracker.DEFAULT_BATCH_SIZE;
+		notificationExchange = TaskNotificationListener.DEFAULT_EXCHANGE;
+		powerParallelism = PowerBatch.DEFAULT_PARALLELISM;
+		powerTimeout = PowerBatch.DEFAULT_TIMEOUT;
+		pruneThreads = CatalogPruner.DEFAULT_THREADS;
+		exportThreads = ServerDetail.DEFAULT_FETCH_THREADS;
+
+		VcloudClient.setLogLevel(Level.ALL);
+	}
+	
+	
+	/**
+	 * Get the login name string
+	 * 
+	 * @return The username plus the organization used to login to the API.
+	 */
+	private String GetLoginName()
+	{
+		return username + "@" + this.organization;
+	}
+
+	
+	/**
+	 * Login to the vCloud API.
+	 * 
+	 * @return True if the login was successful, false otherwise.
+	 */
+	public boolean Login()
+	{
+		return Login(true);
+	}
+	
+	
+	/**
+	 * Login to the vCloud API.
+	 * 
+	 * @param processServers Whether to crawl the vCloud for Servers. Pass false to 
+	 * 	discover them with <code>StreamServers</code> instead.
+	 * @return True if the login was successful, false otherwise.
+	 */
+	public boolean Login(boolean processServers)
+	{
+		boolean success = false;
+		
+		try 
+		{
+			_client = new VcloudClient(vCloudURL, Version.V1_5);
+			_client.login(GetLoginName(), password);
+
+			extension = limiter.Execute(new ApiCall<VcloudAdminExtension>()
+			{
+				@Override
+				public VcloudAdminExtension call() throws VCloudException
+				{
+					return _client.getVcloudAdminExtension();
+				}
+			});
+			entityCache = new EntityCache(_client, limiter, cacheTtl, cacheMaxEntries);
+			catalogResolver = new CatalogResolver(entityCache, catalogName);
+			
+			CloseTaskTracker();
+			taskTracker = new TaskTracker(_client, limiter, taskPollInterval, taskBatchSize);
+			StartTaskNotifications();
+			organizations = GetOrgs();
+			snapshotValidation = null;
+			
+			ArrayList<Server> snapshot = processServers ? ReadSnapshot() : null;
+			
+			if (snapshot != null)
+				servers = Attach(snapshot);
+			
+			else if (processServers)
+			{
+				servers = Attach(ProcessServers());
+				WriteSnapshot();
+			}
+			
+			else
+				servers = new ArrayList<Server>();
+			
+			this.loggedIn = true;
+			success = true;
+			
+			if (snapshot != null)
+				StartSnapshotValidation();
+		} 
+		catch (VCloudException e) 
+		{
+			loggedIn = false;
+		}
+		
+		return success;
+	}
+	
+	
+	/**
+	 * Logout of the vCloud API.
+	 * 
+	 * @return True if the logout was successful, false otherwise.
+	 */
+	public boolean Logout()
+	{
+		boolean success = false;
+		
+		
+		try 
+		{
+			_client.logout();
+			
+			loggedIn = false;
+			
+			CloseTaskTracker();
+			
+			success = true;
+		} 
+		catch (VCloudException e) 
+		{
+			e.printStackTrace();
+		}	
+		
+		return success;
+	}
+
+
+	/**
+	 * Get all of the user's Organizations.
+	 * 
+	 * @return A HashMap of all of the user's organizations.
+	 * @throws VCloudException
+	 */
+	private HashMap<String, ReferenceType> GetOrgs() throws VCloudException
+	{		
+		HashMap<String, ReferenceType> orgs = limiter.Execute(new ApiCall<HashMap<String, ReferenceType>>()
+		{
+			@Override
+			public HashMap<String, ReferenceType> call() throws VCloudException
+			{
+				return _client.getOrgRefsByName();
+			}
+		});
+		HashMap<String, ReferenceType> returnOrgs = new HashMap<String, ReferenceType>();
+		
+		
+		for (String organizationName : orgs.keySet())
+		{
+			if (organizationName != null)
+			{
+				returnOrgs.put(organizationName, orgs.get(organizationName));
+			}
+		}
+		
+		return returnOrgs;
+	}
+	
+	
+	/**
+	 * Get all of the server's associated with the user's Organizations.
+	 * 
+	 * @return An Array of the servers.
+	 * @throws VCloudException 
 	 */
 	private ArrayList<Server> ProcessServers() throws VCloudException
 	{
-		ArrayList<Server> servers = new ArrayList<Server>();
+		if (inventoryMode == InventoryMode.QUERY)
+			return NewQueryCrawler().Crawl(this.organizations, crawlThreads);
+		
+		
+		ServerCrawler crawler = NewServerCrawler();
+		
+		if (crawlThreads > 1)
+			return crawler.CrawlParallel(this.organizations.values(), crawlThreads);
+		
+		else
+			return crawler.Crawl(this.organizations.values());
+	}
+	
+	
+	/**
+	 * Bring the ArrayList of Servers up to date without crawling the whole vCloud again.
+	 * 	Vdcs that have not changed since the last crawl are skipped, and only the 
+	 * 	Servers whose vApps were added, changed or removed are touched.
+	 * <p>
+	 * In <code>QUERY</code> mode a vApp has changed when its status, or the number, CPUs 
+	 * 	or memory of its VMs, has changed. In <code>WALK</code> mode a Vdc lists no more 
+	 * 	than the href and name of each vApp, so a refresh finds the vApps that were added, 
+	 * 	removed or renamed, and no other change. Every Organization and Vdc is still fetched 
+	 * 	again; what is saved is fetching the vApps.
+	 * 
+	 * @return The changes found, or null if the user is not logged in or the refresh failed.
+	 */
+	public synchronized RefreshResult Refresh()
+	{
+		if (!loggedIn)
+			return null;
+		
+		
+		try
+		{
+			organizations = GetOrgs();
+			InventoryRefresher refresher = new InventoryRefresher(entityCache, servers);
+			
+			if (inventoryMode == InventoryMode.QUERY)
+				servers = Attach(refresher.RefreshQuery(NewQueryCrawler().Crawl(organizations, crawlThreads)));
+			
+			else
+				servers = Attach(refresher.RefreshWalk(NewServerCrawler(), organizations.values(), crawlThreads));
+			
+			WriteSnapshot();
+			
+			return refresher.getResult();
+		}
+		
+		catch (VCloudException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Discover the Servers, passing each one to the listener as soon as it is built
+	 * 	rather than waiting for the whole crawl. With more than one crawl thread the
+	 * 	listener is called from several threads at once, and Servers arrive in no 
+	 * 	particular order. The Servers are not added to <code>getServers</code>.
+	 * 
+	 * @param listener The listener each Server is passed to.
+	 * @return True if the crawl finished, false if it failed or the user is not logged in.
+	 */
+	public boolean StreamServers(ServerListener listener)
+	{
+		if (!loggedIn)
+			return false;
+		
+		
+		try
+		{
+			StreamServersTo(listener);
+			return true;
+		}
+		
+		catch (VCloudException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Discover the Servers on a background thread, and iterate over them as they arrive.
+	 * 	The crawl waits whenever the consumer falls more than <code>setStreamBufferSize</code> 
+	 * 	Servers behind. Close the iterator to stop the crawl early.
+	 * 
+	 * @return A ServerIterator over the Servers as they are discovered.
+	 */
+	public ServerIterator StreamServers()
+	{
+		if (!loggedIn)
+			throw new IllegalStateException("Not logged in");
+		
+		
+		ServerIterator iterator = new ServerIterator(streamBufferSize);
+		
+		iterator.Start(new ServerIterator.Crawl()
+		{
+			@Override
+			public void Run(ServerListener listener) throws VCloudException
+			{
+				StreamServersTo(listener);
+			}
+		});
+		
+		return iterator;
+	}
+	
+	
+	private void StreamServersTo(final ServerListener target) throws VCloudException
+	{
+		ServerListener listener = new ServerListener()
+		{
+			@Override
+			public void ServerFound(Server server)
+			{
+				target.ServerFound(Attach(server));
+			}
+		};
+		
+		
+		if (inventoryMode == InventoryMode.QUERY)
+			NewQueryCrawler().Crawl(organizations, crawlThreads, listener);
+		
+		else if (crawlThreads > 1)
+			NewServerCrawler().CrawlParallel(organizations.values(), crawlThreads, listener);
+		
+		else
+			NewServerCrawler().Crawl(organizations.values(), listener);
+	}
+	
+	
+	/**
+	 * Read the Servers from the snapshot file.
+	 * 
+	 * @return An ArrayList of the Servers, or null if there is no usable snapshot.
+	 */
+	private ArrayList<Server> ReadSnapshot()
+	{
+		if (snapshotPath == null || !new File(snapshotPath).exists())
+			return null;
+		
+		
+		try
+		{
+			return InventorySnapshot.Read(snapshotPath, dataCenterName, entityCache);
+		}
+		
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Write the Servers to the snapshot file. A failed write leaves the old snapshot in 
+	 * 	place, and is kept for <code>getSnapshotError</code>.
+	 */
+	private void WriteSnapshot()
+	{
+		if (snapshotPath == null)
+			return;
+		
+		
+		try
+		{
+			InventorySnapshot.Write(snapshotPath, servers);
+			snapshotError = null;
+		}
+		
+		catch (IOException e)
+		{
+			snapshotError = e;
+		}
+	}
+	
+	
+	/**
+	 * Check the Servers loaded from the snapshot against the vCloud API on a background thread.
+	 */
+	private void StartSnapshotValidation()
+	{
+		snapshotValidation = new FutureTask<RefreshResult>(new Callable<RefreshResult>()
+		{
+			@Override
+			public RefreshResult call()
+			{
+				return Refresh();
+			}
+		});
+		
+		new DaemonThreadFactory("vcloud-snapshot").newThread(snapshotValidation).start();
+	}
+	
+	
+	/**
+	 * Start listening for task notifications, if enabled. A broker that cannot be reached 
+	 * 	only leaves the TaskTracker polling, so it is not reported.
+	 */
+	private void StartTaskNotifications()
+	{
+		if (notificationFactory == null)
+			return;
+		
+		
+		taskNotifications = new TaskNotificationListener(taskTracker, notificationFactory, notificationExchange, 
+				TaskNotificationListener.DEFAULT_FALLBACK_POLL_INTERVAL);
+		
+		try
+		{
+			taskNotifications.Start();
+		}
+		
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	
+	private void CloseTaskTracker()
+	{
+		if (taskNotifications != null)
+		{
+			taskNotifications.close();
+			taskNotifications = null;
+		}
+		
+		if (taskTracker != null)
+			taskTracker.close();
+	}
+	
+	
+	/**
+	 * Hand the TaskTracker and limiter to each of the passed in Servers.
+	 */
+	private ArrayList<Server> Attach(ArrayList<Server> servers)
+	{
+		for (Server server : servers)
+		{
+			Attach(server);
+		}
+		
+		return servers;
+	}
+	
+	
+	/**
+	 * Hand the TaskTracker and limiter to the passed in Server, so its power tasks are
+	 * 	waited on through the tracker and its requests run through the limiter.
+	 */
+	private Server Attach(Server server)
+	{
+		server.setTaskTracker(taskTracker);
+		server.setRequestLimiter(limiter);
+		
+		return server;
+	}
+	
+	
+	private ServerCrawler NewServerCrawler()
+	{
+		ServerCrawler crawler = new ServerCrawler(entityCache, dataCenterName, settings.getEnvironmentClassifier());
+		crawler.setLazy(lazyServers);
+		
+		return crawler;
+	}
+	
+	
+	private QueryCrawler NewQueryCrawler()
+	{
+		return new QueryCrawler(_client.getQueryService(), limiter, entityCache, dataCenterName, settings.getEnvironmentClassifier(), queryPageSize);
+	}
+	
+	
+	/**
+	 * Backup the passed in <code>Server</code> to the private catalog, and add the passed in description.
+	 * 	The vApp is kept powered off for the whole capture, or only while it is cloned, as set 
+	 * 	by <code>setBackupMode</code>. A vApp that was already off is captured as it is, and left off.
+	 * @param server The <code>Server</code> to backup.
+	 * @param description The description to use when backing up the Server.
+	 * @return <code>true</code> if the backup was successful, <code>false</code> otherwise.
+	 */
+	public boolean BackupServer(Server server, String description)
+	{
+		HashMap<Server, String> descriptions = new HashMap<Server, String>();
+		descriptions.put(server, description);
+		
+		Queue(descriptions);
+		
+		return RunBackup(server, description);
+	}
+	
+	
+	/**
+	 * Backup the passed in <code>Server</code>, whose backup the journal already holds as queued.
+	 * @param server The <code>Server</code> to backup.
+	 * @param description The description to use when backing up the Server.
+	 * @return <code>true</code> if the backup was successful, <code>false</code> otherwise.
+	 */
+	boolean RunBackup(Server server, String description)
+	{
+		final Vdc vdc = server.getVdc();
+		Vapp vapp = server.getVapp();
+		
+		if (vdc == null || vapp == null || catalogResolver == null)
+			return false;
+		
+		
+		//Setup the templates information
+		final CaptureVAppParamsType parms = new CaptureVAppParamsType();
+		
+		parms.setSource(vapp.getReference());
+		parms.setName(server.getServerName());
+		parms.setDescription(description);
+		
+		//Resolve the catalog before touching the vApp, so a missing catalog leaves nothing to undo
+		final Catalog cat;
+		
+		try
+		{
+			cat = catalogResolver.Resolve(server);
+		}
+		
+		catch (VCloudException e)
+		{
+			return false;
+		}
+		
+		if (cat == null)
+			return false;
+		
+		//A vApp that is already off is captured as it is, and left off afterwards
+		final boolean running;
+		
+		try
+		{
+			running = server.IsPoweredOn();
+		}
+		
+		catch (VCloudException e)
+		{
+			return false;
+		}
+		
+		
+		boolean success = false;
+		boolean poweredOff = false;
+		boolean poweredOn = false;
+		boolean catalogAdded = false;
+		String cloneHref = null;
+		String templateHref = null;
+		
+		
+		//Backup server
+		try
+		{
+			Journal(server, BackupJournal.Stage.POWER_OFF, String.valueOf(running));
+			
+			//Never clone or capture a vApp that may still be running
+			if (running)
+			{
+				if (!server.PowerOff())
+					return false;
+				
+				poweredOff = true;
+			}
+			
+			//A vApp that was already off has no downtime to save, so it is captured directly
+			if (backupMode == BackupMode.CLONE && poweredOff)
+			{
+				Vapp clone = CloneVapp(vdc, vapp, server.getServerName() + CLONE_SUFFIX, description);
+				cloneHref = clone.getReference().getHref();
+				Journal(server, BackupJournal.Stage.CLONE, cloneHref);
+				
+				for (Task cloneTask : clone.getTasks())
+				{
+					TaskTracker.Wait(taskTracker, cloneTask);
+				}
+				
+				//The clone holds the state to capture, so the vApp can go back to work
+				poweredOn = server.PowerOn();
+				parms.setSource(clone.getReference());
+			}
+			
+			
+			VappTemplate vTemplate = limiter.Execute(new ApiCall<VappTemplate>()
+			{
+				@Override
+				public VappTemplate call() throws VCloudException
+				{
+					return vdc.captureVapp(parms);
+				}
+			});
+			templateHref = vTemplate.getReference().getHref();
+			Journal(server, BackupJournal.Stage.CAPTURE, templateHref);
+			
+			for (Task captureTask : vTemplate.getTasks())
+			{
+				TaskTracker.Wait(taskTracker, captureTask);
+			}
+			
+			Journal(server, BackupJournal.Stage.CAPTURED, templateHref);
+			
+			
+			AddToCatalog(cat, server, vTemplate.getReference(), description);
+			catalogAdded = true;
+			Journal(server, BackupJournal.Stage.CATALOG_ADDED);
+			
+			success = true;
+		} 
+		
+		catch (VCloudException | TimeoutException | IOException e)
+		{
+			return false;
+		}
+		
+		finally
+		{
+			if (poweredOff && !poweredOn)
+				poweredOn = server.PowerOn();
+			
+			//A template that never made it into the catalog is of no use, and would only be left behind
+			if (!catalogAdded)
+				DeleteTemplate(templateHref);
+			
+			DeleteVapp(cloneHref);
+			Finished(server, success, poweredOn);
+		}
+		
+		
+		return success;
+	}
+	
+	
+	/**
+	 * Finish or roll back every backup the journal shows was cut short, then start
+	 * 	again every backup in the journal that has not completed. A backup cut short
+	 * 	after its capture finished is added to the catalog; one cut short earlier has
+	 * 	its partial vApp template deleted. Either way any clone left by a <code>CLONE</code> 
+	 * 	mode backup is deleted, and the vApp is powered back on if it was running before the backup.
+	 * 
+	 * @return The <code>BatchBackupResult</code> of the backups started again, or null if not 
+	 * 	logged in, no journal is set, or the journal could not be read.
+	 */
+	public BatchBackupResult ResumeBackups()
+	{
+		if (!loggedIn || journal == null)
+			return null;
+		
+		
+		HashMap<String, Server> known = new HashMap<String, Server>();
+		LinkedHashMap<Server, String> rerun = new LinkedHashMap<Server, String>();
+		
+		for (Server server : servers)
+		{
+			known.put(server.getVappReference().getHref(), server);
+		}
+		
+		
+		try
+		{
+			for (BackupJournal.Entry entry : journal.Read().values())
+			{
+				if (entry.getStage() == BackupJournal.Stage.COMPLETED)
+					continue;
+				
+				Server server = known.get(entry.getVappHref());
+				
+				if (server == null)
+				{
+					server = Attach(entry.NewServer(dataCenterName, settings.getEnvironmentClassifier(), entityCache));
+				}
+				
+				if (!Recover(server, entry))
+					rerun.put(server, entry.getDescription());
+			}
+		}
+		
+		catch (IOException e)
+		{
+			return null;
+		}
+		
+		Queue(rerun);
+		
+		return GetBackupScheduler().Submit(rerun, backupOrder);
+	}
+	
+	
+	/**
+	 * Finish or roll back a backup that was cut short.
+	 * 
+	 * @return True, if the backup was finished, false if it has to be run again.
+	 * @throws IOException If the journal could not be written.
+	 */
+	private boolean Recover(Server server, BackupJournal.Entry entry) throws IOException
+	{
+		boolean completed = false;
+		
+		
+		switch (entry.getStage())
+		{
+			case QUEUED:
+				return false;
+				
+			case FAILED:
+				//The vApp's power was already put back, but what the failed attempt made is still there
+				if (!entry.getCatalogAdded())
+					DeleteTemplate(entry.getTemplateHref());
+				
+				DeleteVapp(entry.getCloneHref());
+				return false;
+				
+			case POWER_OFF:
+			case CLONE:
+				break;
+				
+			case CAPTURE:
+				DeleteTemplate(entry.getTemplateHref());
+				break;
+				
+			case CAPTURED:
+				try
+				{
+					Catalog cat = catalogResolver.Resolve(server);
+					
+					if (cat != null)
+					{
+						ReferenceType templateRef = QueryCrawler.NewReference(entry.getTemplateHref(), server.getServerName(), TYPE_VAPP_TEMPLATE);
+						AddToCatalog(cat, server, templateRef, entry.getDescription());
+						Journal(server, BackupJournal.Stage.CATALOG_ADDED);
+						completed = true;
+					}
+				}
+				
+				catch (VCloudException | TimeoutException e)
+				{
+					//Not added, so roll back
+				}
+				
+				if (!completed)
+					DeleteTemplate(entry.getTemplateHref());
+				
+				break;
+				
+			case CATALOG_ADDED:
+				completed = true;
+				break;
+				
+			case POWER_ON:
+				journal.Record(server, entry.getCatalogAdded() ? BackupJournal.Stage.COMPLETED : BackupJournal.Stage.FAILED);
+				return entry.getCatalogAdded();
+				
+			default:
+				return entry.getStage() == BackupJournal.Stage.COMPLETED;
+		}
+		
+		
+		DeleteVapp(entry.getCloneHref());
+		
+		boolean poweredOn = entry.getWasRunning() && server.PowerOn();
+		
+		Finished(server, completed, poweredOn);
+		
+		return completed;
+	}
+	
+	
+	/**
+	 * Add the passed in vApp template to the catalog, and wait for the add to finish.
+	 */
+	private void AddToCatalog(final Catalog cat, Server server, ReferenceType templateRef, String description) 
+			throws VCloudException, TimeoutException
+	{
+		final CatalogItemType catItem = createNewCatalogItem(templateRef, server.getServerName(), description); 
+		
+		try
+		{
+			CatalogItem catalogItem = limiter.Execute(new ApiCall<CatalogItem>()
+			{
+				@Override
+				public CatalogItem call() throws VCloudException
+				{
+					return cat.addCatalogItem(catItem);
+				}
+			});
+			
+			Task task = returnTask(catalogItem);
+			
+			if (task != null)
+				TaskTracker.Wait(taskTracker, task);
+		}
+		
+		catch (VCloudException | TimeoutException e)
+		{
+			//The catalog may have been removed or replaced, so resolve it again next time
+			catalogResolver.Invalidate(server);
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Delete a vApp template left behind by a backup that was cut short, once any task still 
+	 * 	running on it has ended.
+	 * 
+	 * @return True, if the template was deleted or there was none, false otherwise.
+	 */
+	private boolean DeleteTemplate(String templateHref)
+	{
+		if (templateHref == null)
+			return true;
+		
+		
+		final ReferenceType templateRef = QueryCrawler.NewReference(templateHref, null, TYPE_VAPP_TEMPLATE);
+		
+		try
+		{
+			final VappTemplate template = limiter.Execute(new ApiCall<VappTemplate>()
+			{
+				@Override
+				public VappTemplate call() throws VCloudException
+				{
+					return VappTemplate.getVappTemplateByReference(_client, templateRef);
+				}
+			});
+			
+			//A capture cut short may still be running in vCloud, and the template cannot be deleted until it ends
+			for (Task running : template.getTasks())
+			{
+				try
+				{
+					TaskTracker.Wait(taskTracker, running);
+				}
+				
+				catch (VCloudException e)
+				{
+					//A failed capture still leaves a template to delete
+				}
+			}
+			
+			Task task = limiter.Execute(new ApiCall<Task>()
+			{
+				@Override
+				public Task call() throws VCloudException
+				{
+					return template.delete();
+				}
+			});
+			
+			TaskTracker.Wait(taskTracker, task);
+			
+			return true;
+		}
+		
+		catch (VCloudException | TimeoutException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Start a clone of the passed in vApp in its own Vdc.
+	 */
+	private Vapp CloneVapp(final Vdc vdc, Vapp vapp, String name, String description) throws VCloudException
+	{
+		final CloneVAppParamsType parms = new CloneVAppParamsType();
 		
+		parms.setSource(vapp.getReference());
+		parms.setName(name);
+		parms.setDescription(description);
+		parms.setIsSourceDelete(false);
 		
-		for (ReferenceType orgRef : this.organizations.values()) 
+		return limiter.Execute(new ApiCall<Vapp>()
 		{
-			for (ReferenceType vdcRef : Organization.getOrganizationByReference(_client, orgRef).getVdcRefs()) 
-			{				
-				for (ReferenceType vAppRef : Vdc.getVdcByReference(_client, vdcRef).getVappRefs()) 
-				{					
-					Vapp vapp = Vapp.getVappByReference(_client, vAppRef);
-					
-					
-					servers.add(new Server (Organization.getOrganizationByReference(_client, orgRef), Vdc.getVdcByReference(_client, vdcRef), 
-							vAppRef.getName(), vapp, dataCenterName, settings.getEnvironments()));
-				}
+			@Override
+			public Vapp call() throws VCloudException
+			{
+				return vdc.cloneVapp(parms);
 			}
+		});
+	}
+	
+	
+	/**
+	 * Delete the vApp with the passed in href, and wait for it to go.
+	 * @return True, if the vApp was deleted or there was none, false otherwise.
+	 */
+	private boolean DeleteVapp(String vappHref)
+	{
+		if (vappHref == null)
+			return true;
+		
+		
+		final ReferenceType vappRef = QueryCrawler.NewReference(vappHref, null, QueryCrawler.TYPE_VAPP);
+		
+		try
+		{
+			Task task = limiter.Execute(new ApiCall<Task>()
+			{
+				@Override
+				public Task call() throws VCloudException
+				{
+					return Vapp.getVappByReference(_client, vappRef).delete();
+				}
+			});
+			
+			TaskTracker.Wait(taskTracker, task);
+			
+			return true;
 		}
 		
-		return servers;
+		catch (VCloudException | TimeoutException e)
+		{
+			return false;
+		}
 	}
 	
 	
 	/**
-	 * Backup the passed in <code>Server</code> to the private catalog, and add the passed in description.
-	 * @param server The <code>Server</code> to backup.
-	 * @param description The description to use when backing up the Server.
-	 * @return <code>true</code> if the backup was successful, <code>false</code> otherwise.
+	 * Record the passed in stage in the journal, if there is one.
 	 */
-	public boolean BackupServer(Server server, String description)
+	private void Journal(Server server, BackupJournal.Stage stage, String... details) throws IOException
 	{
-		//Setup the templates information
-		CaptureVAppParamsType parms = new CaptureVAppParamsType();
+		if (journal != null)
+			journal.Record(server, stage, details);
+	}
+	
+	
+	/**
+	 * Record in the journal, if there is one, that the backup of each of the passed in Servers
+	 * 	was asked for. This is the only place a backup is journaled as queued, so each attempt
+	 * 	starts a single fresh entry.
+	 */
+	private void Queue(Map<Server, String> descriptions)
+	{
+		if (journal == null)
+			return;
 		
-		parms.setSource(server.getVapp().getReference());
-		parms.setName(server.getServerName());
-		parms.setDescription(description);
 		
+		try
+		{
+			for (Map.Entry<Server, String> entry : descriptions.entrySet())
+			{
+				journal.Queued(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Record whether the passed in Server was powered back on, and whether its backup succeeded.
+	 * 	A journal that cannot be written here only costs a resumed run some repeated work.
+	 */
+	private void Finished(Server server, boolean success, boolean poweredOn)
+	{
+		try
+		{
+			if (poweredOn)
+				Journal(server, BackupJournal.Stage.POWER_ON);
+			
+
+			Journal(server, success ? BackupJournal.Stage.COMPLETED : BackupJournal.Stage.FAILED);
+		}
 		
-		Vdc vdc = server.getVdc();
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Power off each of the passed in <code>Server</code>s at once, up to the limit set by 
+	 * 	<code>setPowerLimits</code>, and wait for them all. Each Server is given its own timeout.
+	 * @param servers The <code>Server</code>s to power off.
+	 * @return The <code>PowerResult</code> of each Server, or null if interrupted before they all finished.
+	 */
+	public PowerResult PowerOff(Collection<Server> servers)
+	{
+		return Power(servers, false);
+	}
+	
+	
+	/**
+	 * Power on each of the passed in <code>Server</code>s at once, up to the limit set by 
+	 * 	<code>setPowerLimits</code>, and wait for them all. Each Server is given its own timeout.
+	 * @param servers The <code>Server</code>s to power on.
+	 * @return The <code>PowerResult</code> of each Server, or null if interrupted before they all finished.
+	 */
+	public PowerResult PowerOn(Collection<Server> servers)
+	{
+		return Power(servers, true);
+	}
+	
+	
+	private PowerResult Power(Collection<Server> servers, boolean on)
+	{
+		try
+		{
+			return new PowerBatch(powerParallelism, powerTimeout).Run(servers, on);
+		}
 		
-		if (vdc == null)
-			return false;
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Backup each of the passed in <code>Server</code>s to the private catalog, running several
+	 * 	backups at once. No more than the global limit run at the same time, and no more than 
+	 * 	the per Organization and per Vdc limits run in any one Organization or Vdc. Servers
+	 * 	are started in the order set by <code>setBackupOrder</code>, skipping ahead past any whose 
+	 * 	Organization or Vdc is at its limit. This returns straight away.
+	 * @param servers The <code>Server</code>s to backup.
+	 * @param description The description to use when backing up the Servers.
+	 * @return The <code>BatchBackupResult</code>, holding a Future per Server.
+	 */
+	public BatchBackupResult BackupServers(Collection<Server> servers, String description)
+	{
+		LinkedHashMap<Server, String> descriptions = new LinkedHashMap<Server, String>();
 		
-		else
-			return true;
+		for (Server server : servers)
+		{
+			descriptions.put(server, description);
+		}
 		
-		/*else
+		if (journal != null)
 		{
-			//Backup server
 			try
 			{
-				server.PowerOff();
-				
-				
-				
-				VappTemplate vTemplate = vdc.captureVapp(parms);
-				
-				
-				ReferenceType catalogRef = null;
-				for (ReferenceType ref : server.getOrganization().getCatalogRefs()) {
-					if (ref.getName().equals(catalogName))
-						catalogRef = ref;
-				}
-				
-				Catalog cat = Catalog.getCatalogByReference(_client, catalogRef);
-				CatalogItemType catItem = createNewCatalogItem(vTemplate.getReference(), server.getServerName(), description); 
-				CatalogItem catalogItem = cat.addCatalogItem(catItem);
-				
-				Task task = returnTask(catalogItem);
-				
-				if (task != null)
-				{
-					try
-					{
-						task.waitForTask(0);
-					} 
-					
-					catch (TimeoutException e)
-					{
-						server.PowerOn();
-						return false;
-					}
-				}
-			} 
+				journal.Compact();
+			}
 			
-			catch (VCloudException e)
+			catch (IOException e)
 			{
-				server.PowerOn();
-				return false;
+				e.printStackTrace();
 			}
-			
-
-			server.PowerOn();
-			return true;
-		}*/
+		}
+		
+		Queue(descriptions);
+		
+		return GetBackupScheduler().Submit(descriptions, backupOrder);
+	}
+	
+	
+	/**
+	 * Delete the backups in the private catalog that have expired under their <code>RetentionPolicy</code>.
+	 * 	The catalog items are read from the query service a page at a time, and each Server's policy 
+	 * 	is its own, else that of its Environment, else the default set by <code>setRetentionPolicy</code>.
+	 * 	The expired vApp templates are deleted several at once, up to the limit set by <code>setPruneThreads</code>.
+	 * @return The <code>PruneResult</code>, or null if not logged in or the catalog items could not be read.
+	 */
+	public PruneResult PruneBackups()
+	{
+		if (!loggedIn)
+			return null;
+		
+		CatalogPruner pruner;
+		
+		synchronized (this)
+		{
+			pruner = new CatalogPruner(NewQueryCrawler(), _client, limiter, taskTracker, 
+					new HashMap<String, RetentionPolicy>(serverRetention), 
+					new EnumMap<Server.Environment, RetentionPolicy>(environmentRetention), 
+					retentionPolicy, settings.getEnvironmentClassifier(), pruneThreads);
+		}
+		
+		try
+		{
+			return pruner.Prune(catalogName);
+		}
+		
+		catch (VCloudException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	
+	private synchronized BackupScheduler GetBackupScheduler()
+	{
+		if (backupScheduler == null)
+			backupScheduler = new BackupScheduler(this, backupEstimator, backupGlobalLimit, backupOrganizationLimit, backupVdcLimit);
+		
+		return backupScheduler;
+	}
+	
+	
+	/**
+	 * Get the details of the passed in <code>Server</code> that the reports are built from. They are
+	 * 	read from the vCloud API the first time, and kept until the Server changes.
+	 * @param server The <code>Server</code>.
+	 * @return The <code>ServerDetail</code>, or null if it could not be read.
+	 */
+	public ServerDetail GetServerDetail(Server server)
+	{
+		try
+		{
+			return ServerDetail.Get(server, limiter, settings.getSnapshot());
+		}
+		
+		catch (VCloudException | RuntimeException e)
+		{
+			return null;
+		}
 	}
 	
 	
@@ -413,148 +1893,130 @@ public class Backup
 	 */
 	public boolean ServerDetailExcel(ArrayList<Server> servers, String pathToSave)
 	{
-		HSSFWorkbook wb = new HSSFWorkbook();
-		HSSFSheet sheet = wb.createSheet(Backup.SHEET_TARGET_VMS);
+		return ServerDetailExcel(servers, pathToSave, ExcelFormat.XLS);
+	}
+	
+	
+	/**
+	 * Export the passed in <code>ArrayList</code> of <code>Server</code> objects to a Excel spreadsheet
+	 * 	in the passed in format. Use <code>ExcelFormat.XLSX</code> for large inventories: it streams
+	 * 	the rows to disk, so memory stays flat however many Servers are exported.
+	 * @param servers The <code>ArrayList</code> of <code>Server</code> objects to export.
+	 * @param pathToSave The path that the Excel spreadsheet should be saved to.
+	 * @param format The format of the spreadsheet.
+	 * @return <code>true</code> if the <code>ArrayList</code> of <code>Server</code> objects was able to be exported, 
+	 * 	<code>false</code> otherwise, or if there are more Servers than an .xls sheet can hold.
+	 */
+	public boolean ServerDetailExcel(ArrayList<Server> servers, String pathToSave, ExcelFormat format)
+	{
+		if (format == ExcelFormat.XLS && servers.size() >= ExcelRenderer.XLS_MAX_ROWS)
+			return false;
 		
+		return Export(servers, new ExcelRenderer(pathToSave, format));
+	}
+	
+	
+	/**
+	 * Export the passed in <code>ArrayList</code> of <code>Server</code> objects to a CSV file, with the
+	 * 	same columns as <code>ServerDetailExcel</code>.
+	 * @param servers The <code>ArrayList</code> of <code>Server</code> objects to export.
+	 * @param pathToSave The path that the CSV file should be saved to.
+	 * @return <code>true</code> if the <code>ArrayList</code> of <code>Server</code> objects was able to be exported, <code>false</code> otherwise.
+	 */
+	public boolean ServerDetailCsv(ArrayList<Server> servers, String pathToSave)
+	{
+		try
+		{
+			return Export(servers, new CsvRenderer(pathToSave));
+		}
 		
-		//Create the row headers
-		HSSFRow row = sheet.createRow(0);
-		row.createCell(Backup.COLUMN_DATA_CENTER).setCellValue(Backup.COLUMN_DATA_CENTER_NAME);
-		row.createCell(Backup.COLUMN_CPUS).setCellValue(Backup.COLUMN_CPUS_NAME);
-		row.createCell(Backup.COLUMN_MEMORY).setCellValue(Backup.COLUMN_MEMORY_NAME);
-		row.createCell(Backup.COLUMN_EXTRA_STORAGE).setCellValue(Backup.COLUMN_EXTRA_STORAGE_NAME);
-		row.createCell(Backup.COLUMN_EXTRA_MEMORY).setCellValue(Backup.COLUMN_EXTRA_MEMORY_NAME);
-		row.createCell(Backup.COLUMN_ENVRIONMENT).setCellValue(Backup.COLUMN_ENVRIONMENT_NAME);
-		row.createCell(Backup.COLUMN_IP_ADDRESS).setCellValue(Backup.COLUMN_IP_ADDRESS_NAME);
-		row.createCell(Backup.COLUMN_DNS_NAME).setCellValue(Backup.COLUMN_DNS_NAME_NAME);
-		row.createCell(Backup.COLUMN_HASH).setCellValue(Backup.COLUMN_HASH_NAME);
-		row.createCell(Backup.COLUMN_ORGANIZATION).setCellValue(Backup.COLUMN_ORGANIZATION_NAME);
-		row.createCell(Backup.COLUMN_VAPP_NAME).setCellValue(Backup.COLUMN_VAPP_NAME_NAME);
-		row.createCell(Backup.COLUMN_VM_DESCRIPTION).setCellValue(Backup.COLUMN_VM_DESCRIPTION_NAME);
-		row.createCell(Backup.COLUMN_TEMPLATE).setCellValue(Backup.COLUMN_TEMPLATE_NAME);
-		row.createCell(Backup.COLUMN_ZONE).setCellValue(Backup.COLUMN_ZONE_NAME);
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Export the passed in <code>ArrayList</code> of <code>Server</code> objects to a JSON file, holding
+	 * 	an array with an object per Server.
+	 * @param servers The <code>ArrayList</code> of <code>Server</code> objects to export.
+	 * @param pathToSave The path that the JSON file should be saved to.
+	 * @return <code>true</code> if the <code>ArrayList</code> of <code>Server</code> objects was able to be exported, <code>false</code> otherwise.
+	 */
+	public boolean ServerDetailJson(ArrayList<Server> servers, String pathToSave)
+	{
+		try
+		{
+			return Export(servers, new JsonRenderer(pathToSave));
+		}
 		
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Render the details of the passed in Servers. Details not already kept on a Server are
+	 * 	fetched several at once, up to the limit set by <code>setExportThreads</code>, while the
+	 * 	Servers are rendered in order on the calling thread.
+	 * @return True, if every Server was rendered and the report saved, false otherwise.
+	 */
+	private boolean Export(ArrayList<Server> servers, ServerDetailRenderer renderer)
+	{
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(exportThreads);
+		ArrayDeque<Future<ServerDetail>> pending = new ArrayDeque<Future<ServerDetail>>();
+		int window = exportThreads * EXPORT_WINDOW_PER_THREAD;
+		int next = 0;
 		
 		try
 		{
-			for (int i = 1; i < servers.size(); i++)
+			renderer.Begin();
+			
+			for (int i = 0; i < servers.size(); i++)
 			{
-				Server server = servers.get(i);
-				VM vm = server.getVapp().getChildrenVms().get(0);
-				ArrayList<VirtualDisk> vds = new ArrayList<VirtualDisk>();
-				int cpus = vm.getCpu().getNoOfCpus();
-				int memory = vm.getMemory().getMemorySize().intValue();
-				VirtualNetworkCard primaryNic = vm.getNetworkCards().get(0);
-				
-				
-				
-				//Extra Storage
-				int extraStorage = 0;
-				try
-				{	
-					
-					for (VirtualDisk vd : vm.getDisks())
-					{
-						if (vd.isHardDisk())
-							vds.add(vd);
-					}
-					
-					
-					
+				while (next < servers.size() && next - i < window)
+				{
+					final Server server = servers.get(next++);
 					
-					int numOfDrives = vds.size();
-					if (numOfDrives > DEFAULT_DRIVE_COUNT)
+					pending.add(executor.submit(new Callable<ServerDetail>()
 					{
-						for (int j = DEFAULT_DRIVE_COUNT; j < numOfDrives; j++)
+						@Override
+						public ServerDetail call() throws VCloudException
 						{
-							VirtualDisk vd = vds.get(j);
-							int hdSize = vd.getHardDiskSize().intValue();
-							
-							extraStorage += hdSize;
+							return ServerDetail.Get(server, limiter, settings.getSnapshot());
 						}
-					}
-				} 
-				catch (Exception e)
-				{
-					return false;
-				}
-				
-
-
-				//Extra Memory
-				int extraMemory = 0;	
-				int tempExtraMemory = 0;
-				int baseMemory = Server.GetBaseMemory(cpus, settings.getTemplates()) * 1024;
-				
-				if (baseMemory != memory)
-					tempExtraMemory = memory - baseMemory;
-				
-				if (tempExtraMemory!= 0)
-				{
-					extraMemory = tempExtraMemory;
-				}
-				
-				
-				for (VirtualNetworkCard nc : vm.getNetworkCards())
-				{
-					if (nc.isPrimaryNetworkConnection())
-					{
-						primaryNic = nc;
-						break;
-					}
-				}
-				
-				
-				Map<QName, String> md = server.getVapp().getReference().getOtherAttributes();
-				
-				for (QName mdKey : md.keySet())
-				{
-					String mdStr = md.get(mdKey);
-					
-					System.out.println(mdStr);
+					}));
 				}
 				
-				
-				
-				
-				row = sheet.createRow(i);
-				row.createCell(Backup.COLUMN_DATA_CENTER).setCellValue(Character.toUpperCase(server.getDataCenter().charAt(0)) + server.getDataCenter().substring(1));
-				row.createCell(Backup.COLUMN_CPUS).setCellValue(cpus);
-				row.createCell(Backup.COLUMN_MEMORY).setCellValue((vm.getMemory().getMemorySize().intValue() / 1024) + "GB");
-				row.createCell(Backup.COLUMN_EXTRA_STORAGE).setCellValue((extraStorage / 1024) + "GB");
-				row.createCell(Backup.COLUMN_EXTRA_MEMORY).setCellValue((extraMemory / 1024) + "GB");
-				row.createCell(Backup.COLUMN_ENVRIONMENT).setCellValue(server.getEnvironment().toString());
-				row.createCell(Backup.COLUMN_IP_ADDRESS).setCellValue(primaryNic.getIpAddress());
-				row.createCell(Backup.COLUMN_DNS_NAME).setCellValue(vm.getGuestCustomizationSection().getComputerName().toUpperCase());
-				row.createCell(Backup.COLUMN_HASH).setCellValue("#");
-				row.createCell(Backup.COLUMN_ORGANIZATION).setCellValue(server.getOrganization().getReference().getName());
-				row.createCell(Backup.COLUMN_VAPP_NAME).setCellValue(server.getVapp().getReference().getName());
-				row.createCell(Backup.COLUMN_VM_DESCRIPTION).setCellValue("");
-				row.createCell(Backup.COLUMN_TEMPLATE).setCellValue("");
-				row.createCell(Backup.COLUMN_ZONE).setCellValue(primaryNic.getNetwork().replaceAll(server.getOrganization().getReference().getName() + "-", ""));
-			}
-			
-			
-			
-			
-			
-			for(int i = 0; i <= Backup.COLUMN_NUMBER; i++)
-			{
-				sheet.autoSizeColumn(i);
+				renderer.Render(ServerCrawler.Await(pending.poll()));
 			}
 			
-			
-
-			FileOutputStream fileOut = new FileOutputStream(pathToSave);
-			wb.write(fileOut);
-			fileOut.close();
+			renderer.End();
 		} 
 		
-		catch (VCloudException | IOException e)
+		catch (VCloudException | IOException | RuntimeException e)
 		{
 			return false;
 		}
 		
+		finally
+		{
+			executor.shutdownNow();
+			
+			try
+			{
+				renderer.close();
+			}
+			
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		
 		
 		return true;
 	}
@@ -0,0 +1,296 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.VM;
+import com.vmware.vcloud.sdk.Vapp;
+import com.vmware.vcloud.sdk.VirtualDisk;
+
+/**
+ * Estimates how long backing up a Server will take. A Server that has been
+ * backed up before is estimated from its own past durations. Any other Server
+ * is estimated from the size of its hard disks, at the capture rate learned from
+ * every backup recorded so far.
+ * <p>
+ * The history lasts as long as the process, unless a history file is set. Each
+ * backup recorded is then appended to the file as a line of tab separated fields:
+ * the vApp href, its smoothed duration and the smoothed capture rate. The file is
+ * read back, and rewritten with a line per vApp, when it is set.
+ */
+class BackupEstimator
+{
+	/**
+	 * The capture rate, in MB per millisecond, assumed until a backup has been recorded.
+	 */
+	static final double DEFAULT_THROUGHPUT = 50.0 / 1000;
+	/**
+	 * The time, in milliseconds, every backup takes regardless of size: power cycling, catalog add.
+	 */
+	static final long DEFAULT_OVERHEAD = 60 * 1000L;
+	
+	/**
+	 * How much weight each new duration gets against the history before it.
+	 */
+	private static final double SMOOTHING = 0.3;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SEPARATOR = "\t";
+	private static final String NEW_LINE = "\n";
+	
+	/**
+	 * The smoothed backup duration, in milliseconds, of each vApp href.
+	 */
+	private final ConcurrentHashMap<String, Long> durations = new ConcurrentHashMap<String, Long>();
+	/**
+	 * The total hard disk size, in MB, of each vApp href.
+	 */
+	private final ConcurrentHashMap<String, Long> diskSizes = new ConcurrentHashMap<String, Long>();
+	/**
+	 * The smoothed capture rate, in MB per millisecond.
+	 */
+	private volatile double throughput = DEFAULT_THROUGHPUT;
+	/**
+	 * The file the history is kept in, or null to keep it in memory only.
+	 */
+	private File historyFile;
+	/**
+	 * The open history file, or null until the first backup is recorded to it.
+	 */
+	private FileOutputStream out;
+	
+	
+	/**
+	 * Keep the history in the passed in file, and read back what it already holds.
+	 * @param path The path of the history file, or null to keep the history in memory only.
+	 * @throws IOException If the file could not be read or rewritten.
+	 */
+	synchronized void setHistoryPath(String path) throws IOException
+	{
+		close();
+		historyFile = path != null ? new File(path) : null;
+		
+		if (historyFile == null || !historyFile.exists())
+			return;
+		
+		
+		String text = new String(Files.readAllBytes(historyFile.toPath()), UTF8);
+		
+		//A last line without its new line was cut short, and is dropped
+		text = text.substring(0, text.lastIndexOf(NEW_LINE) + 1);
+		
+		for (String line : text.split(NEW_LINE))
+		{
+			String[] fields = line.split(SEPARATOR, -1);
+			
+			try
+			{
+				long duration = Long.parseLong(fields[1]);
+				double rate = Double.parseDouble(fields[2]);
+				
+				durations.put(fields[0], duration);
+				throughput = rate;
+			}
+			
+			catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+			{
+				continue;
+			}
+		}
+		
+		Compact();
+	}
+	
+	
+	/**
+	 * Estimate how long backing up the passed in Server will take.
+	 * @param server The Server.
+	 * @return The estimate, in milliseconds.
+	 */
+	long Estimate(Server server)
+	{
+		Long duration = durations.get(server.getVappReference().getHref());
+		
+		if (duration != null)
+			return duration;
+		
+		return DEFAULT_OVERHEAD + (long) (DiskSize(server) / throughput);
+	}
+	
+	
+	/**
+	 * Record how long a successful backup of the passed in Server took.
+	 * @param server The Server.
+	 * @param duration The time, in milliseconds, the backup took.
+	 */
+	void Record(Server server, long duration)
+	{
+		String href = server.getVappReference().getHref();
+		Long previous = durations.get(href);
+		
+		durations.put(href, previous == null ? duration : Smooth(previous, duration));
+		
+		
+		long size = DiskSize(server);
+		long captureTime = duration - DEFAULT_OVERHEAD;
+		
+		if (size > 0 && captureTime > 0)
+			throughput = Smooth(throughput, (double) size / captureTime);
+		
+		Append(href, durations.get(href), throughput);
+	}
+	
+	
+	/**
+	 * Close the history file. It is opened again by the next backup recorded.
+	 */
+	synchronized void close() throws IOException
+	{
+		if (out != null)
+		{
+			out.close();
+			out = null;
+		}
+	}
+	
+	
+	/**
+	 * Get the total size of the hard disks of every VM in the passed in Server,
+	 * 	resolving its vApp if needed.
+	 * @return The size in MB, or 0 if the vApp could not be read.
+	 */
+	long DiskSize(Server server)
+	{
+		String href = server.getVappReference().getHref();
+		Long size = diskSizes.get(href);
+		
+		if (size != null)
+			return size;
+		
+		
+		final Vapp vapp = server.getVapp();
+		
+		if (vapp == null)
+			return 0;
+		
+		long total = 0;
+		
+		try
+		{
+			List<VM> vms = server.Call(new ApiCall<List<VM>>()
+			{
+				@Override
+				public List<VM> call() throws VCloudException
+				{
+					return vapp.getChildrenVms();
+				}
+			});
+			
+			for (final VM vm : vms)
+			{
+				List<VirtualDisk> disks = server.Call(new ApiCall<List<VirtualDisk>>()
+				{
+					@Override
+					public List<VirtualDisk> call() throws VCloudException
+					{
+						return vm.getDisks();
+					}
+				});
+				
+				for (VirtualDisk disk : disks)
+				{
+					if (disk.isHardDisk())
+						total += disk.getHardDiskSize().longValue();
+				}
+			}
+		}
+		
+		catch (VCloudException e)
+		{
+			return 0;
+		}
+		
+		diskSizes.put(href, total);
+		
+		return total;
+	}
+	
+	
+	/**
+	 * Append a backup to the history file, if there is one. A history that cannot be 
+	 * 	written only costs later estimates some accuracy.
+	 */
+	private synchronized void Append(String href, long duration, double rate)
+	{
+		if (historyFile == null)
+			return;
+		
+		
+		try
+		{
+			if (out == null)
+				out = new FileOutputStream(historyFile, true);
+			
+			out.write(Line(href, duration, rate).getBytes(UTF8));
+		}
+		
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Rewrite the history file with a line per vApp.
+	 */
+	private void Compact() throws IOException
+	{
+		File temp = new File(historyFile.getAbsoluteFile().getParentFile(), historyFile.getName() + ".tmp");
+		FileOutputStream compacted = new FileOutputStream(temp);
+		
+		try
+		{
+			for (Map.Entry<String, Long> entry : durations.entrySet())
+			{
+				compacted.write(Line(entry.getKey(), entry.getValue(), throughput).getBytes(UTF8));
+			}
+		}
+		
+		finally
+		{
+			compacted.close();
+		}
+		
+		Files.move(temp.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	
+	private static String Line(String href, long duration, double rate)
+	{
+		return href + SEPARATOR + duration + SEPARATOR + rate + NEW_LINE;
+	}
+	
+	
+	private static long Smooth(long previous, long sample)
+	{
+		return (long) Smooth((double) previous, (double) sample);
+	}
+	
+	
+	private static double Smooth(double previous, double sample)
+	{
+		return previous + SMOOTHING * (sample - previous);
+	}
+}
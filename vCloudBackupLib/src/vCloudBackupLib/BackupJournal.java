@@ -0,0 +1,430 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+
+/**
+ * An append-only record of each stage of every backup, kept so a run that
+ * died part way through can be finished or rolled back. Every record is forced
+ * to disk before the backup moves on from the stage it describes, and a record
+ * cut short by a crash is ignored when the journal is read back.
+ * <p>
+ * The <code>CLONE</code> and <code>CAPTURE</code> records carry the href vCloud
+ * gives the new clone or vApp template, so they are written once the request
+ * that starts it returns. A crash between the request and its record leaves a
+ * clone or template the journal does not know of, which has to be deleted by hand.
+ * <p>
+ * Each record is a line of tab separated fields: the time, the stage, the vApp
+ * href, and any detail the stage carries.
+ */
+class BackupJournal
+{
+	/**
+	 * A stage of the backup of a single Server.
+	 */
+	static enum Stage
+	{
+		/**
+		 * The backup was asked for. Carries what is needed to rebuild the Server.
+		 */
+		QUEUED, 
+		/**
+		 * The vApp is about to be powered off. Carries whether it was running, since 
+		 * 	a vApp that was already off is not powered off, nor back on afterwards.
+		 */
+		POWER_OFF, 
+		/**
+		 * The clone of a <code>CLONE</code> mode backup was started. Carries the href of the clone vApp.
+		 */
+		CLONE, 
+		/**
+		 * The capture was started. Carries the href of the new vApp template.
+		 */
+		CAPTURE, 
+		/**
+		 * The capture finished. Carries the href of the vApp template.
+		 */
+		CAPTURED, 
+		/**
+		 * The vApp template was added to the catalog.
+		 */
+		CATALOG_ADDED, 
+		/**
+		 * The vApp was powered back on.
+		 */
+		POWER_ON, 
+		/**
+		 * The backup finished successfully.
+		 */
+		COMPLETED, 
+		/**
+		 * The backup failed, and the vApp was powered back on if it had been running.
+		 */
+		FAILED
+	}
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SEPARATOR = "\t";
+	private static final String NEW_LINE = "\n";
+	
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+	/**
+	 * The open journal, or null until the first record.
+	 */
+	private FileOutputStream out;
+	
+	
+	/**
+	 * Main constructor
+	 * @param path The path of the journal file.
+	 */
+	BackupJournal(String path)
+	{
+		this.file = new File(path);
+	}
+	
+	
+	/**
+	 * Record that the backup of the passed in Server was asked for.
+	 * @param server The Server.
+	 * @param description The description the Server is backed up with.
+	 * @throws IOException
+	 */
+	void Queued(Server server, String description) throws IOException
+	{
+		ReferenceType orgRef = server.getOrganizationReference();
+		ReferenceType vdcRef = server.getVdcReference();
+		
+		Record(server, Stage.QUEUED, orgRef.getHref(), orgRef.getName(), vdcRef.getHref(), vdcRef.getName(), 
+				server.getServerName(), description);
+	}
+	
+	
+	/**
+	 * Record that the backup of the passed in Server reached the passed in stage,
+	 * 	and force the record to disk.
+	 * @param server The Server.
+	 * @param stage The stage reached.
+	 * @param details Any detail the stage carries.
+	 * @throws IOException
+	 */
+	synchronized void Record(Server server, Stage stage, String... details) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		line.append(System.currentTimeMillis()).append(SEPARATOR).append(stage.name()).append(SEPARATOR)
+			.append(Clean(server.getVappReference().getHref()));
+		
+		for (String detail : details)
+		{
+			line.append(SEPARATOR).append(Clean(detail));
+		}
+		
+		line.append(NEW_LINE);
+		
+		
+		if (out == null)
+		{
+			boolean cutShort = EndsCutShort();
+			out = new FileOutputStream(file, true);
+			
+			//Start on a line of its own, so the new record is not lost with a record cut short by a crash
+			if (cutShort)
+				out.write(NEW_LINE.getBytes(UTF8));
+		}
+		
+		out.write(line.toString().getBytes(UTF8));
+		out.getFD().sync();
+	}
+	
+	
+	/**
+	 * Read the state of every Server in the journal.
+	 * @return The last known state of each Server, keyed by vApp href, in the order they were first queued.
+	 * @throws IOException
+	 */
+	synchronized LinkedHashMap<String, Entry> Read() throws IOException
+	{
+		LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		
+		for (String line : ReadLines())
+		{
+			String[] fields = line.split(SEPARATOR, -1);
+			Stage stage;
+			
+			try
+			{
+				Long.parseLong(fields[0]);
+				stage = Stage.valueOf(fields[1]);
+			}
+			
+			catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+			{
+				continue;
+			}
+			
+			
+			Entry entry = entries.get(fields[2]);
+			
+			if (stage == Stage.QUEUED)
+			{
+				if (fields.length < 9)
+					continue;
+				
+				entry = new Entry(fields[2], fields[3], fields[4], fields[5], fields[6], fields[7], fields[8]);
+				entries.put(entry.vappHref, entry);
+			}
+			
+			else if (entry == null)
+				continue;
+			
+			entry.Apply(stage, fields.length > 3 ? fields[3] : null, line);
+		}
+		
+		return entries;
+	}
+	
+	
+	/**
+	 * Rewrite the journal with only the records of Servers whose backup has not completed.
+	 * @throws IOException
+	 */
+	synchronized void Compact() throws IOException
+	{
+		if (!file.exists())
+			return;
+		
+		
+		File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		FileOutputStream compacted = new FileOutputStream(temp);
+		
+		try
+		{
+			for (Entry entry : Read().values())
+			{
+				if (entry.getStage() == Stage.COMPLETED)
+					continue;
+				
+				for (String line : entry.lines)
+				{
+					compacted.write((line + NEW_LINE).getBytes(UTF8));
+				}
+			}
+			
+			compacted.getFD().sync();
+		}
+		
+		finally
+		{
+			compacted.close();
+		}
+		
+		close();
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	
+	/**
+	 * Close the journal file. It is opened again by the next record.
+	 */
+	synchronized void close() throws IOException
+	{
+		if (out != null)
+		{
+			out.close();
+			out = null;
+		}
+	}
+	
+	
+	/**
+	 * Read every complete line of the journal. A last line without its new line was cut short, and is dropped.
+	 */
+	private List<String> ReadLines() throws IOException
+	{
+		ArrayList<String> lines = new ArrayList<String>();
+		
+		if (!file.exists())
+			return lines;
+		
+		
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		int end = bytes.length;
+		
+		while (end > 0 && bytes[end - 1] != '\n')
+		{
+			end--;
+		}
+		
+		for (String line : new String(bytes, 0, end, UTF8).split(NEW_LINE))
+		{
+			if (!line.isEmpty())
+				lines.add(line);
+		}
+		
+		return lines;
+	}
+	
+	
+	private boolean EndsCutShort() throws IOException
+	{
+		if (!file.exists() || file.length() == 0)
+			return false;
+		
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		
+		try
+		{
+			in.seek(in.length() - 1);
+			
+			return in.read() != '\n';
+		}
+		
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	
+	private static String Clean(String field)
+	{
+		return field == null ? "" : field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+	
+	
+	/**
+	 * The last known state of the backup of a single Server.
+	 */
+	static class Entry
+	{
+		private final String vappHref;
+		private final String orgHref;
+		private final String orgName;
+		private final String vdcHref;
+		private final String vdcName;
+		private final String serverName;
+		private final String description;
+		private Stage stage;
+		private String templateHref;
+		private String cloneHref;
+		private boolean catalogAdded;
+		private boolean wasRunning = true;
+		/**
+		 * The journal lines of the current attempt.
+		 */
+		private final ArrayList<String> lines = new ArrayList<String>();
+		
+		
+		private Entry(String vappHref, String orgHref, String orgName, String vdcHref, String vdcName, String serverName, 
+				String description)
+		{
+			this.vappHref = vappHref;
+			this.orgHref = orgHref;
+			this.orgName = orgName;
+			this.vdcHref = vdcHref;
+			this.vdcName = vdcName;
+			this.serverName = serverName;
+			this.description = description;
+		}
+		
+		String getVappHref()
+		{
+			return vappHref;
+		}
+		
+		String getDescription()
+		{
+			return description;
+		}
+		
+		/**
+		 * The last stage reached.
+		 */
+		Stage getStage()
+		{
+			return stage;
+		}
+		
+		/**
+		 * The href of the vApp template captured, or null if no capture was started.
+		 */
+		String getTemplateHref()
+		{
+			return templateHref;
+		}
+		
+		/**
+		 * The href of the clone vApp captured in place of the vApp, or null if no clone was started.
+		 */
+		String getCloneHref()
+		{
+			return cloneHref;
+		}
+		
+		/**
+		 * Whether the vApp template was added to the catalog.
+		 */
+		boolean getCatalogAdded()
+		{
+			return catalogAdded;
+		}
+		
+		/**
+		 * Whether the vApp was running before the backup, and so has to be powered back on.
+		 * 	A journal written before this was recorded reads as running.
+		 */
+		boolean getWasRunning()
+		{
+			return wasRunning;
+		}
+		
+		
+		/**
+		 * Build a lazy Server for the vApp of this entry.
+		 */
+		Server NewServer(String dataCenter, EnvironmentClassifier classifier, EntityCache cache)
+		{
+			return new Server(QueryCrawler.NewReference(orgHref, orgName, InventorySnapshot.TYPE_ORG), 
+					QueryCrawler.NewReference(vdcHref, vdcName, QueryCrawler.TYPE_VDC), 
+					QueryCrawler.NewReference(vappHref, serverName, QueryCrawler.TYPE_VAPP), dataCenter, classifier, cache);
+		}
+		
+		
+		private void Apply(Stage stage, String detail, String line)
+		{
+			if (stage == Stage.QUEUED)
+				lines.clear();
+			
+			lines.add(line);
+			this.stage = stage;
+			
+			if ((stage == Stage.CAPTURE || stage == Stage.CAPTURED) && detail != null && !detail.isEmpty())
+				templateHref = detail;
+			
+			if (stage == Stage.POWER_OFF && detail != null && !detail.isEmpty())
+				wasRunning = Boolean.parseBoolean(detail);
+			
+			if (stage == Stage.CLONE && detail != null && !detail.isEmpty())
+				cloneHref = detail;
+			
+			if (stage == Stage.CATALOG_ADDED)
+				catalogAdded = true;
+		}
+	}
+}
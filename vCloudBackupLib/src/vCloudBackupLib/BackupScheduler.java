@@ -0,0 +1,406 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Runs batches of Server backups concurrently, keeping the number running at
+ * once under a global limit and under a limit per Organization and per Vdc, so
+ * a batch is not held up behind one busy Vdc and no single Vdc is swamped with
+ * capture requests. The limits are shared by every batch submitted to the same
+ * scheduler, and a change to them applies to the batches already running.
+ */
+class BackupScheduler
+{
+	/**
+	 * The default number of backups run at once.
+	 */
+	static final int DEFAULT_GLOBAL_LIMIT = 4;
+	/**
+	 * The default number of backups run at once in a single Organization.
+	 */
+	static final int DEFAULT_ORGANIZATION_LIMIT = 4;
+	/**
+	 * The default number of backups run at once in a single Vdc.
+	 */
+	static final int DEFAULT_VDC_LIMIT = 2;
+	
+	/**
+	 * The Backup each Server is backed up through.
+	 */
+	private final Backup backup;
+	/**
+	 * Estimates each backup's duration, and learns from each one that finishes.
+	 */
+	private final BackupEstimator estimator;
+	private volatile int globalLimit;
+	private volatile int organizationLimit;
+	private volatile int vdcLimit;
+	
+	/**
+	 * Guards the running counts and the limits, and is signalled whenever a backup 
+	 * 	finishes or the limits change.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition finished = lock.newCondition();
+	/**
+	 * The number of backups running, in total, per Organization href and per Vdc href.
+	 */
+	private int running;
+	private final HashMap<String, Integer> runningByOrganization = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> runningByVdc = new HashMap<String, Integer>();
+	
+	
+	/**
+	 * Main constructor
+	 * @param backup The Backup each Server is backed up through.
+	 * @param estimator Estimates each backup's duration, and learns from each one that finishes.
+	 * @param globalLimit The number of backups run at once.
+	 * @param organizationLimit The number of backups run at once in a single Organization.
+	 * @param vdcLimit The number of backups run at once in a single Vdc.
+	 */
+	BackupScheduler(Backup backup, BackupEstimator estimator, int globalLimit, int organizationLimit, int vdcLimit)
+	{
+		this.backup = backup;
+		this.estimator = estimator;
+		this.globalLimit = globalLimit;
+		this.organizationLimit = organizationLimit;
+		this.vdcLimit = vdcLimit;
+	}
+	
+	
+	/**
+	 * Change the limits. Backups already running are left to finish, and no new 
+	 * 	backup is started until the running count drops under the new limits.
+	 * @param globalLimit The number of backups run at once.
+	 * @param organizationLimit The number of backups run at once in a single Organization.
+	 * @param vdcLimit The number of backups run at once in a single Vdc.
+	 */
+	void setLimits(int globalLimit, int organizationLimit, int vdcLimit)
+	{
+		lock.lock();
+		
+		try
+		{
+			this.globalLimit = globalLimit;
+			this.organizationLimit = organizationLimit;
+			this.vdcLimit = vdcLimit;
+			finished.signalAll();
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * Start backing up the passed in Servers, each with its own description. This returns
+	 * straight away; the backups are started by a dispatcher thread as the limits allow.
+	 * @param descriptions The Servers to backup, and the description to use for each.
+	 * @param order The order the Servers are started in.
+	 * @return The BatchBackupResult, holding a Future per Server.
+	 */
+	BatchBackupResult Submit(Map<Server, String> descriptions, final Backup.BackupOrder order)
+	{
+		final BatchBackupResult result = new BatchBackupResult(descriptions.size());
+		final ArrayList<Job> pending = new ArrayList<Job>(descriptions.size());
+		
+		for (Map.Entry<Server, String> entry : descriptions.entrySet())
+		{
+			Job job = new Job(entry.getKey(), entry.getValue(), result);
+			result.Add(entry.getKey(), job);
+			pending.add(job);
+		}
+		
+		if (pending.isEmpty())
+			return result;
+		
+		
+		Thread dispatcher = new DaemonThreadFactory("vcloud-backup").newThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (order == Backup.BackupOrder.LONGEST_FIRST)
+					SortLongestFirst(pending);
+				
+				Dispatch(pending);
+			}
+		});
+		
+		dispatcher.start();
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Start every pending Job, in order, as soon as its Organization and Vdc
+	 * have room. A Job whose Organization or Vdc is full is passed over for a 
+	 * later one that can start. <code>Next</code> holds the number running 
+	 * under the limits, so the executor only has to grow to match them.
+	 */
+	private void Dispatch(ArrayList<Job> pending)
+	{
+		ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new DaemonThreadFactory("vcloud-backup"));
+		
+		try
+		{
+			while (!pending.isEmpty())
+			{
+				final Job job = Next(pending);
+				
+				if (job == null)
+					break;
+				
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							job.run();
+						}
+						
+						finally
+						{
+							Release(job);
+						}
+					}
+				});
+			}
+		}
+		
+		catch (InterruptedException e)
+		{
+			for (Job job : pending)
+			{
+				job.cancel(false);
+			}
+		}
+		
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Sort the pending Jobs so the longest expected backups come first. Starting
+	 * 	the longest backups first, each in the first slot to come free, keeps a
+	 * 	large vApp from being left to run on its own at the end of the batch.
+	 * 	The estimates are made concurrently, since an estimate may have to fetch 
+	 * 	the vApp.
+	 */
+	private void SortLongestFirst(ArrayList<Job> pending)
+	{
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(globalLimit);
+		ArrayList<Future<Long>> estimates = new ArrayList<Future<Long>>(pending.size());
+		
+		try
+		{
+			for (final Job job : pending)
+			{
+				estimates.add(executor.submit(new Callable<Long>()
+				{
+					@Override
+					public Long call()
+					{
+						return estimator.Estimate(job.server);
+					}
+				}));
+			}
+			
+			for (int i = 0; i < pending.size(); i++)
+			{
+				try
+				{
+					pending.get(i).estimate = ServerCrawler.Await(estimates.get(i));
+				}
+				
+				catch (VCloudException | RuntimeException e)
+				{
+					pending.get(i).estimate = 0;
+				}
+			}
+		}
+		
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		
+		Collections.sort(pending, new Comparator<Job>()
+		{
+			@Override
+			public int compare(Job o1, Job o2)
+			{
+				return Long.compare(o2.estimate, o1.estimate);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Wait for the first pending Job that fits under every limit, take it off
+	 * the pending list and count it as running. Cancelled Jobs are dropped.
+	 */
+	private Job Next(ArrayList<Job> pending) throws InterruptedException
+	{
+		lock.lock();
+		
+		try
+		{
+			while (true)
+			{
+				Iterator<Job> jobs = pending.iterator();
+				
+				while (jobs.hasNext())
+				{
+					Job job = jobs.next();
+					
+					if (job.isCancelled())
+					{
+						jobs.remove();
+						continue;
+					}
+					
+					if (running < globalLimit
+							&& Count(runningByOrganization, job.organizationHref) < organizationLimit
+							&& Count(runningByVdc, job.vdcHref) < vdcLimit)
+					{
+						jobs.remove();
+						running++;
+						Adjust(runningByOrganization, job.organizationHref, 1);
+						Adjust(runningByVdc, job.vdcHref, 1);
+						
+						return job;
+					}
+				}
+				
+				if (pending.isEmpty())
+					return null;
+				
+				finished.await();
+			}
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * Count a finished Job as no longer running, and wake the dispatchers.
+	 */
+	private void Release(Job job)
+	{
+		lock.lock();
+		
+		try
+		{
+			running--;
+			Adjust(runningByOrganization, job.organizationHref, -1);
+			Adjust(runningByVdc, job.vdcHref, -1);
+			finished.signalAll();
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	
+	private static int Count(HashMap<String, Integer> counts, String key)
+	{
+		Integer count = counts.get(key);
+		
+		return count != null ? count : 0;
+	}
+	
+	
+	private static void Adjust(HashMap<String, Integer> counts, String key, int delta)
+	{
+		int count = Count(counts, key) + delta;
+		
+		if (count > 0)
+			counts.put(key, count);
+		
+		else
+			counts.remove(key);
+	}
+	
+	
+	/**
+	 * The backup of a single Server.
+	 */
+	private class Job extends FutureTask<Boolean>
+	{
+		private final Server server;
+		private final String organizationHref;
+		private final String vdcHref;
+		private final BatchBackupResult result;
+		/**
+		 * The expected duration, in milliseconds, used to order the batch.
+		 */
+		private long estimate;
+		
+		
+		private Job(final Server server, final String description, BatchBackupResult result)
+		{
+			super(new Callable<Boolean>()
+			{
+				@Override
+				public Boolean call()
+				{
+					long start = System.currentTimeMillis();
+					boolean success = backup.RunBackup(server, description);
+					
+					if (success)
+						estimator.Record(server, System.currentTimeMillis() - start);
+					
+					return success;
+				}
+			});
+			
+			this.server = server;
+			this.organizationHref = server.getOrganizationReference().getHref();
+			this.vdcHref = server.getVdcReference().getHref();
+			this.result = result;
+		}
+		
+		
+		@Override
+		protected void done()
+		{
+			result.Finished();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of <code>Backup.BackupServers</code>: a Future per Server, and the
+ * totals once every backup has finished.
+ */
+public class BatchBackupResult
+{
+	/**
+	 * The Future of each Server's backup, in the order the Servers were passed in.
+	 */
+	private final LinkedHashMap<Server, Future<Boolean>> futures = new LinkedHashMap<Server, Future<Boolean>>();
+	/**
+	 * Counts down as each backup finishes.
+	 */
+	private final CountDownLatch remaining;
+	
+	
+	/**
+	 * Get the Future of each Server's backup. A Future's result is true if the backup 
+	 * 	was successful, false otherwise.
+	 * @return The Futures keyed by Server, in the order the Servers were passed in.
+	 */
+	public Map<Server, Future<Boolean>> getFutures()
+	{
+		return Collections.unmodifiableMap(futures);
+	}
+	
+	/**
+	 * Get the Future of the passed in Server's backup.
+	 * @param server The Server.
+	 * @return The Future, or null if the Server is not part of this batch.
+	 */
+	public Future<Boolean> getFuture(Server server)
+	{
+		return futures.get(server);
+	}
+	
+	/**
+	 * Get whether every backup has finished.
+	 * @return True, if every backup has finished, false otherwise.
+	 */
+	public boolean isDone()
+	{
+		return remaining.getCount() == 0;
+	}
+	
+	/**
+	 * Get the Servers that were backed up, waiting for every backup to finish.
+	 * @return An ArrayList of the Servers that were backed up.
+	 * @throws InterruptedException
+	 */
+	public ArrayList<Server> getSucceeded() throws InterruptedException
+	{
+		return Collect(true);
+	}
+	
+	/**
+	 * Get the Servers that were not backed up, waiting for every backup to finish.
+	 * 	This includes Servers whose backup failed, threw, or was cancelled.
+	 * @return An ArrayList of the Servers that were not backed up.
+	 * @throws InterruptedException
+	 */
+	public ArrayList<Server> getFailed() throws InterruptedException
+	{
+		return Collect(false);
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param count The number of Servers in the batch.
+	 */
+	BatchBackupResult(int count)
+	{
+		remaining = new CountDownLatch(count);
+	}
+	
+	
+	void Add(Server server, Future<Boolean> future)
+	{
+		futures.put(server, future);
+	}
+	
+	
+	void Finished()
+	{
+		remaining.countDown();
+	}
+	
+	
+	/**
+	 * Wait for every backup to finish.
+	 * @throws InterruptedException
+	 */
+	public void Await() throws InterruptedException
+	{
+		remaining.await();
+	}
+	
+	
+	/**
+	 * Wait for every backup to finish, for at most the passed in time.
+	 * @param timeout The longest time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return True, if every backup finished, false if the time ran out.
+	 * @throws InterruptedException
+	 */
+	public boolean Await(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return remaining.await(timeout, unit);
+	}
+	
+	
+	/**
+	 * Cancel every backup that has not started yet. Backups already running are left to finish.
+	 */
+	public void Cancel()
+	{
+		for (Future<Boolean> future : futures.values())
+		{
+			future.cancel(false);
+		}
+	}
+	
+	
+	private ArrayList<Server> Collect(boolean succeeded) throws InterruptedException
+	{
+		Await();
+		
+		ArrayList<Server> servers = new ArrayList<Server>();
+		
+		for (Map.Entry<Server, Future<Boolean>> entry : futures.entrySet())
+		{
+			if (Succeeded(entry.getValue()) == succeeded)
+				servers.add(entry.getKey());
+		}
+		
+		return servers;
+	}
+	
+	
+	private static boolean Succeeded(Future<Boolean> future) throws InterruptedException
+	{
+		if (future.isCancelled())
+			return false;
+		
+		
+		try
+		{
+			return Boolean.TRUE.equals(future.get());
+		}
+		
+		catch (ExecutionException e)
+		{
+			return false;
+		}
+	}
+}
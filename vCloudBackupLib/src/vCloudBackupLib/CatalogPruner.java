@@ -0,0 +1,269 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vcloud.api.rest.schema.QueryResultAdminCatalogItemRecordType;
+import com.vmware.vcloud.sdk.Task;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.VappTemplate;
+import com.vmware.vcloud.sdk.VcloudClient;
+import com.vmware.vcloud.sdk.constants.query.Expression;
+import com.vmware.vcloud.sdk.constants.query.ExpressionType;
+import com.vmware.vcloud.sdk.constants.query.QueryAdminCatalogItemField;
+import com.vmware.vcloud.sdk.constants.query.QueryRecordType;
+
+/**
+ * Deletes the backups in the private catalog that have expired under their
+ * <code>RetentionPolicy</code>. The catalog items are read a page at a time
+ * through the query service, grouped by Server, and the expired vApp templates
+ * are deleted concurrently on a bounded pool of threads.
+ */
+class CatalogPruner
+{
+	/**
+	 * The default number of vApp templates deleted at once.
+	 */
+	static final int DEFAULT_THREADS = 8;
+	
+	private static final String TYPE_VAPP_TEMPLATE = "application/vnd.vmware.vcloud.vAppTemplate+xml";
+	/**
+	 * The creation time of a catalog item that has none.
+	 */
+	private static final long UNKNOWN_DATE = Long.MIN_VALUE;
+	
+	/**
+	 * Reads the catalog item records.
+	 */
+	private final QueryCrawler queryCrawler;
+	private final VcloudClient client;
+	private final RequestLimiter limiter;
+	private final TaskTracker taskTracker;
+	/**
+	 * The policy of each Server name, its Environment, or else the default, in that order.
+	 */
+	private final Map<String, RetentionPolicy> serverPolicies;
+	private final Map<Server.Environment, RetentionPolicy> environmentPolicies;
+	private final RetentionPolicy defaultPolicy;
+	/**
+	 * Classifies each Server name by Environment.
+	 */
+	private final EnvironmentClassifier classifier;
+	private final int threads;
+	
+	
+	/**
+	 * Main constructor
+	 * @param queryCrawler Reads the catalog item records.
+	 * @param client The VcloudClient used to access the vCloud API.
+	 * @param limiter The limiter every API request is run through.
+	 * @param taskTracker The tracker each delete task is waited on through.
+	 * @param serverPolicies The policy of each Server name.
+	 * @param environmentPolicies The policy of each Environment.
+	 * @param defaultPolicy The policy of every other Server, or null to keep them all.
+	 * @param classifier Classifies each Server name by Environment.
+	 * @param threads The number of vApp templates deleted at once.
+	 */
+	CatalogPruner(QueryCrawler queryCrawler, VcloudClient client, RequestLimiter limiter, TaskTracker taskTracker, 
+			Map<String, RetentionPolicy> serverPolicies, Map<Server.Environment, RetentionPolicy> environmentPolicies, 
+			RetentionPolicy defaultPolicy, EnvironmentClassifier classifier, int threads)
+	{
+		this.queryCrawler = queryCrawler;
+		this.client = client;
+		this.limiter = limiter;
+		this.taskTracker = taskTracker;
+		this.serverPolicies = serverPolicies;
+		this.environmentPolicies = environmentPolicies;
+		this.defaultPolicy = defaultPolicy;
+		this.classifier = classifier;
+		this.threads = threads;
+	}
+	
+	
+	/**
+	 * Delete every expired backup in the named catalog, in every Organization.
+	 * @param catalogName The name of the private catalog.
+	 * @return The PruneResult.
+	 * @throws VCloudException If the catalog items could not be listed.
+	 */
+	PruneResult Prune(String catalogName) throws VCloudException
+	{
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(threads);
+		PruneResult result = new PruneResult();
+		
+		try
+		{
+			List<QueryResultAdminCatalogItemRecordType> items = queryCrawler.FetchAll(QueryRecordType.ADMINCATALOGITEM, 
+					new Expression(QueryAdminCatalogItemField.CATALOGNAME, catalogName, ExpressionType.EQUALS), executor);
+			
+			List<QueryResultAdminCatalogItemRecordType> expired = Expired(items, result);
+			List<Future<Boolean>> deletes = new ArrayList<Future<Boolean>>(expired.size());
+			
+			for (final QueryResultAdminCatalogItemRecordType item : expired)
+			{
+				deletes.add(executor.submit(new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						return Delete(item);
+					}
+				}));
+			}
+			
+			for (int i = 0; i < deletes.size(); i++)
+			{
+				boolean deleted;
+				
+				try
+				{
+					deleted = ServerCrawler.Await(deletes.get(i));
+				}
+				
+				catch (VCloudException | RuntimeException e)
+				{
+					deleted = false;
+				}
+				
+				if (deleted)
+					result.Deleted(expired.get(i).getName());
+				
+				else
+					result.Failed(expired.get(i).getName());
+			}
+		}
+		
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Group the catalog items by catalog and Server name, newest first, and pick out the expired ones.
+	 */
+	private List<QueryResultAdminCatalogItemRecordType> Expired(List<QueryResultAdminCatalogItemRecordType> items, PruneResult result)
+	{
+		LinkedHashMap<String, List<QueryResultAdminCatalogItemRecordType>> byServer = 
+				new LinkedHashMap<String, List<QueryResultAdminCatalogItemRecordType>>();
+		
+		for (QueryResultAdminCatalogItemRecordType item : items)
+		{
+			if (item.getEntityType() == null || !item.getEntityType().toLowerCase().contains("vapptemplate"))
+				continue;
+			
+			//Without a creation date its age and place among the Server's backups are unknown, so keep it
+			if (Created(item) == UNKNOWN_DATE)
+			{
+				result.Kept();
+				continue;
+			}
+			
+			String key = item.getCatalog() + "|" + item.getName();
+			List<QueryResultAdminCatalogItemRecordType> group = byServer.get(key);
+			
+			if (group == null)
+			{
+				group = new ArrayList<QueryResultAdminCatalogItemRecordType>();
+				byServer.put(key, group);
+			}
+			
+			group.add(item);
+		}
+		
+		
+		long now = System.currentTimeMillis();
+		List<QueryResultAdminCatalogItemRecordType> expired = new ArrayList<QueryResultAdminCatalogItemRecordType>();
+		
+		for (List<QueryResultAdminCatalogItemRecordType> group : byServer.values())
+		{
+			RetentionPolicy policy = PolicyFor(group.get(0).getName());
+			
+			Collections.sort(group, new Comparator<QueryResultAdminCatalogItemRecordType>()
+			{
+				@Override
+				public int compare(QueryResultAdminCatalogItemRecordType o1, QueryResultAdminCatalogItemRecordType o2)
+				{
+					return Long.compare(Created(o2), Created(o1));
+				}
+			});
+			
+			for (int i = 0; i < group.size(); i++)
+			{
+				if (policy != null && policy.IsExpired(i, now - Created(group.get(i))))
+					expired.add(group.get(i));
+				
+				else
+					result.Kept();
+			}
+		}
+		
+		return expired;
+	}
+	
+	
+	/**
+	 * Delete the vApp template of the passed in catalog item, which also removes the item from the catalog.
+	 * @return True, if the template was deleted, false otherwise.
+	 */
+	private boolean Delete(QueryResultAdminCatalogItemRecordType item)
+	{
+		final String href = item.getEntity();
+		
+		try
+		{
+			Task task = limiter.Execute(new ApiCall<Task>()
+			{
+				@Override
+				public Task call() throws VCloudException
+				{
+					return VappTemplate.getVappTemplateByReference(client, 
+							QueryCrawler.NewReference(href, null, TYPE_VAPP_TEMPLATE)).delete();
+				}
+			});
+			
+			TaskTracker.Wait(taskTracker, task);
+			
+			return true;
+		}
+		
+		catch (VCloudException | TimeoutException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	private RetentionPolicy PolicyFor(String serverName)
+	{
+		RetentionPolicy policy = serverPolicies.get(serverName);
+		
+		if (policy == null)
+			policy = environmentPolicies.get(classifier.Classify(serverName));
+		
+		return policy != null ? policy : defaultPolicy;
+	}
+	
+	
+	/**
+	 * Get when the passed in catalog item was created, or UNKNOWN_DATE if it has no creation date.
+	 */
+	private static long Created(QueryResultAdminCatalogItemRecordType item)
+	{
+		return item.getCreationDate() != null ? item.getCreationDate().toGregorianCalendar().getTimeInMillis() : UNKNOWN_DATE;
+	}
+}
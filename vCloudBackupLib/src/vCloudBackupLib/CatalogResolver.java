@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.Catalog;
+import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Resolves the backup catalog of each Organization once, and keeps it until a
+ * backup into it fails. Concurrent backups in the same Organization share a
+ * single resolution.
+ */
+class CatalogResolver
+{
+	/**
+	 * The cache the Organizations and Catalogs are fetched through.
+	 */
+	private final EntityCache cache;
+	/**
+	 * The name of the backup catalog.
+	 */
+	private final String catalogName;
+	/**
+	 * The resolved, or resolving, catalog of each Organization, keyed by Organization href.
+	 */
+	private final ConcurrentHashMap<String, FutureTask<Catalog>> catalogs = new ConcurrentHashMap<String, FutureTask<Catalog>>();
+	
+	
+	/**
+	 * Main constructor
+	 * @param cache The cache the Organizations and Catalogs are fetched through.
+	 * @param catalogName The name of the backup catalog.
+	 */
+	CatalogResolver(EntityCache cache, String catalogName)
+	{
+		this.cache = cache;
+		this.catalogName = catalogName;
+	}
+	
+	
+	/**
+	 * Get the backup catalog of the passed in Server's Organization.
+	 * @param server The Server.
+	 * @return The Catalog, or null if the Organization has no catalog with the backup catalog's name.
+	 * @throws VCloudException
+	 */
+	Catalog Resolve(final Server server) throws VCloudException
+	{
+		final String orgHref = server.getOrganizationReference().getHref();
+		FutureTask<Catalog> task = catalogs.get(orgHref);
+		
+		if (task == null)
+		{
+			FutureTask<Catalog> newTask = new FutureTask<Catalog>(new Callable<Catalog>()
+			{
+				@Override
+				public Catalog call() throws VCloudException
+				{
+					return Load(server);
+				}
+			});
+			
+			task = catalogs.putIfAbsent(orgHref, newTask);
+			
+			if (task == null)
+			{
+				task = newTask;
+				task.run();
+			}
+		}
+		
+		
+		try
+		{
+			Catalog catalog = ServerCrawler.Await(task);
+			
+			if (catalog == null)
+				catalogs.remove(orgHref, task);
+			
+			return catalog;
+		}
+		
+		catch (VCloudException | RuntimeException e)
+		{
+			catalogs.remove(orgHref, task);
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Drop the catalog of the passed in Server's Organization, so the next backup
+	 * 	resolves it again from a fresh copy of the Organization.
+	 * @param server The Server whose backup failed.
+	 */
+	void Invalidate(Server server)
+	{
+		String orgHref = server.getOrganizationReference().getHref();
+		FutureTask<Catalog> task = catalogs.remove(orgHref);
+		
+		cache.Invalidate(orgHref);
+		
+		if (task != null && task.isDone())
+		{
+			try
+			{
+				Catalog catalog = ServerCrawler.Await(task);
+				
+				if (catalog != null)
+					cache.Invalidate(catalog.getReference().getHref());
+			}
+			
+			catch (VCloudException | RuntimeException e)
+			{
+				//Never resolved, nothing else to drop
+			}
+		}
+	}
+	
+	
+	private Catalog Load(Server server) throws VCloudException
+	{
+		Organization org = cache.getOrganization(server.getOrganizationReference());
+		
+		for (ReferenceType ref : org.getCatalogRefs())
+		{
+			if (ref.getName().equals(catalogName))
+				return cache.getCatalog(ref);
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Tracks the widest value written to each column of a sheet as the rows are
+ * written, so the columns can be sized at the end without reading the cells
+ * back. <code>Sheet.autoSizeColumn</code> rescans every cell of the column,
+ * and cannot see the rows a streaming sheet has already flushed to disk.
+ */
+class ColumnWidths
+{
+	/**
+	 * The characters added to the widest value, to leave a margin.
+	 */
+	private static final int PADDING = 2;
+	/**
+	 * The widest column Excel allows, in characters.
+	 */
+	private static final int MAX_WIDTH = 255;
+	/**
+	 * The units of <code>Sheet.setColumnWidth</code> per character.
+	 */
+	private static final int UNITS_PER_CHARACTER = 256;
+	
+	/**
+	 * The length of the widest value seen in each column.
+	 */
+	private final int[] widths;
+	
+	
+	/**
+	 * Main constructor
+	 * @param columns The number of columns tracked.
+	 */
+	ColumnWidths(int columns)
+	{
+		this.widths = new int[columns];
+	}
+	
+	
+	/**
+	 * Note a value written to a column.
+	 * @param column The column.
+	 * @param value The value written.
+	 */
+	void Track(int column, String value)
+	{
+		if (value != null && value.length() > widths[column])
+			widths[column] = value.length();
+	}
+	
+	
+	/**
+	 * Size each column of the passed in sheet to the widest value seen in it.
+	 * @param sheet The sheet.
+	 */
+	void Apply(Sheet sheet)
+	{
+		for (int i = 0; i < widths.length; i++)
+		{
+			sheet.setColumnWidth(i, Math.min(widths[i] + PADDING, MAX_WIDTH) * UNITS_PER_CHARACTER);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Renders the Server details as comma separated values, with the same columns
+ * as the Excel spreadsheet. Values holding a comma, quote or line break are
+ * quoted, as RFC 4180 describes.
+ */
+class CsvRenderer extends ServerDetailRenderer
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String NEW_LINE = "\r\n";
+	
+	private final Writer out;
+	
+	
+	/**
+	 * Main constructor
+	 * @param pathToSave The path that the CSV file should be saved to.
+	 * @throws IOException
+	 */
+	CsvRenderer(String pathToSave) throws IOException
+	{
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pathToSave), UTF8));
+	}
+	
+	
+	@Override
+	void Begin() throws IOException
+	{
+		WriteLine(COLUMN_NAMES);
+	}
+	
+	
+	@Override
+	void Render(ServerDetail detail) throws IOException
+	{
+		WriteLine(Cells(detail));
+	}
+	
+	
+	@Override
+	void End() throws IOException
+	{
+		out.flush();
+	}
+	
+	
+	@Override
+	public void close() throws IOException
+	{
+		out.close();
+	}
+	
+	
+	private void WriteLine(Object[] values) throws IOException
+	{
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i > 0)
+				out.write(',');
+			
+			out.write(Quote(values[i] != null ? values[i].toString() : ""));
+		}
+		
+		out.write(NEW_LINE);
+	}
+	
+	
+	private static String Quote(String value)
+	{
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
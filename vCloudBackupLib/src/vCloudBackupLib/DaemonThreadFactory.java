@@ -0,0 +1,42 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so that worker pools never keep the JVM alive.
+ */
+class DaemonThreadFactory implements ThreadFactory
+{
+	/**
+	 * The prefix used for the name of each thread.
+	 */
+	private final String prefix;
+	/**
+	 * The number of threads created so far.
+	 */
+	private final AtomicInteger count = new AtomicInteger();
+	
+	
+	/**
+	 * Main constructor
+	 * @param prefix The prefix used for the name of each thread.
+	 */
+	DaemonThreadFactory(String prefix)
+	{
+		this.prefix = prefix;
+	}
+	
+	
+	@Override
+	public Thread newThread(Runnable r)
+	{
+		Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		
+		return thread;
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.Catalog;
+import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.Vapp;
+import com.vmware.vcloud.sdk.VcloudClient;
+import com.vmware.vcloud.sdk.Vdc;
+
+/**
+ * Resolves vCloud references to their entities, keeping each entity for a
+ * limited time so that repeated lookups of the same href cost a map hit instead
+ * of an API request. The cache holds at most a fixed number of entities and
+ * evicts the least recently used one when it is full. Concurrent lookups of the
+ * same href share a single request.
+ */
+public class EntityCache
+{
+	/**
+	 * The default time, in milliseconds, an entity is kept for.
+	 */
+	public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+	/**
+	 * The default maximum number of entities kept.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 * The VcloudClient used to access the vCloud API.
+	 */
+	private final VcloudClient client;
+	/**
+	 * The limiter every API request is run through.
+	 */
+	private final RequestLimiter limiter;
+	/**
+	 * The time, in milliseconds, an entity is kept for.
+	 */
+	private final long ttl;
+	/**
+	 * The maximum number of entities kept.
+	 */
+	private final int maxEntries;
+	/**
+	 * The cached entities keyed by href, in least recently used order.
+	 */
+	private final LinkedHashMap<String, CachedEntity> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+
+	/**
+	 * Get the number of lookups answered from the cache.
+	 * @return The number of cache hits.
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups that had to go to the vCloud API.
+	 * @return The number of cache misses.
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of entities dropped because the cache was full.
+	 * @return The number of evictions.
+	 */
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * Get the number of entities dropped because they were older than the TTL.
+	 * @return The number of expirations.
+	 */
+	public long getExpirationCount()
+	{
+		return expirations.get();
+	}
+
+	/**
+	 * Get the fraction of lookups answered from the cache.
+	 * @return The hit rate, between 0 and 1.
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Get the number of entities currently cached.
+	 * @return The number of entities currently cached.
+	 */
+	public int getSize()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Main constructor
+	 * @param client The VcloudClient used to access the vCloud API.
+	 * @param limiter The limiter every API request is run through.
+	 * @param ttl The time, in milliseconds, an entity is kept for.
+	 * @param maxEntries The maximum number of entities kept.
+	 */
+	public EntityCache(VcloudClient client, RequestLimiter limiter, long ttl, int maxEntries)
+	{
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+
+		this.client = client;
+		this.limiter = limiter;
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, CachedEntity>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedEntity> eldest)
+			{
+				if (size() > EntityCache.this.maxEntries)
+				{
+					evictions.incrementAndGet();
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+
+	/**
+	 * Get the Organization for the passed in reference.
+	 * @param ref The reference to the Organization.
+	 * @return The Organization.
+	 * @throws VCloudException
+	 */
+	public Organization getOrganization(final ReferenceType ref) throws VCloudException
+	{
+		return Get(ref, Organization.class, new ApiCall<Organization>()
+		{
+			@Override
+			public Organization call() throws VCloudException
+			{
+				return Organization.getOrganizationByReference(client, ref);
+			}
+		});
+	}
+
+
+	/**
+	 * Get the Vdc for the passed in reference.
+	 * @param ref The reference to the Vdc.
+	 * @return The Vdc.
+	 * @throws VCloudException
+	 */
+	public Vdc getVdc(final ReferenceType ref) throws VCloudException
+	{
+		return Get(ref, Vdc.class, new ApiCall<Vdc>()
+		{
+			@Override
+			public Vdc call() throws VCloudException
+			{
+				return Vdc.getVdcByReference(client, ref);
+			}
+		});
+	}
+
+
+	/**
+	 * Get the Vapp for the passed in reference.
+	 * @param ref The reference to the Vapp.
+	 * @return The Vapp.
+	 * @throws VCloudException
+	 */
+	public Vapp getVapp(final ReferenceType ref) throws VCloudException
+	{
+		return Get(ref, Vapp.class, new ApiCall<Vapp>()
+		{
+			@Override
+			public Vapp call() throws VCloudException
+			{
+				return Vapp.getVappByReference(client, ref);
+			}
+		});
+	}
+
+
+	/**
+	 * Get the Catalog for the passed in reference.
+	 * @param ref The reference to the Catalog.
+	 * @return The Catalog.
+	 * @throws VCloudException
+	 */
+	public Catalog getCatalog(final ReferenceType ref) throws VCloudException
+	{
+		return Get(ref, Catalog.class, new ApiCall<Catalog>()
+		{
+			@Override
+			public Catalog call() throws VCloudException
+			{
+				return Catalog.getCatalogByReference(client, ref);
+			}
+		});
+	}
+
+
+	/**
+	 * Drop the entity with the passed in href, so the next lookup fetches it again.
+	 * @param href The href of the entity.
+	 */
+	public void Invalidate(String href)
+	{
+		synchronized (entries)
+		{
+			entries.remove(href);
+		}
+	}
+
+
+	/**
+	 * Drop every cached entity.
+	 */
+	public void Clear()
+	{
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+
+
+	/**
+	 * Look up the entity for the passed in reference, loading it if it is not
+	 * cached or has expired. A failed load is not cached.
+	 * @param ref The reference to the entity.
+	 * @param type The type of the entity.
+	 * @param loader The request that loads the entity.
+	 * @return The entity.
+	 * @throws VCloudException
+	 */
+	private <T> T Get(ReferenceType ref, Class<T> type, final ApiCall<T> loader) throws VCloudException
+	{
+		String href = ref.getHref();
+		long now = System.currentTimeMillis();
+		boolean load = false;
+		CachedEntity entry;
+
+
+		synchronized (entries)
+		{
+			entry = entries.get(href);
+
+			if (entry != null && now - entry.created > ttl)
+			{
+				entries.remove(href);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+
+			if (entry == null)
+			{
+				entry = new CachedEntity(now, new FutureTask<Object>(new Callable<Object>()
+				{
+					@Override
+					public Object call() throws VCloudException
+					{
+						return limiter.Execute(loader);
+					}
+				}));
+
+				entries.put(href, entry);
+				load = true;
+			}
+		}
+
+
+		if (load)
+		{
+			misses.incrementAndGet();
+			entry.task.run();
+		}
+
+		else
+			hits.incrementAndGet();
+
+
+		try
+		{
+			return type.cast(ServerCrawler.Await(entry.task));
+		}
+
+		catch (VCloudException | RuntimeException e)
+		{
+			synchronized (entries)
+			{
+				if (entries.get(href) == entry)
+					entries.remove(href);
+			}
+
+			throw e;
+		}
+	}
+
+
+	/**
+	 * A cached entity, or the pending load of one.
+	 */
+	private static class CachedEntity
+	{
+		/**
+		 * When the load of this entity started.
+		 */
+		private final long created;
+		/**
+		 * The load of this entity.
+		 */
+		private final FutureTask<Object> task;
+
+
+		private CachedEntity(long created, FutureTask<Object> task)
+		{
+			this.created = created;
+			this.task = task;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies server names by the Environment tags of the settings file. The
+ * tags are compiled once into a single pattern, so each name costs one match
+ * rather than a compile and a match per tag.
+ * <p>
+ * The combined pattern is an alternation of lookaheads anchored at the start
+ * of the name, one per tag in settings order. The first alternative whose tag
+ * is found anywhere in the name wins, which is the same Environment the tags
+ * would pick if tried one at a time. Each thread reuses its own Matcher, so
+ * classifying a name allocates nothing.
+ * <p>
+ * Splicing a tag into the combined pattern moves its groups, so each numbered
+ * backreference in a tag is renumbered to the group it pointed at on its own.
+ * Each named group, and each backreference to it, has the number of the group
+ * wrapping its tag added to its name, so two tags may use the same name.
+ */
+class EnvironmentClassifier
+{
+	/**
+	 * The classifier last handed out by <code>Shared</code>.
+	 */
+	private static volatile EnvironmentClassifier shared;
+	
+	/**
+	 * The names and tags of the Environments, in order, to tell whether another list matches.
+	 */
+	private final String[] namesAndTags;
+	/**
+	 * The combined pattern, or null if there are no tags.
+	 */
+	private final Pattern pattern;
+	/**
+	 * The Environment of each group of the combined pattern, or null for the groups inside a tag.
+	 */
+	private final Server.Environment[] groupEnvironments;
+	/**
+	 * The Matcher of each thread, reset for every name.
+	 */
+	private final ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>()
+	{
+		@Override
+		protected Matcher initialValue()
+		{
+			return pattern.matcher("");
+		}
+	};
+	
+	
+	/**
+	 * Main constructor
+	 * @param environments The Environments, in the order their tags are tried.
+	 * @throws java.util.regex.PatternSyntaxException If a tag is not a valid regular expression.
+	 */
+	EnvironmentClassifier(List<Settings.Environment> environments)
+	{
+		ArrayList<Server.Environment> groups = new ArrayList<Server.Environment>();
+		StringBuilder combined = new StringBuilder("^(?:");
+		
+		groups.add(null);
+		namesAndTags = new String[environments.size() * 2];
+		int e = 0;
+		
+		for (Settings.Environment env : environments)
+		{
+			namesAndTags[e++] = env.getName();
+			namesAndTags[e++] = env.getTag();
+			
+			if (groups.size() > 1)
+				combined.append('|');
+			
+			//The tag's own groups follow the group that wraps it
+			int wrapper = groups.size();
+			
+			combined.append("(?=(?s:.*?)(");
+			int tagGroups = Splice(env.getTag(), wrapper, combined);
+			combined.append("))");
+			
+			groups.add(ToEnvironment(env.getName()));
+			
+			for (int i = 0; i < tagGroups; i++)
+			{
+				groups.add(null);
+			}
+		}
+		
+		combined.append(')');
+		
+		this.pattern = environments.isEmpty() ? null : Pattern.compile(combined.toString());
+		this.groupEnvironments = groups.toArray(new Server.Environment[groups.size()]);
+	}
+	
+	
+	/**
+	 * Get a classifier for the passed in Environments, sharing the last one built when
+	 * 	the names and tags are the same, as they are for every copy of the current settings.
+	 * @param environments The Environments, in the order their tags are tried.
+	 * @return The EnvironmentClassifier.
+	 */
+	static EnvironmentClassifier Shared(List<Settings.Environment> environments)
+	{
+		EnvironmentClassifier current = shared;
+		
+		if (current != null && current.Matches(environments))
+			return current;
+		
+		current = new EnvironmentClassifier(environments);
+		shared = current;
+		
+		return current;
+	}
+	
+	
+	/**
+	 * Classify the passed in server name by the first Environment whose tag it contains.
+	 * @param serverName The server name.
+	 * @return The Environment, or UNKNOWN if no tag matches.
+	 */
+	Server.Environment Classify(String serverName)
+	{
+		if (pattern == null || serverName == null)
+			return Server.Environment.UNKNOWN;
+		
+		Matcher m = matchers.get().reset(serverName);
+		
+		if (!m.lookingAt())
+			return Server.Environment.UNKNOWN;
+		
+		for (int group = 1; group < groupEnvironments.length; group++)
+		{
+			if (groupEnvironments[group] != null && m.start(group) >= 0)
+				return groupEnvironments[group];
+		}
+		
+		return Server.Environment.UNKNOWN;
+	}
+	
+	
+	/**
+	 * Get whether this classifier was built from Environments with the same names and tags, in the same order.
+	 */
+	private boolean Matches(List<Settings.Environment> environments)
+	{
+		if (environments.size() * 2 != namesAndTags.length)
+			return false;
+		
+		int e = 0;
+		
+		for (Settings.Environment env : environments)
+		{
+			if (!Objects.equals(namesAndTags[e++], env.getName()) || !Objects.equals(namesAndTags[e++], env.getTag()))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Append the passed in tag to the combined pattern, moving each numbered backreference 
+	 * 	along by the group that wraps the tag, so it still points at the tag's own group.
+	 * 	A backreference to a group the tag does not have never matches, as on its own.
+	 * 	Group names are made the tag's own by adding <code>x</code> and the number of the 
+	 * 	wrapping group; as the number is all digits, no two tags can end up with the same name.
+	 * @param tag The tag.
+	 * @param wrapper The number of the group that wraps the tag in the combined pattern.
+	 * @param combined The combined pattern.
+	 * @return The number of capturing groups in the tag.
+	 */
+	private static int Splice(String tag, int wrapper, StringBuilder combined)
+	{
+		//The first pass only counts, since a backreference may point at a group opened after it
+		int total = Scan(tag, 0, 0, null);
+		Scan(tag, wrapper, total, combined);
+		
+		return total;
+	}
+	
+	
+	/**
+	 * Walk the passed in tag, counting its capturing groups, and append it with its numbered
+	 * 	backreferences moved along by the passed in offset. Backreferences are read as 
+	 * 	<code>Pattern</code> reads them: further digits belong to the number only while 
+	 * 	that many groups have been opened. Named groups and named backreferences have
+	 * 	<code>x</code> and the offset added to their names.
+	 * @param offset The number each backreference is moved along by.
+	 * @param total The number of capturing groups in the tag, beyond which a backreference never matches.
+	 * @param out Where the tag is appended, or null to only count.
+	 * @return The number of capturing groups in the tag.
+	 */
+	private static int Scan(String tag, int offset, int total, StringBuilder out)
+	{
+		int groups = 0;
+		int classDepth = 0;
+		int i = 0;
+		
+		while (i < tag.length())
+		{
+			char c = tag.charAt(i);
+			int next = i + 1;
+			
+			if (c == '\\' && next < tag.length())
+			{
+				char escaped = tag.charAt(next);
+				next++;
+				
+				if (escaped == 'Q')
+				{
+					int end = tag.indexOf("\\E", next);
+					next = end < 0 ? tag.length() : end + 2;
+				}
+				
+				else if (classDepth == 0 && escaped >= '1' && escaped <= '9')
+				{
+					int ref = escaped - '0';
+					
+					while (next < tag.length() && Character.isDigit(tag.charAt(next)) && ref * 10 + tag.charAt(next) - '0' <= groups)
+					{
+						ref = ref * 10 + tag.charAt(next) - '0';
+						next++;
+					}
+					
+					if (out != null)
+						out.append(ref <= total ? "(?:\\" + (offset + ref) + ")" : "(?!)");
+					
+					i = next;
+					continue;
+				}
+				
+				else if (classDepth == 0 && escaped == 'k' && next < tag.length() && tag.charAt(next) == '<')
+				{
+					int close = tag.indexOf('>', next);
+					
+					if (close >= 0)
+					{
+						if (out != null)
+							out.append(tag, i, close).append('x').append(offset).append('>');
+						
+						i = close + 1;
+						continue;
+					}
+				}
+			}
+			
+			else if (c == '[')
+				classDepth++;
+			
+			else if (c == ']' && classDepth > 0)
+				classDepth--;
+			
+			else if (c == '(' && classDepth == 0 && IsCapturing(tag, i))
+			{
+				groups++;
+				
+				int close = tag.indexOf('>', i);
+				
+				//A named group
+				if (tag.startsWith("(?<", i) && close >= 0)
+				{
+					if (out != null)
+						out.append(tag, i, close).append('x').append(offset).append('>');
+					
+					i = close + 1;
+					continue;
+				}
+			}
+			
+			if (out != null)
+				out.append(tag, i, next);
+			
+			i = next;
+		}
+		
+		return groups;
+	}
+	
+	
+	/**
+	 * Get whether the group opened at the passed in index captures: a plain group or a named one.
+	 */
+	private static boolean IsCapturing(String tag, int open)
+	{
+		if (open + 1 >= tag.length() || tag.charAt(open + 1) != '?')
+			return true;
+		
+		return open + 3 < tag.length() && tag.charAt(open + 2) == '<' && tag.charAt(open + 3) != '=' && tag.charAt(open + 3) != '!';
+	}
+	
+	
+	/**
+	 * Get the Server Environment an Environment of the settings file stands for.
+	 */
+	private static Server.Environment ToEnvironment(String name)
+	{
+		switch (name)
+		{
+			case Server.PRODUCTION_STRING:
+				return Server.Environment.PRODUCTION;
+				
+			case Server.STAGING_STRING:
+				return Server.Environment.STAGING;
+				
+			case Server.DEVELOPMENT_STRING:
+				return Server.Environment.DEVELOPMENT;
+				
+			default:
+				return Server.Environment.UNKNOWN;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Renders the Server details as an Excel spreadsheet, either an .xls workbook
+ * built in memory or an .xlsx workbook streamed to disk.
+ */
+class ExcelRenderer extends ServerDetailRenderer
+{
+	private static final String SHEET_TARGET_VMS = "Target VMs";
+	/**
+	 * The most rows an .xls sheet can hold.
+	 */
+	static final int XLS_MAX_ROWS = 65536;
+	/**
+	 * The number of rows an .xlsx export keeps in memory before flushing them to disk.
+	 */
+	private static final int XLSX_ROW_WINDOW = 100;
+	
+	private final String pathToSave;
+	private final Workbook wb;
+	private final Sheet sheet;
+	private final ColumnWidths widths = new ColumnWidths(COLUMN_NUMBER);
+	/**
+	 * The index of the next row written.
+	 */
+	private int nextRow;
+	
+	
+	/**
+	 * Main constructor
+	 * @param pathToSave The path that the Excel spreadsheet should be saved to.
+	 * @param format The format of the spreadsheet.
+	 */
+	ExcelRenderer(String pathToSave, Backup.ExcelFormat format)
+	{
+		this.pathToSave = pathToSave;
+		
+		if (format == Backup.ExcelFormat.XLSX)
+		{
+			SXSSFWorkbook streaming = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+			streaming.setCompressTempFiles(true);
+			wb = streaming;
+		}
+		
+		else
+			wb = new HSSFWorkbook();
+		
+		sheet = wb.createSheet(SHEET_TARGET_VMS);
+	}
+	
+	
+	@Override
+	void Begin()
+	{
+		Row row = sheet.createRow(nextRow++);
+		
+		for (int i = 0; i < COLUMN_NUMBER; i++)
+		{
+			SetCell(row, i, COLUMN_NAMES[i]);
+		}
+	}
+	
+	
+	@Override
+	void Render(ServerDetail detail)
+	{
+		Row row = sheet.createRow(nextRow++);
+		Object[] cells = Cells(detail);
+		
+		for (int i = 0; i < COLUMN_NUMBER; i++)
+		{
+			SetCell(row, i, cells[i]);
+		}
+	}
+	
+	
+	@Override
+	void End() throws IOException
+	{
+		widths.Apply(sheet);
+		
+		FileOutputStream fileOut = new FileOutputStream(pathToSave);
+		
+		try
+		{
+			wb.write(fileOut);
+		}
+		
+		finally
+		{
+			fileOut.close();
+		}
+	}
+	
+	
+	/**
+	 * Remove the temporary files the streamed rows were flushed to.
+	 */
+	@Override
+	public void close()
+	{
+		if (wb instanceof SXSSFWorkbook)
+			((SXSSFWorkbook) wb).dispose();
+	}
+	
+	
+	/**
+	 * Write a cell, and note its width.
+	 */
+	private void SetCell(Row row, int column, Object value)
+	{
+		if (value instanceof Integer)
+			row.createCell(column).setCellValue((Integer) value);
+		
+		else
+			row.createCell(column).setCellValue((String) value);
+		
+		widths.Track(column, String.valueOf(value));
+	}
+}
@@ -0,0 +1,367 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.Vdc;
+
+/**
+ * Brings a previously crawled <code>Server</code> list up to date. Each Vdc
+ * gets a marker built from the vApps it holds; a Vdc whose marker has not
+ * changed keeps its Servers as they are, and only the vApps that were added,
+ * renamed or changed in a changed Vdc are fetched again. When walking, the
+ * marker holds only the href and name of each vApp, since that is all a Vdc
+ * lists, so a vApp is only seen to change when it is renamed.
+ */
+class InventoryRefresher
+{
+	/**
+	 * The cache the crawl resolved its entities through.
+	 */
+	private final EntityCache cache;
+	/**
+	 * The previous Servers, grouped by Vdc href, in crawl order.
+	 */
+	private final LinkedHashMap<String, ArrayList<Server>> previousByVdc = new LinkedHashMap<String, ArrayList<Server>>();
+	/**
+	 * The previous Servers keyed by vApp href.
+	 */
+	private final HashMap<String, Server> previousByVapp = new HashMap<String, Server>();
+	/**
+	 * The changes found by this refresh.
+	 */
+	private final RefreshResult result = new RefreshResult();
+
+
+	/**
+	 * Get the changes found by this refresh.
+	 * @return The RefreshResult.
+	 */
+	RefreshResult getResult()
+	{
+		return result;
+	}
+
+
+
+
+
+
+	/**
+	 * Main constructor
+	 * @param cache The cache the crawl resolved its entities through.
+	 * @param previous The Servers found by the previous crawl.
+	 */
+	InventoryRefresher(EntityCache cache, Collection<Server> previous)
+	{
+		this.cache = cache;
+
+		for (Server server : previous)
+		{
+			Group(previousByVdc, server);
+			previousByVapp.put(server.getVappReference().getHref(), server);
+		}
+	}
+
+
+	/**
+	 * Refresh by walking the Organizations and Vdcs again. Every Organization and
+	 * Vdc is fetched fresh, but a vApp is only fetched if it is new or renamed. 
+	 * Nothing else about a vApp is compared, so no other change is found.
+	 * @param crawler The crawler used to fetch entities and build Servers.
+	 * @param orgRefs The Organizations to refresh.
+	 * @param threads The number of threads used to fetch Vdcs.
+	 * @return The refreshed Server list.
+	 * @throws VCloudException
+	 */
+	ArrayList<Server> RefreshWalk(final ServerCrawler crawler, Collection<ReferenceType> orgRefs, int threads) throws VCloudException
+	{
+		ArrayList<Server> servers = new ArrayList<Server>();
+		HashSet<String> seenVdcs = new HashSet<String>();
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(threads);
+
+		try
+		{
+			List<Organization> vdcOrgs = new ArrayList<Organization>();
+			List<ReferenceType> vdcRefs = new ArrayList<ReferenceType>();
+			List<Future<Vdc>> vdcFutures = new ArrayList<Future<Vdc>>();
+
+			for (ReferenceType orgRef : orgRefs)
+			{
+				cache.Invalidate(orgRef.getHref());
+				Organization org = crawler.GetOrganization(orgRef);
+
+				for (final ReferenceType vdcRef : org.getVdcRefs())
+				{
+					vdcOrgs.add(org);
+					vdcRefs.add(vdcRef);
+					vdcFutures.add(executor.submit(new Callable<Vdc>()
+					{
+						@Override
+						public Vdc call() throws VCloudException
+						{
+							cache.Invalidate(vdcRef.getHref());
+
+							return crawler.GetVdc(vdcRef);
+						}
+					}));
+				}
+			}
+
+
+			for (int i = 0; i < vdcFutures.size(); i++)
+			{
+				Vdc vdc = ServerCrawler.Await(vdcFutures.get(i));
+				String vdcHref = vdcRefs.get(i).getHref();
+				ArrayList<Server> old = Previous(vdcHref);
+				Collection<ReferenceType> vAppRefs = vdc.getVappRefs();
+				seenVdcs.add(vdcHref);
+
+
+				List<String> markers = new ArrayList<String>();
+
+				for (ReferenceType vAppRef : vAppRefs)
+				{
+					markers.add(VappMarker(vAppRef.getHref(), vAppRef.getName(), null));
+				}
+
+				if (VdcMarker(markers).equals(WalkMarker(old)))
+				{
+					servers.addAll(old);
+					result.SkippedVdc();
+					continue;
+				}
+
+
+				HashSet<String> seenVapps = new HashSet<String>();
+
+				for (ReferenceType vAppRef : vAppRefs)
+				{
+					Server oldServer = previousByVapp.get(vAppRef.getHref());
+					seenVapps.add(vAppRef.getHref());
+
+					if (oldServer != null && oldServer.getServerName().equals(vAppRef.getName()))
+					{
+						servers.add(oldServer);
+						continue;
+					}
+
+					cache.Invalidate(vAppRef.getHref());
+					Server server = crawler.BuildServer(vdcOrgs.get(i), vdc, vAppRef);
+					servers.add(server);
+
+					if (oldServer == null)
+						result.getAdded().add(server);
+
+					else
+						result.getUpdated().add(server);
+				}
+
+				Removed(old, seenVapps);
+			}
+		}
+
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		RemovedVdcs(seenVdcs);
+
+		return servers;
+	}
+
+
+	/**
+	 * Refresh from a fresh query crawl. The query records are cheap to read, so
+	 * here the saving is in keeping the previous Server of every unchanged vApp,
+	 * along with anything it has already resolved.
+	 * @param fresh The Servers built from a fresh query crawl.
+	 * @return The refreshed Server list.
+	 */
+	ArrayList<Server> RefreshQuery(Collection<Server> fresh)
+	{
+		LinkedHashMap<String, ArrayList<Server>> freshByVdc = new LinkedHashMap<String, ArrayList<Server>>();
+		ArrayList<Server> servers = new ArrayList<Server>(fresh.size());
+
+		for (Server server : fresh)
+		{
+			Group(freshByVdc, server);
+		}
+
+
+		for (Map.Entry<String, ArrayList<Server>> vdcEntry : freshByVdc.entrySet())
+		{
+			ArrayList<Server> old = Previous(vdcEntry.getKey());
+
+			if (VdcMarker(vdcEntry.getValue()).equals(VdcMarker(old)))
+			{
+				servers.addAll(old);
+				result.SkippedVdc();
+				continue;
+			}
+
+
+			HashSet<String> seenVapps = new HashSet<String>();
+
+			for (Server server : vdcEntry.getValue())
+			{
+				String href = server.getVappReference().getHref();
+				Server oldServer = previousByVapp.get(href);
+				seenVapps.add(href);
+
+				if (oldServer != null && Marker(oldServer).equals(Marker(server)))
+				{
+					servers.add(oldServer);
+					continue;
+				}
+
+				cache.Invalidate(href);
+				servers.add(server);
+
+				if (oldServer == null)
+					result.getAdded().add(server);
+
+				else
+					result.getUpdated().add(server);
+			}
+
+			Removed(old, seenVapps);
+		}
+
+		RemovedVdcs(freshByVdc.keySet());
+
+		return servers;
+	}
+
+
+	/**
+	 * Record every Server of the passed in list whose vApp was not seen as removed.
+	 */
+	private void Removed(List<Server> old, Collection<String> seenVapps)
+	{
+		for (Server server : old)
+		{
+			if (!seenVapps.contains(server.getVappReference().getHref()))
+			{
+				cache.Invalidate(server.getVappReference().getHref());
+				result.getRemoved().add(server);
+			}
+		}
+	}
+
+
+	/**
+	 * Record every Server of every previous Vdc that was not seen as removed.
+	 */
+	private void RemovedVdcs(Collection<String> seenVdcs)
+	{
+		for (Map.Entry<String, ArrayList<Server>> vdcEntry : previousByVdc.entrySet())
+		{
+			if (!seenVdcs.contains(vdcEntry.getKey()))
+				Removed(vdcEntry.getValue(), Collections.<String>emptySet());
+		}
+	}
+
+
+	private ArrayList<Server> Previous(String vdcHref)
+	{
+		ArrayList<Server> old = previousByVdc.get(vdcHref);
+
+		return old != null ? old : new ArrayList<Server>();
+	}
+
+
+	private static void Group(Map<String, ArrayList<Server>> byVdc, Server server)
+	{
+		String vdcHref = server.getVdcReference().getHref();
+		ArrayList<Server> group = byVdc.get(vdcHref);
+
+		if (group == null)
+		{
+			group = new ArrayList<Server>();
+			byVdc.put(vdcHref, group);
+		}
+
+		group.add(server);
+	}
+
+
+	/**
+	 * Build the marker of a Vdc from the Servers it holds.
+	 */
+	private static String VdcMarker(Collection<Server> servers)
+	{
+		List<String> markers = new ArrayList<String>(servers.size());
+
+		for (Server server : servers)
+		{
+			markers.add(Marker(server));
+		}
+
+		return VdcMarker(markers);
+	}
+
+
+	/**
+	 * Build the marker of a Vdc from the Servers it holds, from their hrefs and names 
+	 * alone, to compare with the marker of a walked Vdc. Servers found by a query crawl
+	 * carry a change marker the walk cannot read.
+	 */
+	private static String WalkMarker(Collection<Server> servers)
+	{
+		List<String> markers = new ArrayList<String>(servers.size());
+
+		for (Server server : servers)
+		{
+			markers.add(VappMarker(server.getVappReference().getHref(), server.getServerName(), null));
+		}
+
+		return VdcMarker(markers);
+	}
+
+
+	/**
+	 * Build the marker of a Vdc from the markers of the vApps it holds. The
+	 * order the vApps are listed in does not matter.
+	 */
+	private static String VdcMarker(List<String> vappMarkers)
+	{
+		Collections.sort(vappMarkers);
+		StringBuilder marker = new StringBuilder();
+
+		for (String vappMarker : vappMarkers)
+		{
+			marker.append(vappMarker).append('\n');
+		}
+
+		return marker.toString();
+	}
+
+
+	private static String Marker(Server server)
+	{
+		return VappMarker(server.getVappReference().getHref(), server.getServerName(), server.getChangeMarker());
+	}
+
+
+	private static String VappMarker(String href, String name, String changeMarker)
+	{
+		return href + "|" + name + "|" + (changeMarker != null ? changeMarker : "");
+	}
+}
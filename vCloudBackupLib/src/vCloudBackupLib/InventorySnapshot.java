@@ -0,0 +1,230 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+
+/**
+ * Saves the discovered inventory to a compact binary file, and reads it back
+ * as lazy Servers without touching the vCloud API.
+ * <p>
+ * The file holds a header, a table of every distinct string, and one fixed
+ * size record per Server whose fields are indexes into the string table, so
+ * hrefs shared by many Servers are only stored once. It is read into memory
+ * in one go rather than mapped, since Windows will not replace a file that is
+ * still mapped, and the mapping lives until it is garbage collected.
+ */
+class InventorySnapshot
+{
+	/**
+	 * Identifies a snapshot file.
+	 */
+	private static final int MAGIC = 0x56434253;
+	/**
+	 * The version of the file layout.
+	 */
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int NO_STRING = -1;
+
+	static final String TYPE_ORG = "application/vnd.vmware.vcloud.org+xml";
+
+
+	/**
+	 * Write the passed in Servers to a snapshot file. The file is written beside
+	 * the target and moved into place, so a reader never sees half a snapshot.
+	 * @param path The path of the snapshot file.
+	 * @param servers The Servers to write.
+	 * @throws IOException
+	 */
+	static void Write(String path, Collection<Server> servers) throws IOException
+	{
+		ArrayList<String> strings = new ArrayList<String>();
+		HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		int[][] records = new int[servers.size()][];
+		int i = 0;
+
+
+		for (Server server : servers)
+		{
+			ReferenceType orgRef = server.getOrganizationReference();
+			ReferenceType vdcRef = server.getVdcReference();
+			ReferenceType vappRef = server.getVappReference();
+
+			records[i++] = new int[] {
+					Intern(orgRef.getHref(), strings, stringIndexes),
+					Intern(orgRef.getName(), strings, stringIndexes),
+					Intern(vdcRef.getHref(), strings, stringIndexes),
+					Intern(vdcRef.getName(), strings, stringIndexes),
+					Intern(vappRef.getHref(), strings, stringIndexes),
+					Intern(server.getServerName(), strings, stringIndexes),
+					Intern(server.getChangeMarker(), strings, stringIndexes),
+					server.getEnvironment().ordinal(),
+					server.getVmCount(),
+					server.getCpuCount(),
+					server.getMemorySize() };
+		}
+
+
+		File target = new File(path);
+		File temp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+
+			out.writeInt(strings.size());
+
+			for (String string : strings)
+			{
+				byte[] bytes = string.getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(records.length);
+
+			for (int[] record : records)
+			{
+				for (int field : record)
+				{
+					out.writeInt(field);
+				}
+			}
+		}
+
+		finally
+		{
+			out.close();
+		}
+
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Read the Servers from a snapshot file. The Servers are lazy, and resolve
+	 * their entities through the passed in cache when first used.
+	 * @param path The path of the snapshot file.
+	 * @param dataCenter The data center name given to each Server.
+	 * @param cache The cache the Servers resolve their entities through.
+	 * @return An ArrayList of the Servers in the snapshot.
+	 * @throws IOException If the file cannot be read or is not a snapshot.
+	 */
+	static ArrayList<Server> Read(String path, String dataCenter, EntityCache cache) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+
+		try
+		{
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException(path + " is not an inventory snapshot");
+
+			buffer.getLong();
+
+
+			String[] strings = new String[buffer.getInt()];
+
+			for (int i = 0; i < strings.length; i++)
+			{
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, UTF8);
+			}
+
+
+			int count = buffer.getInt();
+			Server.Environment[] environments = Server.Environment.values();
+			ArrayList<Server> servers = new ArrayList<Server>(count);
+			HashMap<String, ReferenceType> refs = new HashMap<String, ReferenceType>();
+
+			for (int i = 0; i < count; i++)
+			{
+				ReferenceType orgRef = Reference(refs, StringAt(strings, buffer.getInt()), StringAt(strings, buffer.getInt()), TYPE_ORG);
+				ReferenceType vdcRef = Reference(refs, StringAt(strings, buffer.getInt()), StringAt(strings, buffer.getInt()), QueryCrawler.TYPE_VDC);
+				String vappHref = StringAt(strings, buffer.getInt());
+				String name = StringAt(strings, buffer.getInt());
+				String marker = StringAt(strings, buffer.getInt());
+				Server.Environment environment = environments[buffer.getInt()];
+
+				Server server = new Server(orgRef, vdcRef, QueryCrawler.NewReference(vappHref, name, QueryCrawler.TYPE_VAPP),
+						dataCenter, environment, cache);
+				server.setChangeMarker(marker);
+				server.setSizing(buffer.getInt(), buffer.getInt(), buffer.getInt());
+
+				servers.add(server);
+			}
+
+			return servers;
+		}
+
+		catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e)
+		{
+			throw new IOException(path + " is truncated or corrupt", e);
+		}
+	}
+
+
+	/**
+	 * Get the index of the passed in string in the string table, adding it if needed.
+	 */
+	private static int Intern(String string, List<String> strings, HashMap<String, Integer> stringIndexes)
+	{
+		if (string == null)
+			return NO_STRING;
+
+		Integer index = stringIndexes.get(string);
+
+		if (index == null)
+		{
+			index = strings.size();
+			strings.add(string);
+			stringIndexes.put(string, index);
+		}
+
+		return index;
+	}
+
+
+	private static String StringAt(String[] strings, int index)
+	{
+		return index == NO_STRING ? null : strings[index];
+	}
+
+
+	/**
+	 * Get the shared reference for the passed in href, so every Server of a Vdc holds the same object.
+	 */
+	private static ReferenceType Reference(HashMap<String, ReferenceType> refs, String href, String name, String type)
+	{
+		ReferenceType ref = refs.get(href);
+
+		if (ref == null)
+		{
+			ref = QueryCrawler.NewReference(href, name, type);
+			refs.put(href, ref);
+		}
+
+		return ref;
+	}
+}
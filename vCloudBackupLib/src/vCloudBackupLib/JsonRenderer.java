@@ -0,0 +1,152 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Renders the Server details as a JSON array with an object per Server. Sizes
+ * are written as whole numbers of MB rather than the rounded GB strings of the
+ * tabular reports.
+ */
+class JsonRenderer extends ServerDetailRenderer
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final Writer out;
+	/**
+	 * Whether a Server has been written yet.
+	 */
+	private boolean first = true;
+	
+	
+	/**
+	 * Main constructor
+	 * @param pathToSave The path that the JSON file should be saved to.
+	 * @throws IOException
+	 */
+	JsonRenderer(String pathToSave) throws IOException
+	{
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pathToSave), UTF8));
+	}
+	
+	
+	@Override
+	void Begin() throws IOException
+	{
+		out.write('[');
+	}
+	
+	
+	@Override
+	void Render(ServerDetail detail) throws IOException
+	{
+		out.write(first ? "\n" : ",\n");
+		first = false;
+		
+		out.write("\t{");
+		Field("dataCenter", detail.getDataCenter(), true);
+		Field("cpus", detail.getCpus());
+		Field("memoryMB", detail.getMemory());
+		Field("extraStorageMB", detail.getExtraStorage());
+		Field("extraMemoryMB", detail.getExtraMemory());
+		Field("environment", detail.getEnvironment().toString(), false);
+		Field("ipAddress", detail.getIpAddress(), false);
+		Field("dnsName", detail.getDnsName(), false);
+		Field("organization", detail.getOrganizationName(), false);
+		Field("vappName", detail.getVappName(), false);
+		Field("zone", detail.getZone(), false);
+		out.write('}');
+	}
+	
+	
+	@Override
+	void End() throws IOException
+	{
+		out.write(first ? "]\n" : "\n]\n");
+		out.flush();
+	}
+	
+	
+	@Override
+	public void close() throws IOException
+	{
+		out.close();
+	}
+	
+	
+	private void Field(String name, String value, boolean firstField) throws IOException
+	{
+		out.write(firstField ? "\"" : ", \"");
+		out.write(name);
+		out.write("\": ");
+		
+		if (value == null)
+			out.write("null");
+		
+		else
+			out.write(Quote(value));
+	}
+	
+	
+	private void Field(String name, int value) throws IOException
+	{
+		out.write(", \"");
+		out.write(name);
+		out.write("\": ");
+		out.write(Integer.toString(value));
+	}
+	
+	
+	/**
+	 * Quote a string as a JSON string literal.
+	 */
+	private static String Quote(String value)
+	{
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			
+			switch (c)
+			{
+				case '"':
+					quoted.append("\\\"");
+					break;
+					
+				case '\\':
+					quoted.append("\\\\");
+					break;
+					
+				case '\n':
+					quoted.append("\\n");
+					break;
+					
+				case '\r':
+					quoted.append("\\r");
+					break;
+					
+				case '\t':
+					quoted.append("\\t");
+					break;
+					
+				default:
+					if (c < 0x20)
+						quoted.append(String.format("\\u%04x", (int) c));
+					
+					else
+						quoted.append(c);
+			}
+		}
+		
+		return quoted.append('"').toString();
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Powers many Servers on or off at once. At most a fixed number of power
+ * tasks are outstanding at a time; each is started on a small pool of threads
+ * and then left to the <code>TaskTracker</code>, so no thread waits on a task.
+ * Every Server gets its own timeout, counted from when its task is started.
+ */
+class PowerBatch
+{
+	/**
+	 * The default number of power tasks outstanding at once.
+	 */
+	static final int DEFAULT_PARALLELISM = 16;
+	/**
+	 * The default time, in milliseconds, a single power task is given to finish.
+	 */
+	static final long DEFAULT_TIMEOUT = 10 * 60 * 1000L;
+	
+	/**
+	 * The number of threads that start power tasks.
+	 */
+	private static final int START_THREADS = 4;
+	
+	private final int parallelism;
+	private final long timeout;
+	
+	
+	/**
+	 * Main constructor
+	 * @param parallelism The number of power tasks outstanding at once.
+	 * @param timeout The time, in milliseconds, a single power task is given to finish.
+	 */
+	PowerBatch(int parallelism, long timeout)
+	{
+		this.parallelism = parallelism;
+		this.timeout = timeout;
+	}
+	
+	
+	/**
+	 * Power the passed in Servers on or off, waiting until every one has succeeded,
+	 * 	failed or timed out.
+	 * @param servers The Servers to power on or off. A Server listed more than once is powered once.
+	 * @param on True, to power on, false to power off.
+	 * @return The PowerResult of every Server.
+	 * @throws InterruptedException
+	 */
+	PowerResult Run(Collection<Server> servers, final boolean on) throws InterruptedException
+	{
+		//A Server passed in twice gets one power task and one outcome, so it must count once
+		LinkedHashSet<Server> unique = new LinkedHashSet<Server>(servers);
+		
+		final PowerResult result = new PowerResult();
+		final CountDownLatch remaining = new CountDownLatch(unique.size());
+		final Semaphore outstanding = new Semaphore(parallelism);
+		
+		int threads = Math.max(1, Math.min(START_THREADS, parallelism));
+		ThreadPoolExecutor starter = ServerCrawler.NewExecutor(threads);
+		final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("vcloud-power"));
+		
+		for (Server server : unique)
+		{
+			result.Add(server);
+		}
+		
+		
+		try
+		{
+			for (final Server server : unique)
+			{
+				outstanding.acquire();
+				
+				starter.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Start(server, on, result, timer, new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								outstanding.release();
+								remaining.countDown();
+							}
+						});
+					}
+				});
+			}
+			
+			remaining.await();
+		}
+		
+		finally
+		{
+			starter.shutdownNow();
+			timer.shutdownNow();
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Start the power task of a single Server, recording its outcome once it finishes or times out.
+	 * @param finished Run once, when the Server has an outcome.
+	 */
+	private void Start(final Server server, boolean on, final PowerResult result, ScheduledExecutorService timer, 
+			final Runnable finished)
+	{
+		final TaskFuture future;
+		
+		try
+		{
+			if (!server.hasTaskTracker())
+				throw new VCloudException("No TaskTracker to wait on the power task of " + server.getServerName());
+			
+			future = server.StartPower(on);
+		}
+		
+		catch (VCloudException | RuntimeException e)
+		{
+			result.Record(server, PowerResult.Outcome.FAILED, e);
+			finished.run();
+			return;
+		}
+		
+		
+		final ScheduledFuture<?> timeoutCheck = timer.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (result.Record(server, PowerResult.Outcome.TIMED_OUT, null))
+				{
+					future.cancel(false);
+					finished.run();
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		
+		future.AddListener(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (future.isCancelled())
+					return;
+				
+				timeoutCheck.cancel(false);
+				
+				boolean recorded;
+				
+				try
+				{
+					future.get();
+					recorded = result.Record(server, PowerResult.Outcome.SUCCEEDED, null);
+				}
+				
+				catch (ExecutionException e)
+				{
+					recorded = result.Record(server, PowerResult.Outcome.FAILED, (Exception) e.getCause());
+				}
+				
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					recorded = result.Record(server, PowerResult.Outcome.FAILED, e);
+				}
+				
+				if (recorded)
+					finished.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk <code>Backup.PowerOff</code> or <code>Backup.PowerOn</code>, per Server.
+ */
+public class PowerResult
+{
+	/**
+	 * How the power operation on a single Server ended.
+	 */
+	public static enum Outcome
+	{
+		/**
+		 * The power task finished successfully.
+		 */
+		SUCCEEDED, 
+		/**
+		 * The request could not be made, or the power task failed.
+		 */
+		FAILED, 
+		/**
+		 * The power task did not finish within the timeout. It may still finish in vCloud.
+		 */
+		TIMED_OUT
+	}
+	
+	/**
+	 * The outcome of each Server, in the order the Servers were passed in.
+	 */
+	private final LinkedHashMap<Server, Outcome> outcomes = new LinkedHashMap<Server, Outcome>();
+	/**
+	 * The error of each Server that failed.
+	 */
+	private final LinkedHashMap<Server, Exception> errors = new LinkedHashMap<Server, Exception>();
+	
+	
+	/**
+	 * Get the outcome of each Server.
+	 * @return The outcomes keyed by Server, in the order the Servers were passed in.
+	 */
+	public synchronized Map<Server, Outcome> getOutcomes()
+	{
+		return Collections.unmodifiableMap(new LinkedHashMap<Server, Outcome>(outcomes));
+	}
+	
+	/**
+	 * Get the outcome of the passed in Server.
+	 * @param server The Server.
+	 * @return The Outcome, or null if the Server was not part of the operation.
+	 */
+	public synchronized Outcome getOutcome(Server server)
+	{
+		return outcomes.get(server);
+	}
+	
+	/**
+	 * Get the error the passed in Server failed with.
+	 * @param server The Server.
+	 * @return The error, or null if the Server did not fail.
+	 */
+	public synchronized Exception getError(Server server)
+	{
+		return errors.get(server);
+	}
+	
+	/**
+	 * Get the Servers whose power task finished successfully.
+	 * @return An ArrayList of the Servers.
+	 */
+	public ArrayList<Server> getSucceeded()
+	{
+		return getServers(Outcome.SUCCEEDED);
+	}
+	
+	/**
+	 * Get the Servers whose request could not be made, or whose power task failed.
+	 * @return An ArrayList of the Servers.
+	 */
+	public ArrayList<Server> getFailed()
+	{
+		return getServers(Outcome.FAILED);
+	}
+	
+	/**
+	 * Get the Servers whose power task did not finish within the timeout.
+	 * @return An ArrayList of the Servers.
+	 */
+	public ArrayList<Server> getTimedOut()
+	{
+		return getServers(Outcome.TIMED_OUT);
+	}
+	
+	/**
+	 * Get whether every Server's power task finished successfully.
+	 * @return True, if every Server succeeded, false otherwise.
+	 */
+	public boolean isSuccessful()
+	{
+		return getSucceeded().size() == getOutcomes().size();
+	}
+	
+	
+	private synchronized ArrayList<Server> getServers(Outcome outcome)
+	{
+		ArrayList<Server> servers = new ArrayList<Server>();
+		
+		for (Map.Entry<Server, Outcome> entry : outcomes.entrySet())
+		{
+			if (entry.getValue() == outcome)
+				servers.add(entry.getKey());
+		}
+		
+		return servers;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Record the outcome of the passed in Server. Only the first outcome recorded counts.
+	 * @return True, if this outcome was recorded, false if the Server already had one.
+	 */
+	synchronized boolean Record(Server server, Outcome outcome, Exception error)
+	{
+		if (outcomes.get(server) != null)
+			return false;
+		
+		outcomes.put(server, outcome);
+		
+		if (error != null)
+			errors.put(server, error);
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Reserve the passed in Server's place, so outcomes are kept in the order the Servers were passed in.
+	 */
+	synchronized void Add(Server server)
+	{
+		outcomes.put(server, null);
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of <code>Backup.PruneBackups</code>.
+ */
+public class PruneResult
+{
+	/**
+	 * The names of the catalog items whose vApp templates were deleted.
+	 */
+	private final List<String> deleted = Collections.synchronizedList(new ArrayList<String>());
+	/**
+	 * The names of the catalog items whose vApp templates could not be deleted.
+	 */
+	private final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+	/**
+	 * The number of backups that have not expired.
+	 */
+	private int kept;
+	
+	
+	/**
+	 * Get the names of the catalog items whose vApp templates were deleted. A Server
+	 * with several expired backups is listed once for each.
+	 * @return An ArrayList of the names.
+	 */
+	public ArrayList<String> getDeleted()
+	{
+		synchronized (deleted)
+		{
+			return new ArrayList<String>(deleted);
+		}
+	}
+	
+	/**
+	 * Get the names of the catalog items whose vApp templates could not be deleted.
+	 * @return An ArrayList of the names.
+	 */
+	public ArrayList<String> getFailed()
+	{
+		synchronized (failed)
+		{
+			return new ArrayList<String>(failed);
+		}
+	}
+	
+	/**
+	 * Get the number of backups that have not expired.
+	 * @return The number of backups kept.
+	 */
+	public int getKept()
+	{
+		return kept;
+	}
+	
+	
+	
+	
+	
+	
+	void Deleted(String name)
+	{
+		deleted.add(name);
+	}
+	
+	
+	void Failed(String name)
+	{
+		failed.add(name);
+	}
+	
+	
+	void Kept()
+	{
+		kept++;
+	}
+}
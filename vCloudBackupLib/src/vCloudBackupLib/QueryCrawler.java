@@ -0,0 +1,551 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.vmware.vcloud.api.rest.schema.QueryResultAdminCatalogItemRecordType;
+import com.vmware.vcloud.api.rest.schema.QueryResultAdminVAppRecordType;
+import com.vmware.vcloud.api.rest.schema.QueryResultAdminVMRecordType;
+import com.vmware.vcloud.api.rest.schema.QueryResultRecordType;
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.QueryParams;
+import com.vmware.vcloud.sdk.QueryService;
+import com.vmware.vcloud.sdk.RecordResult;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.constants.query.AndExpression;
+import com.vmware.vcloud.sdk.constants.query.Expression;
+import com.vmware.vcloud.sdk.constants.query.ExpressionType;
+import com.vmware.vcloud.sdk.constants.query.Filter;
+import com.vmware.vcloud.sdk.constants.query.QueryAdminCatalogItemField;
+import com.vmware.vcloud.sdk.constants.query.QueryAdminVAppField;
+import com.vmware.vcloud.sdk.constants.query.QueryAdminVMField;
+import com.vmware.vcloud.sdk.constants.query.QueryField;
+import com.vmware.vcloud.sdk.constants.query.QueryRecordType;
+
+/**
+ * Builds the <code>Server</code> list from the typed query service instead of
+ * walking every Organization, Vdc and vApp. The adminVApp and adminVM records
+ * are read a page at a time, with every page after the first fetched
+ * concurrently, so the number of requests grows with the number of pages rather
+ * than the number of vApps. The Servers it builds hold references only, and
+ * resolve their vApp through the <code>EntityCache</code> when it is first asked for.
+ * <p>
+ * vCloud Director may serve smaller pages than were asked for, so the page
+ * count is taken from the page size of the first result. Every page is read
+ * sorted by name, but names are not unique, so pages read at once may order a
+ * run of equal names differently and, where the run crosses a page boundary,
+ * see one record twice and miss another. The records of every name that runs
+ * across a boundary are read again on their own, and a record seen twice is
+ * kept once.
+ */
+class QueryCrawler
+{
+	/**
+	 * The default number of records fetched per page, the largest page vCloud Director serves by default.
+	 */
+	static final int DEFAULT_PAGE_SIZE = 128;
+	/**
+	 * The largest page vCloud Director serves unless its restapi.queryservice.maxPageSize is raised.
+	 */
+	static final int MAX_PAGE_SIZE = 128;
+
+	static final String TYPE_VDC = "application/vnd.vmware.vcloud.vdc+xml";
+	static final String TYPE_VAPP = "application/vnd.vmware.vcloud.vApp+xml";
+
+	/**
+	 * The query service used to read the records.
+	 */
+	private final QueryService queryService;
+	/**
+	 * The limiter every API request is run through.
+	 */
+	private final RequestLimiter limiter;
+	/**
+	 * The cache the Servers resolve their entities through.
+	 */
+	private final EntityCache cache;
+	/**
+	 * The data center name given to each Server.
+	 */
+	private final String dataCenterName;
+	/**
+	 * Classifies each Server by Environment.
+	 */
+	private final EnvironmentClassifier classifier;
+	/**
+	 * The number of records fetched per page.
+	 */
+	private final int pageSize;
+
+
+	/**
+	 * Main constructor
+	 * @param queryService The query service used to read the records.
+	 * @param limiter The limiter every API request is run through.
+	 * @param cache The cache the Servers resolve their entities through.
+	 * @param dataCenterName The data center name given to each Server.
+	 * @param classifier Classifies each Server by Environment.
+	 * @param pageSize The number of records fetched per page.
+	 */
+	QueryCrawler(QueryService queryService, RequestLimiter limiter, EntityCache cache, String dataCenterName,
+			EnvironmentClassifier classifier, int pageSize)
+	{
+		this.queryService = queryService;
+		this.limiter = limiter;
+		this.cache = cache;
+		this.dataCenterName = dataCenterName;
+		this.classifier = classifier;
+		this.pageSize = pageSize;
+	}
+
+
+	/**
+	 * Build a Server for every vApp in the passed in Organizations.
+	 * @param organizations The Organizations to include, keyed by name.
+	 * @param threads The number of threads used to fetch pages.
+	 * @return An ArrayList of the Servers found.
+	 * @throws VCloudException
+	 */
+	ArrayList<Server> Crawl(Map<String, ReferenceType> organizations, int threads) throws VCloudException
+	{
+		HashMap<String, ReferenceType> orgsByHref = new HashMap<String, ReferenceType>();
+
+		for (ReferenceType orgRef : organizations.values())
+		{
+			orgsByHref.put(orgRef.getHref(), orgRef);
+		}
+
+
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(threads);
+		List<QueryResultAdminVAppRecordType> vappRecords;
+		List<QueryResultAdminVMRecordType> vmRecords;
+
+		try
+		{
+			vappRecords = FetchAll(QueryRecordType.ADMINVAPP, null, executor);
+			vmRecords = FetchAll(QueryRecordType.ADMINVM,
+					new Expression(QueryAdminVMField.ISVAPPTEMPLATE, "false", ExpressionType.EQUALS), executor);
+		}
+
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+
+		final ArrayList<Server> servers = new ArrayList<Server>(vappRecords.size());
+
+		Emit(vappRecords, orgsByHref, SumSizing(vmRecords), new ServerListener()
+		{
+			@Override
+			public void ServerFound(Server server)
+			{
+				servers.add(server);
+			}
+		});
+
+		return servers;
+	}
+
+
+	/**
+	 * Build a Server for every vApp in the passed in Organizations, passing each
+	 * Server to the listener as soon as the page holding its record is read. The
+	 * adminVM records are read first, since every Server needs its sizing.
+	 * @param organizations The Organizations to include, keyed by name.
+	 * @param threads The number of threads used to fetch pages.
+	 * @param listener The listener each Server is passed to.
+	 * @throws VCloudException
+	 */
+	void Crawl(Map<String, ReferenceType> organizations, int threads, final ServerListener listener) throws VCloudException
+	{
+		final HashMap<String, ReferenceType> orgsByHref = new HashMap<String, ReferenceType>();
+
+		for (ReferenceType orgRef : organizations.values())
+		{
+			orgsByHref.put(orgRef.getHref(), orgRef);
+		}
+
+
+		ThreadPoolExecutor executor = ServerCrawler.NewExecutor(threads);
+
+		try
+		{
+			List<QueryResultAdminVMRecordType> vmRecords = FetchAll(QueryRecordType.ADMINVM,
+					new Expression(QueryAdminVMField.ISVAPPTEMPLATE, "false", ExpressionType.EQUALS), executor);
+			final HashMap<String, int[]> sizing = SumSizing(vmRecords);
+
+			final Set<String> emitted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			RecordResult<QueryResultAdminVAppRecordType> first = FetchPage(QueryRecordType.ADMINVAPP, null, 1, pageSize);
+			final int servedPageSize = ServedPageSize(first);
+			Emit(Distinct(first.getRecords(), emitted), orgsByHref, sizing, listener);
+
+			int pages = PageCount(first, servedPageSize);
+			final String[] firstNames = new String[Math.max(pages, 1)];
+			final String[] lastNames = new String[Math.max(pages, 1)];
+			Ends(first.getRecords(), 0, firstNames, lastNames);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+			for (int page = 2; page <= pages; page++)
+			{
+				final int pageNumber = page;
+
+				futures.add(executor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws VCloudException
+					{
+						RecordResult<QueryResultAdminVAppRecordType> result = FetchPage(QueryRecordType.ADMINVAPP, null, pageNumber, 
+								servedPageSize);
+						Ends(result.getRecords(), pageNumber - 1, firstNames, lastNames);
+						Emit(Distinct(result.getRecords(), emitted), orgsByHref, sizing, listener);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> future : futures)
+			{
+				ServerCrawler.Await(future);
+			}
+
+			for (String name : TiedNames(firstNames, lastNames))
+			{
+				List<QueryResultAdminVAppRecordType> named = FetchNamed(QueryRecordType.ADMINVAPP, null, name);
+				Emit(Distinct(named, emitted), orgsByHref, sizing, listener);
+			}
+		}
+
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+
+	private void Emit(List<QueryResultAdminVAppRecordType> records, Map<String, ReferenceType> orgsByHref, Map<String, int[]> sizing, 
+			ServerListener listener)
+	{
+		for (QueryResultAdminVAppRecordType record : records)
+		{
+			ReferenceType orgRef = orgsByHref.get(record.getOrg());
+
+			if (orgRef != null)
+				listener.ServerFound(NewServer(orgRef, record, sizing.get(record.getHref())));
+		}
+	}
+
+
+	/**
+	 * Build a Server from the passed in adminVApp record.
+	 * @param orgRef The Organization the vApp belongs to.
+	 * @param record The adminVApp record.
+	 * @param sizing The VM count, CPU count and memory of the vApp, or null if it has no VMs.
+	 * @return The new Server.
+	 */
+	Server NewServer(ReferenceType orgRef, QueryResultAdminVAppRecordType record, int[] sizing)
+	{
+		Server server = new Server(orgRef, NewReference(record.getVdc(), record.getVdcName(), TYPE_VDC),
+				NewReference(record.getHref(), record.getName(), TYPE_VAPP), dataCenterName, classifier, cache);
+
+		if (sizing != null)
+			server.setSizing(sizing[0], sizing[1], sizing[2]);
+
+		server.setChangeMarker(record.getStatus() + "|" + server.getVmCount() + "|" + server.getCpuCount() + "|" + server.getMemorySize());
+
+		return server;
+	}
+
+
+	/**
+	 * Total the VM count, CPU count and memory of each vApp.
+	 * @param vmRecords The adminVM records.
+	 * @return The VM count, CPU count and memory, keyed by vApp href.
+	 */
+	static HashMap<String, int[]> SumSizing(List<QueryResultAdminVMRecordType> vmRecords)
+	{
+		HashMap<String, int[]> sizing = new HashMap<String, int[]>();
+
+		for (QueryResultAdminVMRecordType vm : vmRecords)
+		{
+			int[] totals = sizing.get(vm.getContainer());
+
+			if (totals == null)
+			{
+				totals = new int[3];
+				sizing.put(vm.getContainer(), totals);
+			}
+
+			totals[0]++;
+			totals[1] += vm.getNumberOfCpus() != null ? vm.getNumberOfCpus() : 0;
+			totals[2] += vm.getMemoryMB() != null ? vm.getMemoryMB() : 0;
+		}
+
+		return sizing;
+	}
+
+
+	/**
+	 * Read every record of the passed in type. The first page is read to learn
+	 * the total and the page size actually served, then the remaining pages are
+	 * read concurrently, and last the records of any name that runs across a
+	 * page boundary.
+	 * @param type The type of record to read.
+	 * @param condition The condition the records must meet, or null for every record.
+	 * @param executor The executor the remaining pages are read on.
+	 * @return Every record, in page order, each once.
+	 * @throws VCloudException
+	 */
+	<T extends QueryResultRecordType> List<T> FetchAll(final QueryRecordType type, final Expression condition, ThreadPoolExecutor executor) 
+			throws VCloudException
+	{
+		RecordResult<T> first = FetchPage(type, condition, 1, pageSize);
+		final int servedPageSize = ServedPageSize(first);
+		LinkedHashMap<String, T> records = new LinkedHashMap<String, T>(Math.max(first.getTotal(), first.getRecords().size()) * 4 / 3 + 1);
+		AddAll(records, first.getRecords());
+
+		int pages = PageCount(first, servedPageSize);
+		String[] firstNames = new String[Math.max(pages, 1)];
+		String[] lastNames = new String[Math.max(pages, 1)];
+		Ends(first.getRecords(), 0, firstNames, lastNames);
+		List<Future<RecordResult<T>>> futures = new ArrayList<Future<RecordResult<T>>>();
+
+		for (int page = 2; page <= pages; page++)
+		{
+			final int pageNumber = page;
+
+			futures.add(executor.submit(new Callable<RecordResult<T>>()
+			{
+				@Override
+				public RecordResult<T> call() throws VCloudException
+				{
+					return QueryCrawler.this.<T>FetchPage(type, condition, pageNumber, servedPageSize);
+				}
+			}));
+		}
+
+		for (int i = 0; i < futures.size(); i++)
+		{
+			List<T> page = ServerCrawler.Await(futures.get(i)).getRecords();
+			Ends(page, i + 1, firstNames, lastNames);
+			AddAll(records, page);
+		}
+
+		for (String name : TiedNames(firstNames, lastNames))
+		{
+			AddAll(records, this.<T>FetchNamed(type, condition, name));
+		}
+
+		return new ArrayList<T>(records.values());
+	}
+
+
+	/**
+	 * Read every record meeting the passed in condition that has the passed in name, 
+	 * one page after another.
+	 */
+	private <T extends QueryResultRecordType> List<T> FetchNamed(QueryRecordType type, Expression condition, String name) 
+			throws VCloudException
+	{
+		Expression named = new Expression(SortField(type), Pattern(name), ExpressionType.EQUALS);
+		Expression where = condition != null ? new AndExpression(Arrays.asList(named, condition)) : named;
+
+		RecordResult<T> first = FetchPage(type, where, 1, pageSize);
+		int servedPageSize = ServedPageSize(first);
+		int pages = PageCount(first, servedPageSize);
+		List<T> records = new ArrayList<T>(first.getRecords());
+
+		for (int page = 2; page <= pages; page++)
+		{
+			records.addAll(this.<T>FetchPage(type, where, page, servedPageSize).getRecords());
+		}
+
+		return records;
+	}
+
+
+	/**
+	 * Note the names of the first and last records of the passed in page.
+	 */
+	private static void Ends(List<? extends QueryResultRecordType> page, int index, String[] firstNames, String[] lastNames)
+	{
+		if (page.isEmpty())
+			return;
+
+		firstNames[index] = Name(page.get(0));
+		lastNames[index] = Name(page.get(page.size() - 1));
+	}
+
+
+	/**
+	 * Get each name that ends one page and starts the next, and so may have had
+	 * a record fall between the pages.
+	 */
+	private static Set<String> TiedNames(String[] firstNames, String[] lastNames)
+	{
+		Set<String> names = new LinkedHashSet<String>();
+
+		for (int i = 0; i + 1 < lastNames.length; i++)
+		{
+			if (lastNames[i] != null && lastNames[i].equals(firstNames[i + 1]))
+				names.add(lastNames[i]);
+		}
+
+		return names;
+	}
+
+
+	/**
+	 * Get the name the passed in record is sorted by.
+	 */
+	private static String Name(QueryResultRecordType record)
+	{
+		if (record instanceof QueryResultAdminVAppRecordType)
+			return ((QueryResultAdminVAppRecordType) record).getName();
+
+		if (record instanceof QueryResultAdminVMRecordType)
+			return ((QueryResultAdminVMRecordType) record).getName();
+
+		if (record instanceof QueryResultAdminCatalogItemRecordType)
+			return ((QueryResultAdminCatalogItemRecordType) record).getName();
+
+		return null;
+	}
+
+
+	/**
+	 * Make the passed in name safe to filter on. The characters a filter reserves
+	 * are matched by a wildcard instead, which can only add records that meet the
+	 * rest of the condition, and so belong in the result anyway.
+	 */
+	private static String Pattern(String name)
+	{
+		return name.replaceAll("[,;()]", "*");
+	}
+
+
+	/**
+	 * Add each of the passed in records not already held, keyed by href.
+	 */
+	private static <T extends QueryResultRecordType> void AddAll(Map<String, T> records, List<T> page)
+	{
+		for (T record : page)
+		{
+			if (!records.containsKey(record.getHref()))
+				records.put(record.getHref(), record);
+		}
+	}
+
+
+	/**
+	 * Get the records of the passed in page not already in the passed in set of hrefs, adding them to it.
+	 */
+	private static <T extends QueryResultRecordType> List<T> Distinct(List<T> page, Set<String> seen)
+	{
+		List<T> records = new ArrayList<T>(page.size());
+
+		for (T record : page)
+		{
+			if (seen.add(record.getHref()))
+				records.add(record);
+		}
+
+		return records;
+	}
+
+
+	/**
+	 * Get the page size the server actually used for the passed in page, which may be below the one asked for.
+	 */
+	private int ServedPageSize(RecordResult<?> result)
+	{
+		if (result.getPageSize() > 0)
+			return Math.min(result.getPageSize(), pageSize);
+
+		return Math.max(1, Math.min(pageSize, result.getRecords().size()));
+	}
+
+
+	/**
+	 * Get the number of pages of the passed in size it takes to hold the total of the passed in first page.
+	 */
+	private static int PageCount(RecordResult<?> first, int servedPageSize)
+	{
+		return (first.getTotal() + servedPageSize - 1) / servedPageSize;
+	}
+
+
+	/**
+	 * Read a single page of records, sorted by name, so only a run of equal names
+	 * can fall differently across pages read at once.
+	 */
+	private <T> RecordResult<T> FetchPage(final QueryRecordType type, Expression condition, int page, int size) throws VCloudException
+	{
+		final QueryParams<QueryField> params = new QueryParams<QueryField>();
+		params.setPageSize(size);
+		params.setPage(page);
+		params.setSortAsc(SortField(type));
+
+		if (condition != null)
+			params.setFilter(new Filter(condition));
+
+		return limiter.Execute(new ApiCall<RecordResult<T>>()
+		{
+			@Override
+			public RecordResult<T> call() throws VCloudException
+			{
+				return queryService.<T>queryRecords(type, params);
+			}
+		});
+	}
+
+
+	/**
+	 * Get the field the records of the passed in type are sorted by.
+	 */
+	private static QueryField SortField(QueryRecordType type)
+	{
+		switch (type)
+		{
+			case ADMINVAPP:
+				return QueryAdminVAppField.NAME;
+
+			case ADMINVM:
+				return QueryAdminVMField.NAME;
+
+			case ADMINCATALOGITEM:
+				return QueryAdminCatalogItemField.NAME;
+
+			default:
+				throw new IllegalArgumentException("No sort field for " + type);
+		}
+	}
+
+
+	/**
+	 * Build a reference from the passed in href, name and type.
+	 */
+	static ReferenceType NewReference(String href, String name, String type)
+	{
+		ReferenceType ref = new ReferenceType();
+		ref.setHref(href);
+		ref.setName(name);
+		ref.setType(type);
+
+		return ref;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+
+/**
+ * The changes found by <code>Backup.Refresh</code>.
+ */
+public class RefreshResult
+{
+	/**
+	 * The Servers whose vApps are new since the last crawl.
+	 */
+	private final ArrayList<Server> added = new ArrayList<Server>();
+	/**
+	 * The Servers whose vApps changed since the last crawl.
+	 */
+	private final ArrayList<Server> updated = new ArrayList<Server>();
+	/**
+	 * The Servers whose vApps are gone since the last crawl.
+	 */
+	private final ArrayList<Server> removed = new ArrayList<Server>();
+	/**
+	 * The number of Vdcs whose vApps were skipped because the Vdc had not changed.
+	 */
+	private int skippedVdcs;
+	
+	
+	/**
+	 * Get the Servers whose vApps are new since the last crawl.
+	 * @return An ArrayList of the added Servers.
+	 */
+	public ArrayList<Server> getAdded()
+	{
+		return added;
+	}
+	
+	/**
+	 * Get the Servers whose vApps changed since the last crawl. These replace
+	 * 	the Servers with the same vApp in <code>Backup.getServers</code>. In 
+	 * 	<code>WALK</code> mode these are the renamed vApps only.
+	 * @return An ArrayList of the updated Servers.
+	 */
+	public ArrayList<Server> getUpdated()
+	{
+		return updated;
+	}
+	
+	/**
+	 * Get the Servers whose vApps are gone since the last crawl.
+	 * @return An ArrayList of the removed Servers.
+	 */
+	public ArrayList<Server> getRemoved()
+	{
+		return removed;
+	}
+	
+	/**
+	 * Get the number of Vdcs whose vApps were skipped because the Vdc had not changed.
+	 * @return The number of skipped Vdcs.
+	 */
+	public int getSkippedVdcs()
+	{
+		return skippedVdcs;
+	}
+	
+	/**
+	 * Get whether anything changed since the last crawl.
+	 * @return True, if any Server was added, updated or removed, false otherwise.
+	 */
+	public boolean hasChanges()
+	{
+		return !added.isEmpty() || !updated.isEmpty() || !removed.isEmpty();
+	}
+	
+	void SkippedVdc()
+	{
+		skippedVdcs++;
+	}
+}
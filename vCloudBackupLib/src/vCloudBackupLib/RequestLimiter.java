@@ -0,0 +1,306 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Caps the number of vCloud API requests that are in flight at the same time,
+ * across every thread that shares this limiter. The cap adapts to how vCloud
+ * Director is coping: it grows by one for each full window of healthy requests,
+ * and is halved when requests start failing or their latency climbs well above
+ * its longer term level (additive increase, multiplicative decrease). It never
+ * leaves the range between the minimum and maximum it was created with.
+ */
+public class RequestLimiter
+{
+	/**
+	 * The default maximum number of requests that may be in flight at once.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+	/**
+	 * The default minimum the cap is ever cut to.
+	 */
+	public static final int DEFAULT_MIN_IN_FLIGHT = 1;
+	
+	/**
+	 * The fraction of failed requests, smoothed, above which the cap is cut.
+	 */
+	private static final double ERROR_RATE_THRESHOLD = 0.1;
+	/**
+	 * How far recent latency may rise over its longer term level before the cap is cut.
+	 */
+	private static final double LATENCY_TOLERANCE = 2.0;
+	/**
+	 * The factor the cap is cut by.
+	 */
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double ERROR_SMOOTHING = 0.05;
+	private static final double SHORT_LATENCY_SMOOTHING = 0.2;
+	private static final double LONG_LATENCY_SMOOTHING = 0.02;
+	
+	/**
+	 * The most requests that may ever be in flight at once.
+	 */
+	private final int maxInFlight;
+	/**
+	 * The least the cap is ever cut to.
+	 */
+	private final int minInFlight;
+	
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final Condition slotFreed = lock.newCondition();
+	/**
+	 * The current cap on requests in flight.
+	 */
+	private int limit;
+	private int inFlight;
+	/**
+	 * The fraction of a step the cap has grown by since it last grew.
+	 */
+	private double increaseCredit;
+	/**
+	 * The number of requests finished since the cap was last cut.
+	 */
+	private int sinceDecrease;
+	private double errorRate;
+	private double shortLatency;
+	private double longLatency;
+	private long decreases;
+	
+	
+	/**
+	 * Get the most requests that may ever be in flight at once.
+	 * @return The maximum number of requests in flight.
+	 */
+	public int getMaxInFlight()
+	{
+		return maxInFlight;
+	}
+	
+	/**
+	 * Get the least the cap on requests in flight is ever cut to.
+	 * @return The minimum number of requests in flight.
+	 */
+	public int getMinInFlight()
+	{
+		return minInFlight;
+	}
+	
+	/**
+	 * Get the current cap on requests in flight.
+	 * @return The number of requests that may be in flight at once right now.
+	 */
+	public int getLimit()
+	{
+		lock.lock();
+		
+		try
+		{
+			return limit;
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of requests that are currently in flight.
+	 * @return The number of requests that are currently in flight.
+	 */
+	public int getInFlight()
+	{
+		lock.lock();
+		
+		try
+		{
+			return inFlight;
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of times the cap has been cut.
+	 * @return The number of times the cap has been cut.
+	 */
+	public long getDecreaseCount()
+	{
+		lock.lock();
+		
+		try
+		{
+			return decreases;
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Default constructor
+	 */
+	public RequestLimiter()
+	{
+		this(DEFAULT_MAX_IN_FLIGHT);
+	}
+	
+	
+	/**
+	 * Create a limiter whose cap adapts between <code>DEFAULT_MIN_IN_FLIGHT</code> and the passed in maximum.
+	 * @param maxInFlight The most requests that may ever be in flight at once.
+	 */
+	public RequestLimiter(int maxInFlight)
+	{
+		this(Math.min(DEFAULT_MIN_IN_FLIGHT, maxInFlight), maxInFlight);
+	}
+	
+	
+	/**
+	 * Main constructor. The cap starts at the maximum. Pass the same value twice for a fixed cap.
+	 * @param minInFlight The least the cap is ever cut to.
+	 * @param maxInFlight The most requests that may ever be in flight at once.
+	 */
+	public RequestLimiter(int minInFlight, int maxInFlight)
+	{
+		if (minInFlight < 1)
+			throw new IllegalArgumentException("minInFlight must be at least 1");
+		
+		if (maxInFlight < minInFlight)
+			throw new IllegalArgumentException("maxInFlight must be at least minInFlight");
+		
+		this.minInFlight = minInFlight;
+		this.maxInFlight = maxInFlight;
+		this.limit = maxInFlight;
+	}
+	
+	
+	/**
+	 * Run the passed in <code>ApiCall</code>, waiting for a free slot first. How long
+	 * 	it takes, and whether it fails, feed back into the cap.
+	 * @param call The request to run.
+	 * @return The result of the request.
+	 * @throws VCloudException
+	 */
+	public <T> T Execute(ApiCall<T> call) throws VCloudException
+	{
+		Acquire();
+		
+		long start = System.nanoTime();
+		boolean failed = true;
+		
+		try
+		{
+			T result = call.call();
+			failed = false;
+			
+			return result;
+		}
+		
+		finally
+		{
+			Release(System.nanoTime() - start, failed);
+		}
+	}
+	
+	
+	private void Acquire()
+	{
+		lock.lock();
+		
+		try
+		{
+			while (inFlight >= limit)
+			{
+				slotFreed.awaitUninterruptibly();
+			}
+			
+			inFlight++;
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	
+	/**
+	 * Free the slot of a finished request, and adjust the cap from how it went.
+	 * @param latency The time, in nanoseconds, the request took.
+	 * @param failed Whether the request failed.
+	 */
+	private void Release(long latency, boolean failed)
+	{
+		lock.lock();
+		
+		try
+		{
+			inFlight--;
+			sinceDecrease++;
+			
+			errorRate += ERROR_SMOOTHING * ((failed ? 1 : 0) - errorRate);
+			
+			if (longLatency == 0)
+			{
+				shortLatency = latency;
+				longLatency = latency;
+			}
+			
+			else
+			{
+				shortLatency += SHORT_LATENCY_SMOOTHING * (latency - shortLatency);
+				longLatency += LONG_LATENCY_SMOOTHING * (latency - longLatency);
+			}
+			
+			
+			boolean congested = errorRate > ERROR_RATE_THRESHOLD || shortLatency > longLatency * LATENCY_TOLERANCE;
+			
+			if (congested)
+			{
+				//Cut at most once per window, so one burst of slow requests only counts once
+				if (sinceDecrease >= limit && limit > minInFlight)
+				{
+					limit = Math.max(minInFlight, (int) (limit * DECREASE_FACTOR));
+					sinceDecrease = 0;
+					increaseCredit = 0;
+					decreases++;
+				}
+			}
+			
+			else if (limit < maxInFlight)
+			{
+				increaseCredit += 1.0 / limit;
+				
+				if (increaseCredit >= 1)
+				{
+					limit++;
+					increaseCredit = 0;
+				}
+			}
+			
+			slotFreed.signalAll();
+		}
+		
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
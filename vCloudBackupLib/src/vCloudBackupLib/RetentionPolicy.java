@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+/**
+ * How long the backups of a Server are kept in the private catalog. A backup
+ * expires once there are more than <code>keepLast</code> newer backups of the
+ * same Server, or once it is older than <code>maxAge</code>, whichever comes first.
+ * The newest backup of a Server never expires, however old it is.
+ */
+public class RetentionPolicy
+{
+	/**
+	 * The value that leaves a limit off.
+	 */
+	public static final int UNLIMITED = 0;
+	
+	/**
+	 * The number of most recent backups kept, or UNLIMITED.
+	 */
+	private final int keepLast;
+	/**
+	 * The age, in milliseconds, past which a backup expires, or UNLIMITED.
+	 */
+	private final long maxAge;
+	
+	
+	/**
+	 * Get the number of most recent backups kept.
+	 * @return The number of backups kept, or UNLIMITED.
+	 */
+	public int getKeepLast()
+	{
+		return keepLast;
+	}
+	
+	/**
+	 * Get the age past which a backup expires.
+	 * @return The age in milliseconds, or UNLIMITED.
+	 */
+	public long getMaxAge()
+	{
+		return maxAge;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param keepLast The number of most recent backups kept, or UNLIMITED.
+	 * @param maxAge The age, in milliseconds, past which a backup expires, or UNLIMITED.
+	 */
+	public RetentionPolicy(int keepLast, long maxAge)
+	{
+		if (keepLast < 0 || maxAge < 0)
+			throw new IllegalArgumentException("keepLast and maxAge must not be negative");
+		
+		this.keepLast = keepLast;
+		this.maxAge = maxAge;
+	}
+	
+	
+	/**
+	 * Get whether a backup has expired.
+	 * @param newer The number of newer backups of the same Server.
+	 * @param age The age of the backup, in milliseconds.
+	 * @return True, if the backup has expired, false otherwise.
+	 */
+	public boolean IsExpired(int newer, long age)
+	{
+		//Never leave a Server without a backup
+		if (newer == 0)
+			return false;
+		
+		return (keepLast != UNLIMITED && newer >= keepLast) || (maxAge != UNLIMITED && age > maxAge);
+	}
+}
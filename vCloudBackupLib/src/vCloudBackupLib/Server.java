@@ -6,15 +6,16 @@ package vCloudBackupLib;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.concurrent.TimeoutException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import vCloudBackupLib.Settings.Template;
 
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
 import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.Task;
 import com.vmware.vcloud.sdk.VCloudException;
 import com.vmware.vcloud.sdk.Vapp;
 import com.vmware.vcloud.sdk.Vdc;
+import com.vmware.vcloud.sdk.constants.VappStatus;
 
 /**
  * @author Brad Herring
@@ -22,17 +23,28 @@ import com.vmware.vcloud.sdk.Vdc;
  */
 public class Server 
 {	
-	private static final String PRODUCTION_STRING = "production";
-	private static final String STAGING_STRING = "staging";
-	private static final String DEVELOPMENT_STRING = "development";
+	static final String PRODUCTION_STRING = "production";
+	static final String STAGING_STRING = "staging";
+	static final String DEVELOPMENT_STRING = "development";
 	
-	private Organization organization;
-	private Vdc vdc;
+	private volatile Organization organization;
+	private volatile Vdc vdc;
 	private String serverName;
-	private Vapp vapp;
+	private volatile Vapp vapp;
 	private Environment environment;
 	private String dataCenter;
-	private ArrayList<Settings.Environment> environments;
+	private EnvironmentClassifier classifier;
+	private EntityCache entityCache;
+	private ReferenceType organizationReference;
+	private ReferenceType vdcReference;
+	private ReferenceType vappReference;
+	private int vmCount;
+	private int cpuCount;
+	private int memorySize;
+	private String changeMarker;
+	private volatile TaskTracker taskTracker;
+	private volatile RequestLimiter limiter;
+	private volatile ServerDetail detail;
 	
 	public static enum Environment 
 	{
@@ -43,13 +55,55 @@ public class Server
 	
 	public Organization getOrganization()
 	{
-		return organization;
+		Organization result = organization;
+		
+		if (result == null && organizationReference != null && entityCache != null)
+		{
+			synchronized (this)
+			{
+				try
+				{
+					if (organization == null)
+						organization = entityCache.getOrganization(organizationReference);
+				}
+				
+				catch (VCloudException e)
+				{
+					return null;
+				}
+				
+				result = organization;
+			}
+		}
+		
+		return result;
 	}
 	
 	
 	public Vdc getVdc()
 	{
-		return vdc;
+		Vdc result = vdc;
+		
+		if (result == null && vdcReference != null && entityCache != null)
+		{
+			synchronized (this)
+			{
+				try
+				{
+					if (vdc == null)
+						vdc = entityCache.getVdc(vdcReference);
+				}
+				
+				catch (VCloudException e)
+				{
+					return null;
+				}
+				
+				result = vdc;
+			}
+		}
+		
+		return result;
 	}
 	
 	
@@ -60,7 +114,75 @@ public class Server
 	
 	public Vapp getVapp() 
 	{
-		return vapp;
+		Vapp result = vapp;
+		
+		if (result == null && vappReference != null && entityCache != null)
+		{
+			synchronized (this)
+			{
+				try
+				{
+					if (vapp == null)
+						vapp = entityCache.getVapp(vappReference);
+				}
+				
+				catch (VCloudException e)
+				{
+					return null;
+				}
+				
+				result = vapp;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Whether this Server's vApp has been fetched. A lazy Server fetches it on the first <code>getVapp</code>.
+	 */
+	public boolean isVappLoaded()
+	{
+		return vapp != null;
+	}
+	
+	public ReferenceType getOrganizationReference()
+	{
+		return organizationReference != null ? organizationReference : organization.getReference();
+	}
+	
+	public ReferenceType getVdcReference()
+	{
+		return vdcReference != null ? vdcReference : vdc.getReference();
+	}
+	
+	public ReferenceType getVappReference()
+	{
+		return vappReference != null ? vappReference : vapp.getReference();
+	}
+	
+	/**
+	 * The number of VMs in this Server's vApp, or 0 if it was not read from a query record.
+	 */
+	public int getVmCount()
+	{
+		return vmCount;
+	}
+	
+	/**
+	 * The total number of CPUs of this Server's VMs, or 0 if it was not read from a query record.
+	 */
+	public int getCpuCount()
+	{
+		return cpuCount;
+	}
+	
+	/**
+	 * The total memory, in MB, of this Server's VMs, or 0 if it was not read from a query record.
+	 */
+	public int getMemorySize()
+	{
+		return memorySize;
 	}
 	
 	public Environment getEnvironment() 
@@ -73,6 +195,61 @@ public class Server
 		return dataCenter;
 	}
 	
+	void setEntityCache(EntityCache entityCache)
+	{
+		this.entityCache = entityCache;
+	}
+	
+	/**
+	 * A marker that changes whenever this Server's vApp changes, or null if only the name is tracked.
+	 */
+	String getChangeMarker()
+	{
+		return changeMarker;
+	}
+	
+	void setChangeMarker(String changeMarker)
+	{
+		this.changeMarker = changeMarker;
+	}
+	
+	/**
+	 * Set the TaskTracker power tasks are waited on through. Without one, each 
+	 * 	power task is waited on by the calling thread.
+	 */
+	void setTaskTracker(TaskTracker taskTracker)
+	{
+		this.taskTracker = taskTracker;
+	}
+	
+	/**
+	 * Set the limiter this Server's requests are run through. Without one, they are run directly.
+	 */
+	void setRequestLimiter(RequestLimiter limiter)
+	{
+		this.limiter = limiter;
+	}
+	
+	/**
+	 * The details last read for the reports, or null if none have been read.
+	 */
+	ServerDetail getDetail()
+	{
+		return detail;
+	}
+	
+	void setDetail(ServerDetail detail)
+	{
+		this.detail = detail;
+	}
+	
+	void setSizing(int vmCount, int cpuCount, int memorySize)
+	{
+		this.vmCount = vmCount;
+		this.cpuCount = cpuCount;
+		this.memorySize = memorySize;
+	}
+	
 	
 	
 	
@@ -93,51 +270,76 @@ public class Server
 	
 	
 	public Server(Organization organization, Vdc vdc, String serverName, Vapp vapp, String dataCenter, ArrayList<Settings.Environment> environments)
+	{
+		this(organization, vdc, serverName, vapp, dataCenter, EnvironmentClassifier.Shared(environments));
+	}
+	
+	
+	/**
+	 * Build a Server, classified by the passed in shared classifier.
+	 */
+	Server(Organization organization, Vdc vdc, String serverName, Vapp vapp, String dataCenter, EnvironmentClassifier classifier)
 	{
 		this.organization = organization;
 		this.vdc = vdc;
 		this.serverName = serverName;
 		this.vapp = vapp;
 		this.dataCenter = dataCenter;
-		this.environments = environments;
+		this.classifier = classifier;
 		
 		this.environment = GetEnvironmentType();
 	}
 	
 	
-	private Environment GetEnvironmentType()
+	/**
+	 * Build a lazy Server that holds only references. The Organization, Vdc and vApp
+	 * are each fetched through the passed in cache the first time they are asked for,
+	 * once, even when several threads ask at the same time.
+	 */
+	public Server(ReferenceType organizationReference, ReferenceType vdcReference, ReferenceType vappReference, String dataCenter, 
+			ArrayList<Settings.Environment> environments, EntityCache entityCache)
 	{
-		Pattern r;
-		Matcher m;
-		
-		
-		
-		for (Settings.Environment env : environments)
-		{
-			r = Pattern.compile(env.getTag());
-			m = r.matcher(serverName);
-			
-			if (m.find( )) 
-			{				
-				switch (env.getName())
-				{
-					case Server.PRODUCTION_STRING:
-						return Environment.PRODUCTION;
-						
-					case Server.STAGING_STRING:
-						return Environment.STAGING;
-						
-					case Server.DEVELOPMENT_STRING:
-						return Environment.DEVELOPMENT;
-						
-					default:
-						return Environment.UNKNOWN;
-				}
-			}
-		}
-		
+		this(organizationReference, vdcReference, vappReference, dataCenter, EnvironmentClassifier.Shared(environments), entityCache);
+	}
+	
+	
+	/**
+	 * Build a lazy Server, classified by the passed in shared classifier.
+	 */
+	Server(ReferenceType organizationReference, ReferenceType vdcReference, ReferenceType vappReference, String dataCenter, 
+			EnvironmentClassifier classifier, EntityCache entityCache)
+	{
+		this.organizationReference = organizationReference;
+		this.vdcReference = vdcReference;
+		this.vappReference = vappReference;
+		this.serverName = vappReference.getName();
+		this.dataCenter = dataCenter;
+		this.classifier = classifier;
+		this.entityCache = entityCache;
 		
-		return Environment.UNKNOWN;
+		this.environment = GetEnvironmentType();
+	}
+	
+	
+	/**
+	 * Build a lazy Server whose Environment is already known, such as one read back from a snapshot.
+	 */
+	Server(ReferenceType organizationReference, ReferenceType vdcReference, ReferenceType vappReference, String dataCenter, 
+			Environment environment, EntityCache entityCache)
+	{
+		this.organizationReference = organizationReference;
+		this.vdcReference = vdcReference;
+		this.vappReference = vappReference;
+		this.serverName = vappReference.getName();
+		this.dataCenter = dataCenter;
+		this.environment = environment;
+		this.entityCache = entityCache;
+	}
+	
+	
+	private Environment GetEnvironmentType()
+	{
+		return classifier.Classify(serverName);
 	}
 	
 	
@@ -169,9 +371,14 @@ public class Server
 	
 	public boolean PowerOff()
 	{
+		Vapp target = getVapp();
+		
+		if (target == null)
+			return false;
+		
 		try
 		{
-			vapp.powerOff().waitForTask(0);
+			TaskTracker.Wait(taskTracker, Power(target, false));
 		} 
 		
 		catch (VCloudException | TimeoutException e)
@@ -179,15 +386,25 @@ public class Server
 			return false;
 		}
 		
+		finally
+		{
+			InvalidateVapp();
+		}
+		
 		return true;
 	}
 	
 	
 	public boolean PowerOn()
 	{
+		Vapp target = getVapp();
+		
+		if (target == null)
+			return false;
+		
 		try
 		{
-			vapp.powerOn().waitForTask(0);
+			TaskTracker.Wait(taskTracker, Power(target, true));
 		} 
 		
 		catch (VCloudException | TimeoutException e)
@@ -195,10 +412,195 @@ public class Server
 			return false;
 		}
 		
+		finally
+		{
+			InvalidateVapp();
+		}
+		
 		return true;
 	}
 	
 	
+	/**
+	 * Start powering off this Server without waiting for it to finish.
+	 * @return The TaskFuture of the power off, or null if the vApp could not be resolved, 
+	 * 	the request failed, or this Server has no TaskTracker.
+	 */
+	public TaskFuture PowerOffAsync()
+	{
+		if (taskTracker == null)
+			return null;
+		
+		try
+		{
+			return StartPower(false);
+		}
+		
+		catch (VCloudException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Start powering on this Server without waiting for it to finish.
+	 * @return The TaskFuture of the power on, or null if the vApp could not be resolved, 
+	 * 	the request failed, or this Server has no TaskTracker.
+	 */
+	public TaskFuture PowerOnAsync()
+	{
+		if (taskTracker == null)
+			return null;
+		
+		try
+		{
+			return StartPower(true);
+		}
+		
+		catch (VCloudException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Start powering this Server on or off through the TaskTracker.
+	 * @param on True, to power on, false to power off.
+	 * @return The TaskFuture of the power task.
+	 * @throws VCloudException If the vApp could not be resolved or the request failed.
+	 */
+	TaskFuture StartPower(boolean on) throws VCloudException
+	{
+		Vapp target = getVapp();
+		
+		if (target == null)
+			throw new VCloudException("Could not resolve the vApp of " + serverName);
+		
+		
+		try
+		{
+			return Track(Power(target, on));
+		}
+		
+		catch (VCloudException e)
+		{
+			InvalidateVapp();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Read this Server's vApp afresh, and tell whether any of its VMs are running.
+	 * @return True, if the vApp is powered on, in whole or in part.
+	 * @throws VCloudException If the vApp could not be resolved.
+	 */
+	boolean IsPoweredOn() throws VCloudException
+	{
+		InvalidateVapp();
+		
+		Vapp target = getVapp();
+		
+		if (target == null)
+			throw new VCloudException("Could not resolve the vApp of " + serverName);
+		
+		VappStatus status = target.getVappStatus();
+		
+		return status == VappStatus.POWERED_ON || status == VappStatus.MIXED;
+	}
+	
+	
+	/**
+	 * Get whether this Server has a TaskTracker to start power tasks through.
+	 */
+	boolean hasTaskTracker()
+	{
+		return taskTracker != null;
+	}
+	
+	
+	/**
+	 * Ask vCloud to power the passed in vApp on or off.
+	 * @return The power task.
+	 */
+	private Task Power(final Vapp target, final boolean on) throws VCloudException
+	{
+		return Call(new ApiCall<Task>()
+		{
+			@Override
+			public Task call() throws VCloudException
+			{
+				return on ? target.powerOn() : target.powerOff();
+			}
+		});
+	}
+	
+	
+	/**
+	 * Run the passed in request through this Server's limiter, if it has one.
+	 * @param call The request to run.
+	 * @return The result of the request.
+	 * @throws VCloudException
+	 */
+	<T> T Call(ApiCall<T> call) throws VCloudException
+	{
+		RequestLimiter current = limiter;
+		
+		if (current != null)
+			return current.Execute(call);
+		
+		return call.call();
+	}
+	
+	
+	/**
+	 * Track the passed in power task, dropping the cached vApp once it finishes.
+	 */
+	private TaskFuture Track(Task task)
+	{
+		TaskFuture future = taskTracker.Track(task);
+		
+		future.AddListener(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				InvalidateVapp();
+			}
+		});
+		
+		return future;
+	}
+	
+	
+	/**
+	 * Drop the details kept for the reports, so the next report reads them again
+	 * 	from the vCloud API. Use this after changing the vApp's VMs.
+	 */
+	public void InvalidateDetail()
+	{
+		detail = null;
+	}
+	
+	
+	/**
+	 * Drop the cached copy of this Server's vApp, since a power change makes its status stale,
+	 * 	along with the details read from it.
+	 */
+	private void InvalidateVapp()
+	{
+		InvalidateDetail();
+		
+		if (entityCache != null)
+			entityCache.Invalidate(getVappReference().getHref());
+		
+		if (vappReference != null)
+			vapp = null;
+	}
+	
+	
 	public static int GetBaseMemory (int numberOfCPUs, ArrayList<Template> templates)
 	{
 		for (Template template : templates)
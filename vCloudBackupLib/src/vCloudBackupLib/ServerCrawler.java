@@ -0,0 +1,415 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.Vapp;
+import com.vmware.vcloud.sdk.Vdc;
+
+/**
+ * Walks the Organizations, Vdcs and vApps visible to a <code>VcloudClient</code>
+ * and builds a <code>Server</code> for every vApp found.
+ */
+class ServerCrawler
+{
+	/**
+	 * The number of queued tasks allowed per crawl thread before the
+	 * submitting thread has to run tasks itself.
+	 */
+	private static final int QUEUE_DEPTH_PER_THREAD = 4;
+
+	/**
+	 * The cache every Organization, Vdc and vApp is resolved through.
+	 */
+	private final EntityCache cache;
+	/**
+	 * The data center name given to each Server.
+	 */
+	private final String dataCenterName;
+	/**
+	 * Classifies each Server by Environment.
+	 */
+	private final EnvironmentClassifier classifier;
+	/**
+	 * Whether Servers are built from references only, leaving each vApp to be fetched when first used.
+	 */
+	private boolean lazy;
+
+
+	/**
+	 * Set whether Servers are built from references only, leaving each vApp
+	 * to be fetched when first used.
+	 * @param lazy True, to build lazy Servers, false to fetch every vApp during the crawl.
+	 */
+	void setLazy(boolean lazy)
+	{
+		this.lazy = lazy;
+	}
+
+
+	/**
+	 * Main constructor
+	 * @param cache The cache every Organization, Vdc and vApp is resolved through.
+	 * @param dataCenterName The data center name given to each Server.
+	 * @param classifier Classifies each Server by Environment.
+	 */
+	ServerCrawler(EntityCache cache, String dataCenterName, EnvironmentClassifier classifier)
+	{
+		this.cache = cache;
+		this.dataCenterName = dataCenterName;
+		this.classifier = classifier;
+	}
+
+
+	/**
+	 * Crawl the passed in Organizations one request at a time.
+	 * @param orgRefs The Organizations to crawl.
+	 * @return An ArrayList of the Servers found.
+	 * @throws VCloudException
+	 */
+	ArrayList<Server> Crawl(Collection<ReferenceType> orgRefs) throws VCloudException
+	{
+		final ArrayList<Server> servers = new ArrayList<Server>();
+
+
+		Crawl(orgRefs, new ServerListener()
+		{
+			@Override
+			public void ServerFound(Server server)
+			{
+				servers.add(server);
+			}
+		});
+
+		return servers;
+	}
+
+
+	/**
+	 * Crawl the passed in Organizations one request at a time, passing each
+	 * Server to the listener as soon as it is built.
+	 * @param orgRefs The Organizations to crawl.
+	 * @param listener The listener each Server is passed to.
+	 * @throws VCloudException
+	 */
+	void Crawl(Collection<ReferenceType> orgRefs, ServerListener listener) throws VCloudException
+	{
+		for (ReferenceType orgRef : orgRefs)
+		{
+			Organization org = GetOrganization(orgRef);
+
+			for (ReferenceType vdcRef : org.getVdcRefs())
+			{
+				Vdc vdc = GetVdc(vdcRef);
+
+				for (ReferenceType vAppRef : vdc.getVappRefs())
+				{
+					listener.ServerFound(BuildServer(org, vdc, vAppRef));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Crawl the passed in Organizations on a bounded pool of threads. Every
+	 * Organization is fetched concurrently, then every Vdc of every Organization,
+	 * then every vApp of every Vdc, unless the Servers are lazy. The returned list is in the same order
+	 * <code>Crawl</code> would have produced.
+	 * @param orgRefs The Organizations to crawl.
+	 * @param threads The number of crawl threads to use.
+	 * @return An ArrayList of the Servers found.
+	 * @throws VCloudException
+	 */
+	ArrayList<Server> CrawlParallel(Collection<ReferenceType> orgRefs, int threads) throws VCloudException
+	{
+		ThreadPoolExecutor executor = NewExecutor(threads);
+
+		try
+		{
+			//Organizations
+			List<Future<Organization>> orgFutures = new ArrayList<Future<Organization>>();
+
+			for (final ReferenceType orgRef : orgRefs)
+			{
+				orgFutures.add(executor.submit(new Callable<Organization>()
+				{
+					@Override
+					public Organization call() throws VCloudException
+					{
+						return GetOrganization(orgRef);
+					}
+				}));
+			}
+
+
+			//Vdcs, fanned out per Organization
+			List<Organization> vdcOrgs = new ArrayList<Organization>();
+			List<Future<Vdc>> vdcFutures = new ArrayList<Future<Vdc>>();
+
+			for (Future<Organization> orgFuture : orgFutures)
+			{
+				Organization org = Await(orgFuture);
+
+				for (final ReferenceType vdcRef : org.getVdcRefs())
+				{
+					vdcOrgs.add(org);
+					vdcFutures.add(executor.submit(new Callable<Vdc>()
+					{
+						@Override
+						public Vdc call() throws VCloudException
+						{
+							return GetVdc(vdcRef);
+						}
+					}));
+				}
+			}
+
+
+			//vApps, fanned out per Vdc
+			List<Organization> vappOrgs = new ArrayList<Organization>();
+			List<Vdc> vappVdcs = new ArrayList<Vdc>();
+			List<ReferenceType> vappRefs = new ArrayList<ReferenceType>();
+			List<Future<Vapp>> vappFutures = new ArrayList<Future<Vapp>>();
+
+			for (int i = 0; i < vdcFutures.size(); i++)
+			{
+				Vdc vdc = Await(vdcFutures.get(i));
+
+				for (final ReferenceType vAppRef : vdc.getVappRefs())
+				{
+					vappOrgs.add(vdcOrgs.get(i));
+					vappVdcs.add(vdc);
+					vappRefs.add(vAppRef);
+					vappFutures.add(lazy ? null : executor.submit(new Callable<Vapp>()
+					{
+						@Override
+						public Vapp call() throws VCloudException
+						{
+							return GetVapp(vAppRef);
+						}
+					}));
+				}
+			}
+
+
+			ArrayList<Server> servers = new ArrayList<Server>(vappFutures.size());
+
+			for (int i = 0; i < vappFutures.size(); i++)
+			{
+				Future<Vapp> vappFuture = vappFutures.get(i);
+
+				if (vappFuture == null)
+					servers.add(NewLazyServer(vappOrgs.get(i), vappVdcs.get(i), vappRefs.get(i)));
+
+				else
+					servers.add(NewServer(vappOrgs.get(i), vappVdcs.get(i), vappRefs.get(i), Await(vappFuture)));
+			}
+
+			return servers;
+		}
+
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Crawl the passed in Organizations on a bounded pool of threads, passing
+	 * each Server to the listener from the thread that built it, as soon as its
+	 * vApp is resolved. The vApps of a Vdc are queued as soon as that Vdc is
+	 * fetched. Servers arrive in no particular order.
+	 * @param orgRefs The Organizations to crawl.
+	 * @param threads The number of crawl threads to use.
+	 * @param listener The listener each Server is passed to.
+	 * @throws VCloudException
+	 */
+	void CrawlParallel(Collection<ReferenceType> orgRefs, int threads, final ServerListener listener) throws VCloudException
+	{
+		ThreadPoolExecutor executor = NewExecutor(threads);
+
+		try
+		{
+			List<Future<Organization>> orgFutures = new ArrayList<Future<Organization>>();
+
+			for (final ReferenceType orgRef : orgRefs)
+			{
+				orgFutures.add(executor.submit(new Callable<Organization>()
+				{
+					@Override
+					public Organization call() throws VCloudException
+					{
+						return GetOrganization(orgRef);
+					}
+				}));
+			}
+
+
+			List<Organization> vdcOrgs = new ArrayList<Organization>();
+			List<Future<Vdc>> vdcFutures = new ArrayList<Future<Vdc>>();
+
+			for (Future<Organization> orgFuture : orgFutures)
+			{
+				Organization org = Await(orgFuture);
+
+				for (final ReferenceType vdcRef : org.getVdcRefs())
+				{
+					vdcOrgs.add(org);
+					vdcFutures.add(executor.submit(new Callable<Vdc>()
+					{
+						@Override
+						public Vdc call() throws VCloudException
+						{
+							return GetVdc(vdcRef);
+						}
+					}));
+				}
+			}
+
+
+			List<Future<Void>> vappFutures = new ArrayList<Future<Void>>();
+
+			for (int i = 0; i < vdcFutures.size(); i++)
+			{
+				final Organization org = vdcOrgs.get(i);
+				final Vdc vdc = Await(vdcFutures.get(i));
+
+				for (final ReferenceType vAppRef : vdc.getVappRefs())
+				{
+					vappFutures.add(executor.submit(new Callable<Void>()
+					{
+						@Override
+						public Void call() throws VCloudException
+						{
+							listener.ServerFound(BuildServer(org, vdc, vAppRef));
+							return null;
+						}
+					}));
+				}
+			}
+
+			for (Future<Void> vappFuture : vappFutures)
+			{
+				Await(vappFuture);
+			}
+		}
+
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Create a bounded pool of crawl threads. Once the queue is full the
+	 * submitting thread runs the task itself, which keeps the queue from
+	 * growing with the size of the cloud.
+	 * @param threads The number of crawl threads.
+	 * @return The new executor.
+	 */
+	static ThreadPoolExecutor NewExecutor(int threads)
+	{
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * QUEUE_DEPTH_PER_THREAD),
+				new DaemonThreadFactory("vcloud-crawl"), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+
+	/**
+	 * Wait for the passed in <code>Future</code>, unwrapping any <code>VCloudException</code> it failed with.
+	 * @param future The <code>Future</code> to wait for.
+	 * @return The result of the <code>Future</code>.
+	 * @throws VCloudException
+	 */
+	static <T> T Await(Future<T> future) throws VCloudException
+	{
+		try
+		{
+			return future.get();
+		}
+
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			VCloudException ve = new VCloudException("Interrupted while waiting for the vCloud API");
+			ve.initCause(e);
+			throw ve;
+		}
+
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof VCloudException)
+				throw (VCloudException) e.getCause();
+
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			VCloudException ve = new VCloudException(String.valueOf(e.getCause()));
+			ve.initCause(e.getCause());
+			throw ve;
+		}
+	}
+
+
+	/**
+	 * Build the Server for the passed in vApp, fetching the vApp unless the Servers are lazy.
+	 */
+	Server BuildServer(Organization org, Vdc vdc, ReferenceType vAppRef) throws VCloudException
+	{
+		if (lazy)
+			return NewLazyServer(org, vdc, vAppRef);
+
+		else
+			return NewServer(org, vdc, vAppRef, GetVapp(vAppRef));
+	}
+
+
+	private Server NewLazyServer(Organization org, Vdc vdc, ReferenceType vAppRef)
+	{
+		return new Server(org.getReference(), vdc.getReference(), vAppRef, dataCenterName, classifier, cache);
+	}
+
+
+	private Server NewServer(Organization org, Vdc vdc, ReferenceType vAppRef, Vapp vapp)
+	{
+		Server server = new Server(org, vdc, vAppRef.getName(), vapp, dataCenterName, classifier);
+		server.setEntityCache(cache);
+		
+		return server;
+	}
+
+
+	Organization GetOrganization(ReferenceType orgRef) throws VCloudException
+	{
+		return cache.getOrganization(orgRef);
+	}
+
+
+	Vdc GetVdc(ReferenceType vdcRef) throws VCloudException
+	{
+		return cache.getVdc(vdcRef);
+	}
+
+
+	Vapp GetVapp(ReferenceType vAppRef) throws VCloudException
+	{
+		return cache.getVapp(vAppRef);
+	}
+}
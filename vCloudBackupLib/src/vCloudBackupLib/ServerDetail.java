@@ -0,0 +1,321 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.VM;
+import com.vmware.vcloud.sdk.Vapp;
+import com.vmware.vcloud.sdk.VirtualDisk;
+import com.vmware.vcloud.sdk.VirtualNetworkCard;
+
+/**
+ * The sizing and addressing of a Server, read from the first VM of its vApp.
+ * Every remote read happens once, in <code>Fetch</code>; the result is kept on
+ * the Server and reused by every report until it is dropped, so the Excel, CSV
+ * and JSON renderers cost no API requests of their own.
+ */
+public class ServerDetail
+{
+	/**
+	 * The default number of Servers whose details are fetched at once.
+	 */
+	static final int DEFAULT_FETCH_THREADS = 8;
+	/**
+	 * The number of hard disks every template comes with, which are not counted as extra storage.
+	 */
+	private static final int DEFAULT_DRIVE_COUNT = 2;
+	
+	private final String dataCenter;
+	private final int cpus;
+	/**
+	 * The memory, in MB.
+	 */
+	private final int memory;
+	/**
+	 * The size of the hard disks past the template's own, in MB.
+	 */
+	private final int extraStorage;
+	/**
+	 * The memory past the template's base memory for the CPU count, in MB.
+	 */
+	private final int extraMemory;
+	private final Server.Environment environment;
+	private final String ipAddress;
+	private final String dnsName;
+	private final String organizationName;
+	private final String vappName;
+	private final String zone;
+	/**
+	 * The settings the extra memory was worked out from.
+	 */
+	private final SettingsSnapshot settings;
+	
+	
+	/**
+	 * Get the name of the data center, capitalized.
+	 * @return The data center name.
+	 */
+	public String getDataCenter()
+	{
+		return dataCenter;
+	}
+	
+	/**
+	 * Get the number of CPUs.
+	 * @return The number of CPUs.
+	 */
+	public int getCpus()
+	{
+		return cpus;
+	}
+	
+	/**
+	 * Get the memory.
+	 * @return The memory, in MB.
+	 */
+	public int getMemory()
+	{
+		return memory;
+	}
+	
+	/**
+	 * Get the size of the hard disks past the ones every template comes with.
+	 * @return The extra storage, in MB.
+	 */
+	public int getExtraStorage()
+	{
+		return extraStorage;
+	}
+	
+	/**
+	 * Get the memory past the base memory of the template with the same number of CPUs.
+	 * @return The extra memory, in MB.
+	 */
+	public int getExtraMemory()
+	{
+		return extraMemory;
+	}
+	
+	/**
+	 * Get the Environment the Server was classified as.
+	 * @return The Environment.
+	 */
+	public Server.Environment getEnvironment()
+	{
+		return environment;
+	}
+	
+	/**
+	 * Get the IP address of the primary network card.
+	 * @return The IP address.
+	 */
+	public String getIpAddress()
+	{
+		return ipAddress;
+	}
+	
+	/**
+	 * Get the computer name of the VM, upper cased.
+	 * @return The DNS name.
+	 */
+	public String getDnsName()
+	{
+		return dnsName;
+	}
+	
+	/**
+	 * Get the name of the Organization the Server belongs to.
+	 * @return The Organization name.
+	 */
+	public String getOrganizationName()
+	{
+		return organizationName;
+	}
+	
+	/**
+	 * Get the name of the Server's vApp.
+	 * @return The vApp name.
+	 */
+	public String getVappName()
+	{
+		return vappName;
+	}
+	
+	/**
+	 * Get the network of the primary network card, without the Organization name prefix.
+	 * @return The zone.
+	 */
+	public String getZone()
+	{
+		return zone;
+	}
+	
+	
+	
+	
+	
+	
+	private ServerDetail(String dataCenter, int cpus, int memory, int extraStorage, int extraMemory, Server.Environment environment, 
+			String ipAddress, String dnsName, String organizationName, String vappName, String zone, 
+			SettingsSnapshot settings)
+	{
+		this.dataCenter = dataCenter;
+		this.cpus = cpus;
+		this.memory = memory;
+		this.extraStorage = extraStorage;
+		this.extraMemory = extraMemory;
+		this.environment = environment;
+		this.ipAddress = ipAddress;
+		this.dnsName = dnsName;
+		this.organizationName = organizationName;
+		this.vappName = vappName;
+		this.zone = zone;
+		this.settings = settings;
+	}
+	
+	
+	/**
+	 * Get the details of the passed in Server, reading them from the vCloud API only if
+	 * 	they have not been read yet, were dropped, or the settings have changed since. A 
+	 * 	Server's details are dropped when one of its power tasks ends, and by 
+	 * 	<code>Server.InvalidateDetail</code>; a <code>Refresh</code> that finds a vApp changed 
+	 * 	replaces its Server, details and all. No other change is noticed.
+	 * @param server The Server.
+	 * @param limiter The limiter every API request is run through.
+	 * @param settings The settings the base memory of each CPU count is read from.
+	 * @return The ServerDetail.
+	 * @throws VCloudException
+	 */
+	static ServerDetail Get(Server server, RequestLimiter limiter, SettingsSnapshot settings) throws VCloudException
+	{
+		ServerDetail detail = server.getDetail();
+		
+		if (detail != null && detail.settings == settings)
+			return detail;
+		
+		detail = Fetch(server, limiter, settings);
+		server.setDetail(detail);
+		
+		return detail;
+	}
+	
+	
+	/**
+	 * Read the details of the passed in Server from the vCloud API.
+	 * @param server The Server.
+	 * @param limiter The limiter every API request is run through.
+	 * @param settings The settings the base memory of each CPU count is read from.
+	 * @return The ServerDetail.
+	 * @throws VCloudException
+	 */
+	static ServerDetail Fetch(final Server server, RequestLimiter limiter, SettingsSnapshot settings) throws VCloudException
+	{
+		//Resolve the vApp before taking a slot, since a lazy Server fetches it through the same limiter
+		final Vapp vapp = server.getVapp();
+		
+		if (vapp == null)
+			throw new VCloudException("Could not resolve the vApp of " + server.getServerName());
+		
+		final VM vm = limiter.Execute(new ApiCall<VM>()
+		{
+			@Override
+			public VM call() throws VCloudException
+			{
+				return vapp.getChildrenVms().get(0);
+			}
+		});
+		
+		int cpus = limiter.Execute(new ApiCall<Integer>()
+		{
+			@Override
+			public Integer call() throws VCloudException
+			{
+				return vm.getCpu().getNoOfCpus();
+			}
+		});
+		
+		int memory = limiter.Execute(new ApiCall<Integer>()
+		{
+			@Override
+			public Integer call() throws VCloudException
+			{
+				return vm.getMemory().getMemorySize().intValue();
+			}
+		});
+		
+		List<VirtualNetworkCard> networkCards = limiter.Execute(new ApiCall<List<VirtualNetworkCard>>()
+		{
+			@Override
+			public List<VirtualNetworkCard> call() throws VCloudException
+			{
+				return vm.getNetworkCards();
+			}
+		});
+		
+		String computerName = limiter.Execute(new ApiCall<String>()
+		{
+			@Override
+			public String call() throws VCloudException
+			{
+				return vm.getGuestCustomizationSection().getComputerName();
+			}
+		});
+		
+		List<VirtualDisk> disks = limiter.Execute(new ApiCall<List<VirtualDisk>>()
+		{
+			@Override
+			public List<VirtualDisk> call() throws VCloudException
+			{
+				return vm.getDisks();
+			}
+		});
+		
+		
+		//Extra Storage
+		ArrayList<VirtualDisk> vds = new ArrayList<VirtualDisk>();
+		int extraStorage = 0;
+		
+		for (VirtualDisk vd : disks)
+		{
+			if (vd.isHardDisk())
+				vds.add(vd);
+		}
+		
+		for (int j = DEFAULT_DRIVE_COUNT; j < vds.size(); j++)
+		{
+			extraStorage += vds.get(j).getHardDiskSize().intValue();
+		}
+		
+		
+		//Extra Memory
+		int extraMemory = 0;
+		int baseMemory = settings.GetBaseMemory(cpus) * 1024;
+		
+		if (baseMemory != memory)
+			extraMemory = memory - baseMemory;
+		
+		
+		VirtualNetworkCard primaryNic = networkCards.get(0);
+		
+		for (VirtualNetworkCard nc : networkCards)
+		{
+			if (nc.isPrimaryNetworkConnection())
+			{
+				primaryNic = nc;
+				break;
+			}
+		}
+		
+		
+		String organizationName = server.getOrganization().getReference().getName();
+		
+		return new ServerDetail(Character.toUpperCase(server.getDataCenter().charAt(0)) + server.getDataCenter().substring(1), 
+				cpus, memory, extraStorage, extraMemory, server.getEnvironment(), primaryNic.getIpAddress(), 
+				computerName.toUpperCase(), organizationName, vapp.getReference().getName(), 
+				primaryNic.getNetwork().replaceAll(organizationName + "-", ""), settings);
+	}
+}
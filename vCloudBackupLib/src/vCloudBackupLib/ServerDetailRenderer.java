@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a report of <code>ServerDetail</code>s, one Server at a time in the
+ * order they are passed in. A renderer only formats what it is given, and
+ * never calls the vCloud API.
+ */
+abstract class ServerDetailRenderer implements Closeable
+{
+	static final int COLUMN_DATA_CENTER = 0;
+	static final int COLUMN_CPUS = 1;
+	static final int COLUMN_MEMORY = 2;
+	static final int COLUMN_EXTRA_STORAGE = 3;
+	static final int COLUMN_EXTRA_MEMORY = 4;
+	static final int COLUMN_ENVRIONMENT = 5;
+	static final int COLUMN_IP_ADDRESS = 6;
+	static final int COLUMN_DNS_NAME = 7;
+	static final int COLUMN_HASH = 8;
+	static final int COLUMN_ORGANIZATION = 9;
+	static final int COLUMN_VAPP_NAME = 10;
+	static final int COLUMN_VM_DESCRIPTION = 11;
+	static final int COLUMN_TEMPLATE = 12;
+	static final int COLUMN_ZONE = 13;
+	static final int COLUMN_NUMBER = 14;
+	
+	/**
+	 * The heading of each column of a tabular report.
+	 */
+	static final String[] COLUMN_NAMES = { "Data Center", "CPUs", "Memory", "Extra Storage", "Extra Memory", "Environment", 
+			"IP Address", "DNS Name", "Hash", "Organization", "vAPP Name", "VM Description", "Template", "Zone" };
+	
+	
+	/**
+	 * Write anything that comes before the first Server.
+	 * @throws IOException
+	 */
+	abstract void Begin() throws IOException;
+	
+	
+	/**
+	 * Write a single Server.
+	 * @param detail The details of the Server.
+	 * @throws IOException
+	 */
+	abstract void Render(ServerDetail detail) throws IOException;
+	
+	
+	/**
+	 * Write anything that comes after the last Server, and save the report.
+	 * @throws IOException
+	 */
+	abstract void End() throws IOException;
+	
+	
+	/**
+	 * Get the value of each column of a tabular report for the passed in Server. The
+	 * 	CPU count is an Integer; every other value is a String.
+	 * @param detail The details of the Server.
+	 * @return The value of each column.
+	 */
+	static Object[] Cells(ServerDetail detail)
+	{
+		Object[] cells = new Object[COLUMN_NUMBER];
+		
+		cells[COLUMN_DATA_CENTER] = detail.getDataCenter();
+		cells[COLUMN_CPUS] = detail.getCpus();
+		cells[COLUMN_MEMORY] = (detail.getMemory() / 1024) + "GB";
+		cells[COLUMN_EXTRA_STORAGE] = (detail.getExtraStorage() / 1024) + "GB";
+		cells[COLUMN_EXTRA_MEMORY] = (detail.getExtraMemory() / 1024) + "GB";
+		cells[COLUMN_ENVRIONMENT] = detail.getEnvironment().toString();
+		cells[COLUMN_IP_ADDRESS] = detail.getIpAddress();
+		cells[COLUMN_DNS_NAME] = detail.getDnsName();
+		cells[COLUMN_HASH] = "#";
+		cells[COLUMN_ORGANIZATION] = detail.getOrganizationName();
+		cells[COLUMN_VAPP_NAME] = detail.getVappName();
+		cells[COLUMN_VM_DESCRIPTION] = "";
+		cells[COLUMN_TEMPLATE] = "";
+		cells[COLUMN_ZONE] = detail.getZone();
+		
+		return cells;
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Iterates over Servers while they are still being discovered. The crawl runs
+ * on a background thread and hands each Server over through a bounded buffer;
+ * when the buffer is full the crawl waits for the consumer to catch up.
+ * <code>close</code> stops the crawl early.
+ */
+public class ServerIterator implements Iterator<Server>, Closeable
+{
+	/**
+	 * Marks the end of the crawl in the buffer.
+	 */
+	private static final Server END = new Server();
+	
+	/**
+	 * The buffer between the crawl and the consumer.
+	 */
+	private final ArrayBlockingQueue<Server> buffer;
+	/**
+	 * The thread running the crawl.
+	 */
+	private Thread crawlThread;
+	/**
+	 * Whether the consumer has closed this iterator.
+	 */
+	private volatile boolean closed;
+	/**
+	 * The error the crawl failed with, if any.
+	 */
+	private volatile Exception error;
+	/**
+	 * The next Server to be returned, if already taken from the buffer.
+	 */
+	private Server next;
+	/**
+	 * Whether the end of the crawl has been reached.
+	 */
+	private boolean finished;
+	
+	
+	/**
+	 * Get the error the crawl failed with. Check this once <code>hasNext</code>
+	 * 	returns false to tell a finished crawl from a failed one. A crawl that fails
+	 * 	with a RuntimeException also has it thrown from <code>hasNext</code> and <code>next</code>.
+	 * @return The VCloudException or RuntimeException the crawl failed with, or null.
+	 */
+	public Exception getError()
+	{
+		return error;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param bufferSize The number of Servers that may wait in the buffer.
+	 */
+	ServerIterator(int bufferSize)
+	{
+		buffer = new ArrayBlockingQueue<Server>(bufferSize);
+	}
+	
+	
+	/**
+	 * Start the crawl on a background thread.
+	 * @param crawl The crawl, which passes each Server to the listener it is given.
+	 */
+	void Start(final Crawl crawl)
+	{
+		final ServerListener listener = new ServerListener()
+		{
+			@Override
+			public void ServerFound(Server server)
+			{
+				if (closed)
+					throw new CancellationException();
+				
+				try
+				{
+					buffer.put(server);
+				}
+				
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new CancellationException();
+				}
+			}
+		};
+		
+		
+		crawlThread = new DaemonThreadFactory("vcloud-stream").newThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					crawl.Run(listener);
+				}
+				
+				catch (VCloudException e)
+				{
+					if (!closed)
+						error = e;
+				}
+				
+				catch (CancellationException e)
+				{
+					//Closed by the consumer
+				}
+				
+				catch (RuntimeException e)
+				{
+					if (!closed)
+						error = e;
+				}
+				
+				finally
+				{
+					Finish();
+				}
+			}
+		});
+		
+		crawlThread.start();
+	}
+	
+	
+	/**
+	 * Mark the end of the crawl, without blocking if the consumer has gone away.
+	 */
+	private void Finish()
+	{
+		Thread.interrupted();
+		
+		try
+		{
+			while (!closed)
+			{
+				if (buffer.offer(END, 100, TimeUnit.MILLISECONDS))
+					break;
+			}
+		}
+		
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	@Override
+	public boolean hasNext()
+	{
+		if (next != null)
+			return true;
+		
+		if (closed)
+			return false;
+		
+		if (finished)
+			return Failed();
+		
+		
+		try
+		{
+			Server server = buffer.take();
+			
+			if (server == END)
+			{
+				finished = true;
+				return Failed();
+			}
+			
+			next = server;
+			return true;
+		}
+		
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Rethrow the RuntimeException the crawl failed with, so a cut short crawl does not pass for a finished one.
+	 * @return False, if the crawl did not fail with a RuntimeException.
+	 */
+	private boolean Failed()
+	{
+		if (error instanceof RuntimeException)
+			throw (RuntimeException) error;
+		
+		return false;
+	}
+	
+	
+	@Override
+	public Server next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		Server server = next;
+		next = null;
+		
+		return server;
+	}
+	
+	
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+	
+	
+	/**
+	 * Stop the crawl and drop any Servers still in the buffer.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		
+		if (crawlThread != null)
+			crawlThread.interrupt();
+		
+		buffer.clear();
+	}
+	
+	
+	/**
+	 * A crawl that passes each Server it discovers to a listener.
+	 */
+	interface Crawl
+	{
+		void Run(ServerListener listener) throws VCloudException;
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+/**
+ * Receives each <code>Server</code> as it is discovered, see <code>Backup.StreamServers</code>.
+ * When the crawl runs on more than one thread this is called from several
+ * threads at once, so implementations must be thread safe. A listener that 
+ * takes its time slows the crawl down to match.
+ */
+public interface ServerListener
+{
+	/**
+	 * Called once for every Server discovered.
+	 * @param server The Server discovered.
+	 */
+	void ServerFound(Server server);
+}
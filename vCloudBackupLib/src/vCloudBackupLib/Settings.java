@@ -5,6 +5,7 @@ package vCloudBackupLib;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -35,13 +36,13 @@ public class Settings
 	
 	
 	/**
-	 * An ArrayList of Templates.
+	 * The settings last read from the settings file.
 	 */
-	private ArrayList<Template> templates;
+	private volatile SettingsSnapshot snapshot;
 	/**
-	 * An ArrayList of Environments.
+	 * Reads the settings file again when it changes, or null if it is not watched.
 	 */
-	private ArrayList<Environment> environments;
+	private SettingsWatcher watcher;
 	
 	
 	/**
@@ -59,20 +60,39 @@ public class Settings
 
 	/**
 	 * Get an ArrayList of Templates.
-	 * @return An ArrayList of Templates.
+	 * @return A copy of the current Templates.
 	 */
 	public ArrayList<Template> getTemplates()
 	{
-		return templates;
+		return new ArrayList<Template>(snapshot.getTemplates());
 	}
 
 	/**
 	 * Get an ArrayList of Environments.
-	 * @return An ArrayList of Environments.
+	 * @return A copy of the current Environments.
 	 */
 	public ArrayList<Environment> getEnvironments()
 	{
-		return environments;
+		return new ArrayList<Environment>(snapshot.getEnvironments());
+	}
+
+	/**
+	 * Get the settings last read from the settings file. Hold on to the returned snapshot 
+	 * 	to use settings that belong together; it is never changed by a later read.
+	 * @return The SettingsSnapshot.
+	 */
+	public SettingsSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * Get the classifier compiled from the current Environment tags, shared by every Server.
+	 * @return The EnvironmentClassifier.
+	 */
+	EnvironmentClassifier getEnvironmentClassifier()
+	{
+		return snapshot.getEnvironmentClassifier();
 	}
 
 
@@ -100,8 +120,7 @@ public class Settings
 	{
 		setSettingsFilePath(DEFAULT_XML_PATH);
 		
-		templates = new ArrayList<Template>();
-		environments = new ArrayList<Environment>();
+		snapshot = new SettingsSnapshot(new ArrayList<Template>(), new ArrayList<Environment>());
 	}
 	
 	
@@ -113,8 +132,7 @@ public class Settings
 	{
 		setSettingsFilePath(pathToXML);
 		
-		templates = new ArrayList<Template>();
-		environments = new ArrayList<Environment>();
+		snapshot = new SettingsSnapshot(new ArrayList<Template>(), new ArrayList<Environment>());
 	}
 	
 	
@@ -137,14 +155,34 @@ public class Settings
 	
 	
 	/**
-	 * Read in the settings file.
+	 * Read in the settings file, and swap the settings it holds in for the current ones in a 
+	 * 	single step. The file is streamed and checked against its schema in one pass. If the 
+	 * 	file cannot be read, or does not match the schema, or the schema itself cannot be 
+	 * 	loaded, the current settings are kept.
 	 * @throws SAXException
 	 * @throws IOException
 	 * @throws ParserConfigurationException
 	 */
 	public void ReadSettings() throws SAXException, IOException, ParserConfigurationException
+	{
+		snapshot = SettingsParser.Parse(this, new File(this.settingsFilePath));
+	}
+	
+	
+	/**
+	 * Read in the settings file by building its whole DOM tree, without checking it against 
+	 * 	the schema. This is how the file was read before the streaming parser, and is kept to 
+	 * 	measure the two against each other. The current settings are left as they are.
+	 * @return The settings read.
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	SettingsSnapshot ReadSettingsDom() throws SAXException, IOException, ParserConfigurationException
 	{
 		NodeList nList;
+		ArrayList<Template> templates = new ArrayList<Template>();
+		ArrayList<Environment> environments = new ArrayList<Environment>();
 		
 		File fXmlFile = new File(this.settingsFilePath);
 		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -197,6 +235,42 @@ public class Settings
 				environments.add(new Environment(name, tag));
 			}
 		}
+		
+		return new SettingsSnapshot(templates, environments);
+	}
+	
+	
+	/**
+	 * Start reading the settings file again whenever it changes. A change that leaves 
+	 * 	the file unreadable is ignored until the file is fixed.
+	 * @throws IOException If the directory of the settings file cannot be watched.
+	 */
+	public synchronized void StartWatching() throws IOException
+	{
+		if (watcher == null)
+			watcher = new SettingsWatcher(this, Paths.get(settingsFilePath));
+	}
+	
+	
+	/**
+	 * Stop reading the settings file again when it changes.
+	 */
+	public synchronized void StopWatching()
+	{
+		if (watcher != null)
+		{
+			try
+			{
+				watcher.close();
+			}
+			
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			
+			watcher = null;
+		}
 	}
 	
 	
@@ -0,0 +1,253 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import vCloudBackupLib.Settings.Environment;
+import vCloudBackupLib.Settings.Template;
+
+/**
+ * Reads the settings file in a single forward pass with StAX, checking it
+ * against <code>lib_settings.xsd</code> as it goes. The validator passes each
+ * event on as soon as it is checked, so no tree of the file is ever built.
+ */
+class SettingsParser
+{
+	/**
+	 * The schema of the settings file, read from beside this class.
+	 */
+	static final String SCHEMA_RESOURCE = "lib_settings.xsd";
+	
+	private static final String ENVIRONMENT = "environment";
+	private static final QName ENVIRONMENT_NAME = new QName(Environment.NAME);
+	
+	private static final XMLInputFactory INPUT_FACTORY = NewInputFactory();
+	/**
+	 * The compiled schema, or null until the first parse loads it.
+	 */
+	private static volatile Schema schema;
+	
+	
+	/**
+	 * Read the settings file.
+	 * @param settings The Settings the Templates and Environments belong to.
+	 * @param file The settings file.
+	 * @return The settings read.
+	 * @throws SAXException If the file is not well formed, or does not match the schema, 
+	 * 	or the schema itself could not be found or compiled.
+	 * @throws IOException
+	 */
+	static SettingsSnapshot Parse(Settings settings, File file) throws SAXException, IOException
+	{
+		Schema checked = LoadSchema();
+		InputStream in = new FileInputStream(file);
+		
+		try
+		{
+			Handler handler = new Handler(settings);
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+			
+			checked.newValidator().validate(new StAXSource(reader), new StAXResult(handler));
+			
+			return new SettingsSnapshot(handler.templates, handler.environments);
+		}
+		
+		catch (XMLStreamException | NumberFormatException e)
+		{
+			throw new SAXException(file.getPath() + " is not a valid settings file", e);
+		}
+		
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	
+	private static XMLInputFactory NewInputFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		
+		return factory;
+	}
+	
+	
+	/**
+	 * Get the compiled schema, compiling it on first use. A settings file is never read 
+	 * 	unchecked, so a schema that is missing or does not compile fails the parse.
+	 */
+	private static Schema LoadSchema() throws SAXException
+	{
+		Schema result = schema;
+		
+		if (result == null)
+		{
+			URL url = SettingsParser.class.getResource(SCHEMA_RESOURCE);
+			
+			if (url == null)
+				throw new SAXException(SCHEMA_RESOURCE + " could not be found beside " + SettingsParser.class.getName());
+			
+			result = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(url);
+			schema = result;
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Builds the Templates and Environments from the events of the settings file, in order.
+	 */
+	private static class Handler implements XMLEventWriter
+	{
+		private final Settings settings;
+		private final ArrayList<Template> templates = new ArrayList<Template>();
+		private final ArrayList<Environment> environments = new ArrayList<Environment>();
+		/**
+		 * The text of the element being read, or null outside cpu, memory and environment.
+		 */
+		private StringBuilder text;
+		private String cpu;
+		private String memory;
+		private String environmentName;
+		
+		
+		private Handler(Settings settings)
+		{
+			this.settings = settings;
+		}
+		
+		
+		@Override
+		public void add(XMLEvent event)
+		{
+			if (event.isStartElement())
+			{
+				StartElement start = event.asStartElement();
+				String name = start.getName().getLocalPart();
+				
+				if (name.equals(Template.CPU) || name.equals(Template.MEMORY))
+					text = new StringBuilder();
+				
+				else if (name.equals(ENVIRONMENT))
+				{
+					Attribute attribute = start.getAttributeByName(ENVIRONMENT_NAME);
+					environmentName = attribute != null ? attribute.getValue() : "";
+					text = new StringBuilder();
+				}
+			}
+			
+			else if (event.isCharacters())
+			{
+				if (text != null)
+					text.append(event.asCharacters().getData());
+			}
+			
+			else if (event.isEndElement())
+			{
+				String name = event.asEndElement().getName().getLocalPart();
+				
+				if (name.equals(Template.CPU))
+					cpu = TakeText();
+				
+				else if (name.equals(Template.MEMORY))
+					memory = TakeText();
+				
+				else if (name.equals(Template.TEMPLATE))
+				{
+					templates.add(settings.new Template(Integer.parseInt(cpu.trim()), Integer.parseInt(memory.trim())));
+					cpu = null;
+					memory = null;
+				}
+				
+				else if (name.equals(ENVIRONMENT))
+					environments.add(settings.new Environment(environmentName, TakeText()));
+			}
+		}
+		
+		
+		@Override
+		public void add(XMLEventReader reader) throws XMLStreamException
+		{
+			while (reader.hasNext())
+			{
+				add(reader.nextEvent());
+			}
+		}
+		
+		
+		private String TakeText()
+		{
+			String value = text != null ? text.toString() : "";
+			text = null;
+			
+			return value;
+		}
+		
+		
+		@Override
+		public void flush()
+		{
+		}
+		
+		@Override
+		public void close()
+		{
+		}
+		
+		@Override
+		public String getPrefix(String uri)
+		{
+			return null;
+		}
+		
+		@Override
+		public void setPrefix(String prefix, String uri)
+		{
+		}
+		
+		@Override
+		public void setDefaultNamespace(String uri)
+		{
+		}
+		
+		@Override
+		public void setNamespaceContext(NamespaceContext context)
+		{
+		}
+		
+		@Override
+		public NamespaceContext getNamespaceContext()
+		{
+			return null;
+		}
+	}
+}
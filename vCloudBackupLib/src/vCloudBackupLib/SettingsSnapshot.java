@@ -0,0 +1,132 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import vCloudBackupLib.Settings.Environment;
+import vCloudBackupLib.Settings.Template;
+
+/**
+ * The settings as read from a single version of the settings file. A snapshot
+ * never changes once built; <code>Settings</code> swaps in a whole new one when
+ * the file is read again, so a reader holding a snapshot always sees settings
+ * that belong together, without taking a lock.
+ */
+public class SettingsSnapshot
+{
+	/**
+	 * The value of <code>baseMemoryByCpu</code> for a CPU count without a Template.
+	 */
+	private static final int NO_TEMPLATE = 0;
+	/**
+	 * The largest CPU count indexed in <code>baseMemoryByCpu</code>, and the largest the 
+	 * 	schema allows. A larger count, read without the schema, goes in <code>baseMemoryAboveIndex</code>.
+	 */
+	static final int MAX_INDEXED_CPU = 128;
+	
+	private final List<Template> templates;
+	private final List<Environment> environments;
+	/**
+	 * The default memory of the first Template with each CPU count, indexed by CPU count.
+	 */
+	private final int[] baseMemoryByCpu;
+	/**
+	 * The default memory of the first Template with each CPU count above <code>MAX_INDEXED_CPU</code>.
+	 */
+	private final HashMap<Integer, Integer> baseMemoryAboveIndex = new HashMap<Integer, Integer>();
+	/**
+	 * The Environment tags, compiled for classifying server names.
+	 */
+	private final EnvironmentClassifier environmentClassifier;
+	
+	
+	/**
+	 * Get the Templates, in the order they appear in the settings file.
+	 * @return An unmodifiable List of Templates.
+	 */
+	public List<Template> getTemplates()
+	{
+		return templates;
+	}
+	
+	/**
+	 * Get the Environments, in the order they appear in the settings file.
+	 * @return An unmodifiable List of Environments.
+	 */
+	public List<Environment> getEnvironments()
+	{
+		return environments;
+	}
+	
+	EnvironmentClassifier getEnvironmentClassifier()
+	{
+		return environmentClassifier;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param templates The Templates, in settings file order.
+	 * @param environments The Environments, in settings file order.
+	 */
+	SettingsSnapshot(List<Template> templates, List<Environment> environments)
+	{
+		this.templates = Collections.unmodifiableList(new ArrayList<Template>(templates));
+		this.environments = Collections.unmodifiableList(new ArrayList<Environment>(environments));
+		this.environmentClassifier = EnvironmentClassifier.Shared(this.environments);
+		
+		
+		int maxCpu = -1;
+		
+		for (Template template : templates)
+		{
+			maxCpu = Math.max(maxCpu, Math.min(template.getNumOfCPU(), MAX_INDEXED_CPU));
+		}
+		
+		baseMemoryByCpu = new int[maxCpu + 1];
+		Arrays.fill(baseMemoryByCpu, NO_TEMPLATE);
+		
+		//Walk backwards so the first Template with a CPU count wins, as a linear scan would find it
+		for (int i = templates.size() - 1; i >= 0; i--)
+		{
+			Template template = templates.get(i);
+			
+			if (template.getNumOfCPU() > MAX_INDEXED_CPU)
+				baseMemoryAboveIndex.put(template.getNumOfCPU(), template.getDefaultMemory());
+			
+			else if (template.getNumOfCPU() >= 0)
+				baseMemoryByCpu[template.getNumOfCPU()] = template.getDefaultMemory();
+		}
+	}
+	
+	
+	/**
+	 * Get the default memory of the Template with the passed in number of CPUs.
+	 * @param numberOfCPUs The number of CPUs.
+	 * @return The default memory of the Template, or 0 if there is no Template with that many CPUs.
+	 */
+	public int GetBaseMemory(int numberOfCPUs)
+	{
+		if (numberOfCPUs > MAX_INDEXED_CPU)
+		{
+			Integer memory = baseMemoryAboveIndex.get(numberOfCPUs);
+			
+			return memory != null ? memory : NO_TEMPLATE;
+		}
+		
+		if (numberOfCPUs < 0 || numberOfCPUs >= baseMemoryByCpu.length)
+			return NO_TEMPLATE;
+		
+		return baseMemoryByCpu[numberOfCPUs];
+	}
+}
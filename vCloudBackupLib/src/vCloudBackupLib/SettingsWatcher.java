@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watches the settings file, and has <code>Settings</code> read it again
+ * whenever it is created or modified. The directory holding the file is
+ * watched, since editors often replace a file rather than write to it.
+ */
+class SettingsWatcher implements Closeable
+{
+	/**
+	 * The time, in milliseconds, to wait after a change for the writer to finish.
+	 */
+	static final long SETTLE_TIME = 250;
+	
+	private final Settings settings;
+	/**
+	 * The name of the settings file within the watched directory.
+	 */
+	private final Path fileName;
+	private final WatchService watchService;
+	private final Thread thread;
+	
+	
+	/**
+	 * Main constructor. The watch starts straight away.
+	 * @param settings The Settings read again on each change.
+	 * @param file The settings file.
+	 * @throws IOException If the directory of the file cannot be watched.
+	 */
+	SettingsWatcher(Settings settings, Path file) throws IOException
+	{
+		Path absolute = file.toAbsolutePath();
+		
+		this.settings = settings;
+		this.fileName = absolute.getFileName();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		
+		absolute.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		this.thread = new DaemonThreadFactory("vcloud-settings").newThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Watch();
+			}
+		});
+		
+		thread.start();
+	}
+	
+	
+	/**
+	 * Stop watching the settings file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		watchService.close();
+		thread.interrupt();
+	}
+	
+	
+	private void Watch()
+	{
+		try
+		{
+			while (true)
+			{
+				WatchKey key = watchService.take();
+				boolean changed = Changed(key);
+				
+				if (!changed)
+					continue;
+				
+				
+				//Let the writer finish, and fold any further changes into this reload
+				Thread.sleep(SETTLE_TIME);
+				
+				while ((key = watchService.poll()) != null)
+				{
+					Changed(key);
+				}
+				
+				try
+				{
+					settings.ReadSettings();
+				}
+				
+				catch (Exception e)
+				{
+					//Keep the settings already in use until the file is valid again
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			//Closed
+		}
+	}
+	
+	
+	/**
+	 * Check the events of the passed in key for the settings file, and reset the key.
+	 */
+	private boolean Changed(WatchKey key)
+	{
+		boolean changed = false;
+		
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+				changed = true;
+		}
+		
+		key.reset();
+		
+		return changed;
+	}
+}
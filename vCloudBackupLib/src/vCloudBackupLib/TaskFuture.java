@@ -0,0 +1,188 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vcloud.api.rest.schema.TaskType;
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * The outcome of a vCloud <code>Task</code> tracked by a <code>TaskTracker</code>.
+ * It completes with the final TaskType once the task succeeds, and fails with a
+ * <code>VCloudException</code> if the task ends in error or is aborted.
+ * Cancelling only stops the tracking, the task itself keeps running in vCloud.
+ */
+public class TaskFuture implements Future<TaskType>
+{
+	/**
+	 * The href of the task.
+	 */
+	private final String href;
+	private final CountDownLatch done = new CountDownLatch(1);
+	/**
+	 * The Runnables run once the task finishes, or null once they have been run.
+	 */
+	private ArrayList<Runnable> listeners = new ArrayList<Runnable>();
+	private volatile TaskType result;
+	private volatile VCloudException error;
+	private volatile boolean cancelled;
+	
+	
+	/**
+	 * Get the href of the task.
+	 * @return The href of the task.
+	 */
+	public String getHref()
+	{
+		return href;
+	}
+	
+	/**
+	 * Get whether the task finished successfully.
+	 * @return True, if the task succeeded, false if it failed, was cancelled or has not finished.
+	 */
+	public boolean isSuccessful()
+	{
+		return isDone() && result != null;
+	}
+	
+	@Override
+	public boolean isDone()
+	{
+		return done.getCount() == 0;
+	}
+	
+	@Override
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param href The href of the task.
+	 */
+	TaskFuture(String href)
+	{
+		this.href = href;
+	}
+	
+	
+	/**
+	 * Run the passed in Runnable once the task finishes, or straight away if it 
+	 * 	already has. It is run on the thread that completes the task, so it should
+	 * 	be quick.
+	 * @param listener The Runnable to run.
+	 */
+	public void AddListener(Runnable listener)
+	{
+		synchronized (this)
+		{
+			if (listeners != null)
+			{
+				listeners.add(listener);
+				return;
+			}
+		}
+		
+		listener.run();
+	}
+	
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return Finish(null, null, true);
+	}
+	
+	
+	@Override
+	public TaskType get() throws InterruptedException, ExecutionException
+	{
+		done.await();
+		
+		return Result();
+	}
+	
+	
+	@Override
+	public TaskType get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("Task " + href + " did not finish in time");
+		
+		return Result();
+	}
+	
+	
+	/**
+	 * Complete with the final TaskType of a successful task.
+	 * @return True, if this call completed the future, false if it was already done.
+	 */
+	boolean Complete(TaskType task)
+	{
+		return Finish(task, null, false);
+	}
+	
+	
+	/**
+	 * Fail with the passed in error.
+	 * @return True, if this call completed the future, false if it was already done.
+	 */
+	boolean Fail(VCloudException error)
+	{
+		return Finish(null, error, false);
+	}
+	
+	
+	private boolean Finish(TaskType task, VCloudException exception, boolean cancel)
+	{
+		ArrayList<Runnable> toRun;
+		
+		synchronized (this)
+		{
+			if (listeners == null)
+				return false;
+			
+			result = task;
+			error = exception;
+			cancelled = cancel;
+			toRun = listeners;
+			listeners = null;
+		}
+		
+		done.countDown();
+		
+		for (Runnable listener : toRun)
+		{
+			listener.run();
+		}
+		
+		return true;
+	}
+	
+	
+	private TaskType Result() throws ExecutionException
+	{
+		if (cancelled)
+			throw new CancellationException("Tracking of task " + href + " was cancelled");
+		
+		if (error != null)
+			throw new ExecutionException(error);
+		
+		return result;
+	}
+}
@@ -0,0 +1,365 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Listens for the notifications vCloud Director publishes over AMQP, and asks
+ * the <code>TaskTracker</code> to fetch a tracked task as soon as a notification
+ * names it. While the listener is connected the tracker only polls at the
+ * fallback interval; if the connection drops, polling goes back to its normal
+ * interval while the listener reconnects, waiting twice as long after each
+ * failed attempt.
+ * <p>
+ * The connection comes from the passed in <code>ConnectionFactory</code>, so it
+ * can point at a local broker for testing, and <code>HandleMessage</code> can be
+ * fed notification bodies directly.
+ */
+public class TaskNotificationListener implements Closeable
+{
+	/**
+	 * The exchange vCloud Director publishes notifications to by default.
+	 */
+	public static final String DEFAULT_EXCHANGE = "systemExchange";
+	/**
+	 * The default time, in milliseconds, between polls while notifications are arriving.
+	 */
+	public static final long DEFAULT_FALLBACK_POLL_INTERVAL = 30 * 1000L;
+	
+	/**
+	 * The time, in milliseconds, before the first attempt to reconnect after the connection drops.
+	 */
+	static final long INITIAL_RECONNECT_DELAY = 1000L;
+	/**
+	 * The longest time, in milliseconds, between attempts to reconnect.
+	 */
+	static final long MAX_RECONNECT_DELAY = 60 * 1000L;
+	
+	private static final String REL_ENTITY = "entity";
+	private static final String TASK_TYPE = "task";
+	
+	/**
+	 * The tracker notified of each task.
+	 */
+	private final TaskTracker tracker;
+	/**
+	 * The factory the AMQP connection is made from.
+	 */
+	private final ConnectionFactory connectionFactory;
+	/**
+	 * The exchange the notifications are published to.
+	 */
+	private final String exchange;
+	/**
+	 * The time, in milliseconds, between polls while connected.
+	 */
+	private final long fallbackPollInterval;
+	/**
+	 * The tracker's poll interval from before the listener connected.
+	 */
+	private long normalPollInterval;
+	private final DocumentBuilderFactory builderFactory;
+	/**
+	 * The thread reconnects are attempted on.
+	 */
+	private final ScheduledExecutorService reconnector;
+	private volatile Connection connection;
+	/**
+	 * Whether <code>close</code> has been called.
+	 */
+	private volatile boolean closed;
+	
+	
+	/**
+	 * Get whether the listener is connected to the broker.
+	 * @return True, if connected, false otherwise.
+	 */
+	public boolean isConnected()
+	{
+		Connection current = connection;
+		
+		return current != null && current.isOpen();
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param tracker The tracker notified of each task.
+	 * @param connectionFactory The factory the AMQP connection is made from.
+	 * @param exchange The exchange the notifications are published to.
+	 * @param fallbackPollInterval The time, in milliseconds, between polls while connected.
+	 */
+	public TaskNotificationListener(TaskTracker tracker, ConnectionFactory connectionFactory, String exchange, long fallbackPollInterval)
+	{
+		this.tracker = tracker;
+		this.connectionFactory = connectionFactory;
+		this.exchange = exchange;
+		this.fallbackPollInterval = fallbackPollInterval;
+		this.builderFactory = NewBuilderFactory();
+		this.reconnector = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("vcloud-notifications"));
+	}
+	
+	
+	/**
+	 * Connect to the broker, bind a private queue to the exchange, and start
+	 * 	consuming notifications.
+	 * @throws IOException If the broker cannot be reached, or the listener has been closed.
+	 */
+	public synchronized void Start() throws IOException
+	{
+		if (closed)
+			throw new IOException("The listener has been closed");
+		
+		if (isConnected())
+			return;
+		
+		
+		Connection newConnection = connectionFactory.newConnection();
+		
+		try
+		{
+			Channel channel = newConnection.createChannel();
+			String queue = channel.queueDeclare().getQueue();
+			channel.queueBind(queue, exchange, "#");
+			
+			channel.basicConsume(queue, true, new DefaultConsumer(channel)
+			{
+				@Override
+				public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+				{
+					HandleMessage(body);
+				}
+				
+				@Override
+				public void handleShutdownSignal(String consumerTag, ShutdownSignalException signal)
+				{
+					Disconnected();
+					
+					if (!closed && !signal.isInitiatedByApplication())
+						ScheduleReconnect(INITIAL_RECONNECT_DELAY);
+				}
+			});
+		}
+		
+		catch (IOException e)
+		{
+			newConnection.close();
+			throw e;
+		}
+		
+		connection = newConnection;
+		normalPollInterval = tracker.getPollInterval();
+		tracker.setPollInterval(Math.max(normalPollInterval, fallbackPollInterval));
+	}
+	
+	
+	/**
+	 * Disconnect from the broker and stop reconnecting, leaving the tracker to poll at its normal
+	 * 	interval. A closed listener cannot be started again.
+	 */
+	@Override
+	public void close()
+	{
+		Connection current;
+		
+		synchronized (this)
+		{
+			closed = true;
+			current = connection;
+			Disconnected();
+		}
+		
+		reconnector.shutdownNow();
+		
+		if (current != null)
+		{
+			try
+			{
+				current.close();
+			}
+			
+			catch (IOException | ShutdownSignalException e)
+			{
+				//Already closed
+			}
+		}
+	}
+	
+	
+	/**
+	 * Handle the body of a single notification. Every task the notification links
+	 * 	to as its entity is passed to the tracker; anything else is ignored.
+	 * @param body The notification XML.
+	 * @return The number of tracked tasks the notification named.
+	 */
+	int HandleMessage(byte[] body)
+	{
+		Document document;
+		
+		try
+		{
+			DocumentBuilder builder;
+			
+			synchronized (builderFactory)
+			{
+				builder = builderFactory.newDocumentBuilder();
+			}
+			
+			//Report a malformed or refused body by exception only, not on standard error
+			builder.setErrorHandler(new DefaultHandler());
+			document = builder.parse(new ByteArrayInputStream(body));
+		}
+		
+		catch (ParserConfigurationException | SAXException | IOException e)
+		{
+			return 0;
+		}
+		
+		
+		int notified = 0;
+		NodeList elements = document.getElementsByTagNameNS("*", "*");
+		
+		for (int i = 0; i < elements.getLength(); i++)
+		{
+			Element element = (Element) elements.item(i);
+			String id = TaskId(element);
+			
+			if (id != null && tracker.Notify(id))
+				notified++;
+		}
+		
+		return notified;
+	}
+	
+	
+	/**
+	 * Get the id of the task the passed in element links to as its entity.
+	 * @return The id of the task, or null if the element is not a link to a task.
+	 */
+	static String TaskId(Element element)
+	{
+		String name = element.getLocalName();
+		
+		if (!"Link".equals(name) && !"EntityLink".equals(name))
+			return null;
+		
+		if (!REL_ENTITY.equals(element.getAttribute("rel")) || !element.getAttribute("type").contains(TASK_TYPE))
+			return null;
+		
+		
+		String id = element.getAttribute("id");
+		
+		if (id.isEmpty())
+			id = element.getAttribute("href");
+		
+		int start = Math.max(id.lastIndexOf(':'), id.lastIndexOf('/')) + 1;
+		
+		return start < id.length() ? id.substring(start) : null;
+	}
+	
+	
+	/**
+	 * Try to connect again after the passed in delay, and keep trying, each time waiting twice as 
+	 * 	long, until connected or closed. The tracker polls at its normal interval meanwhile.
+	 */
+	private void ScheduleReconnect(final long delay)
+	{
+		try
+		{
+			reconnector.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (closed)
+						return;
+					
+					try
+					{
+						Start();
+					}
+					
+					catch (IOException | RuntimeException e)
+					{
+						ScheduleReconnect(Math.min(delay * 2, MAX_RECONNECT_DELAY));
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		
+		catch (RejectedExecutionException e)
+		{
+			//Shut down
+		}
+	}
+	
+	
+	/**
+	 * Build a parser factory for notification bodies. The bodies come from the broker, 
+	 * 	so DOCTYPEs and external entities are refused.
+	 */
+	private static DocumentBuilderFactory NewBuilderFactory()
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setXIncludeAware(false);
+		factory.setExpandEntityReferences(false);
+		
+		try
+		{
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		}
+		
+		catch (ParserConfigurationException e)
+		{
+			throw new IllegalStateException("The XML parser cannot be set to refuse external entities", e);
+		}
+		
+		return factory;
+	}
+	
+	
+	private synchronized void Disconnected()
+	{
+		if (connection == null)
+			return;
+		
+		connection = null;
+		tracker.setPollInterval(normalPollInterval);
+	}
+}
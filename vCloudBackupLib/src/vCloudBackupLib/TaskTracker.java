@@ -0,0 +1,429 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vcloud.api.rest.schema.TaskType;
+import com.vmware.vcloud.sdk.Task;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.VcloudClient;
+
+/**
+ * Waits on many vCloud tasks from a single thread. Every tracked task is
+ * polled in turn, a batch at a time, and its <code>TaskFuture</code> is
+ * completed once the task ends, so the number of outstanding tasks no longer
+ * sets the number of threads parked in <code>waitForTask</code>.
+ * <p>
+ * Only callers that chain their next step on <code>TaskFuture.AddListener</code>,
+ * as <code>PowerBatch</code> and <code>Server.PowerOffAsync</code> do, hold no
+ * thread while a task runs. <code>Wait</code>, and so <code>Server.PowerOff</code>,
+ * <code>Server.PowerOn</code> and <code>Backup.BackupServer</code>, still park
+ * the calling thread until the task ends; what moves here is the polling, and the
+ * number of those threads is bounded by the backup limits rather than by the tasks.
+ */
+public class TaskTracker implements Closeable
+{
+	/**
+	 * The default time, in milliseconds, between polls.
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 2000L;
+	/**
+	 * The default number of tasks fetched per poll.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	
+	private static final String STATUS_SUCCESS = "success";
+	private static final String STATUS_ERROR = "error";
+	private static final String STATUS_ABORTED = "aborted";
+	private static final String STATUS_CANCELED = "canceled";
+	
+	/**
+	 * The VcloudClient used to access the vCloud API.
+	 */
+	private final VcloudClient client;
+	/**
+	 * The limiter every API request is run through.
+	 */
+	private final RequestLimiter limiter;
+	/**
+	 * The number of tasks fetched per poll.
+	 */
+	private final int batchSize;
+	/**
+	 * The time, in milliseconds, between polls.
+	 */
+	private volatile long pollInterval;
+	/**
+	 * The tasks not yet finished keyed by href, least recently polled first.
+	 */
+	private final LinkedHashMap<String, Tracked> outstanding = new LinkedHashMap<String, Tracked>();
+	/**
+	 * The href of every task not yet finished keyed by id, so a notification finds its task 
+	 * 	without a scan. Guarded by <code>outstanding</code>.
+	 */
+	private final HashMap<String, String> hrefsById = new HashMap<String, String>();
+	/**
+	 * The thread every poll runs on.
+	 */
+	private final ScheduledExecutorService scheduler;
+	
+	
+	/**
+	 * Get the number of tasks not yet finished.
+	 * @return The number of outstanding tasks.
+	 */
+	public int getOutstandingCount()
+	{
+		synchronized (outstanding)
+		{
+			return outstanding.size();
+		}
+	}
+	
+	/**
+	 * Get the time between polls.
+	 * @return The time, in milliseconds, between polls.
+	 */
+	public long getPollInterval()
+	{
+		return pollInterval;
+	}
+	
+	/**
+	 * Set the time between polls, taking effect after the next poll.
+	 * @param pollInterval The time, in milliseconds, between polls.
+	 */
+	public void setPollInterval(long pollInterval)
+	{
+		if (pollInterval < 1)
+			throw new IllegalArgumentException("pollInterval must be at least 1");
+		
+		this.pollInterval = pollInterval;
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Main constructor
+	 * @param client The VcloudClient used to access the vCloud API.
+	 * @param limiter The limiter every API request is run through.
+	 * @param pollInterval The time, in milliseconds, between polls.
+	 * @param batchSize The number of tasks fetched per poll.
+	 */
+	public TaskTracker(VcloudClient client, RequestLimiter limiter, long pollInterval, int batchSize)
+	{
+		if (pollInterval < 1)
+			throw new IllegalArgumentException("pollInterval must be at least 1");
+		
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		
+		this.client = client;
+		this.limiter = limiter;
+		this.batchSize = batchSize;
+		this.pollInterval = pollInterval;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("vcloud-tasks"));
+		
+		SchedulePoll();
+	}
+	
+	
+	/**
+	 * Start tracking the passed in task. A task that has already finished
+	 * 	completes straight away, and a task that is already tracked shares its 
+	 * 	existing TaskFuture.
+	 * @param task The task to track.
+	 * @return The TaskFuture of the task.
+	 */
+	public TaskFuture Track(Task task)
+	{
+		String href = task.getReference().getHref();
+		Tracked tracked;
+		
+		synchronized (outstanding)
+		{
+			tracked = outstanding.get(href);
+			
+			if (tracked != null)
+				return tracked.future;
+			
+			tracked = new Tracked(task, new TaskFuture(href));
+			
+			if (!Finish(tracked.future, task.getResource()))
+			{
+				outstanding.put(href, tracked);
+				hrefsById.put(Id(href), href);
+			}
+		}
+		
+		return tracked.future;
+	}
+	
+	
+	/**
+	 * Fetch the task with the passed in id straight away, rather than waiting for its
+	 * 	turn to be polled. Used when something other than polling, such as a
+	 * 	notification, reports that the task has changed.
+	 * @param id The id of the task, the last part of its href.
+	 * @return True, if the task is tracked and a fetch was queued, false otherwise.
+	 */
+	boolean Notify(String id)
+	{
+		final Tracked tracked;
+		
+		synchronized (outstanding)
+		{
+			String href = hrefsById.get(id);
+			tracked = href != null ? outstanding.remove(href) : null;
+		}
+		
+		if (tracked == null)
+			return false;
+		
+		
+		try
+		{
+			scheduler.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Fetch(tracked);
+				}
+			});
+		}
+		
+		catch (RejectedExecutionException e)
+		{
+			return false;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Stop polling, and fail every task still outstanding.
+	 */
+	@Override
+	public void close()
+	{
+		scheduler.shutdownNow();
+		
+		List<Tracked> remaining;
+		
+		synchronized (outstanding)
+		{
+			remaining = new ArrayList<Tracked>(outstanding.values());
+			outstanding.clear();
+			hrefsById.clear();
+		}
+		
+		for (Tracked tracked : remaining)
+		{
+			tracked.future.Fail(new VCloudException("Task tracker closed before task " + tracked.future.getHref() + " finished"));
+		}
+	}
+	
+	
+	/**
+	 * Fetch the least recently polled batch of tasks, and complete every one that has finished.
+	 */
+	void Poll()
+	{
+		List<Tracked> batch = new ArrayList<Tracked>(batchSize);
+		
+		synchronized (outstanding)
+		{
+			Iterator<Tracked> trackedTasks = outstanding.values().iterator();
+			
+			while (trackedTasks.hasNext() && batch.size() < batchSize)
+			{
+				Tracked tracked = trackedTasks.next();
+				trackedTasks.remove();
+				
+				if (!tracked.future.isDone())
+					batch.add(tracked);
+				
+				else
+					hrefsById.remove(Id(tracked.future.getHref()));
+			}
+		}
+		
+		
+		for (Tracked tracked : batch)
+		{
+			Fetch(tracked);
+		}
+	}
+	
+	
+	/**
+	 * Fetch the passed in task, completing its future if it has finished and 
+	 * 	putting it back at the end of the outstanding tasks if it has not.
+	 */
+	private void Fetch(final Tracked tracked)
+	{
+		TaskType task = null;
+		
+		try
+		{
+			task = limiter.Execute(new ApiCall<TaskType>()
+			{
+				@Override
+				public TaskType call() throws VCloudException
+				{
+					return Task.getTaskByReference(client, tracked.task.getReference()).getResource();
+				}
+			});
+		}
+		
+		catch (VCloudException | RuntimeException e)
+		{
+			//Leave the task to the next poll
+		}
+		
+		
+		boolean finished = task != null && Finish(tracked.future, task);
+		String href = tracked.future.getHref();
+		
+		synchronized (outstanding)
+		{
+			if (!finished && !tracked.future.isDone())
+			{
+				if (!outstanding.containsKey(href))
+					outstanding.put(href, tracked);
+			}
+			
+			else
+				hrefsById.remove(Id(href));
+		}
+	}
+	
+	
+	/**
+	 * Wait for the passed in task, through the tracker if there is one, otherwise
+	 * 	on the calling thread. Either way the calling thread is parked until the task 
+	 * 	ends; chain on <code>Track</code> instead to hold no thread.
+	 * @param tracker The TaskTracker, or null.
+	 * @param task The task to wait for.
+	 * @throws VCloudException If the task failed.
+	 * @throws TimeoutException
+	 */
+	static void Wait(TaskTracker tracker, Task task) throws VCloudException, TimeoutException
+	{
+		if (tracker == null)
+			task.waitForTask(0);
+		
+		else
+			ServerCrawler.Await(tracker.Track(task));
+	}
+	
+	
+	/**
+	 * Poll once the current interval has passed, and schedule the next poll after that.
+	 */
+	private void SchedulePoll()
+	{
+		try
+		{
+			scheduler.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Poll();
+					}
+					
+					finally
+					{
+						SchedulePoll();
+					}
+				}
+			}, pollInterval, TimeUnit.MILLISECONDS);
+		}
+		
+		catch (RejectedExecutionException e)
+		{
+			//Closed
+		}
+	}
+	
+	
+	/**
+	 * Get the id of the task with the passed in href, the last part of the href.
+	 */
+	private static String Id(String href)
+	{
+		return href.substring(href.lastIndexOf('/') + 1);
+	}
+	
+	
+	/**
+	 * Complete the future if the passed in TaskType has finished.
+	 * @return True, if the task has finished, false if it is still running.
+	 */
+	private static boolean Finish(TaskFuture future, TaskType task)
+	{
+		if (!IsFinished(task))
+			return false;
+		
+		
+		if (STATUS_SUCCESS.equals(task.getStatus()))
+			future.Complete(task);
+		
+		else
+		{
+			String message = task.getError() != null ? task.getError().getMessage() : "Task " + task.getStatus();
+			future.Fail(new VCloudException(message));
+		}
+		
+		return true;
+	}
+	
+	
+	private static boolean IsFinished(TaskType task)
+	{
+		if (task == null)
+			return false;
+		
+		String status = task.getStatus();
+		
+		return STATUS_SUCCESS.equals(status) || STATUS_ERROR.equals(status) 
+				|| STATUS_ABORTED.equals(status) || STATUS_CANCELED.equals(status);
+	}
+	
+	
+	/**
+	 * A task being tracked, and its future.
+	 */
+	private static class Tracked
+	{
+		private final Task task;
+		private final TaskFuture future;
+		
+		
+		private Tracked(Task task, TaskFuture future)
+		{
+			this.task = task;
+			this.future = future;
+		}
+	}
+}
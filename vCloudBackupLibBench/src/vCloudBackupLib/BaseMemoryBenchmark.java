@@ -0,0 +1,92 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up the base memory of every server of a vCloud, with the table kept by
+ * <code>SettingsSnapshot</code> and with the scan of <code>Server.GetBaseMemory</code>.
+ * One lookup in five is for a CPU count no template has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BaseMemoryBenchmark
+{
+	private static final int[] CPU_COUNTS = { 1, 2, 4, 8, 3 };
+	
+	@Param({ "1000", "10000", "100000" })
+	public int servers;
+	
+	private int[] cpus;
+	private SettingsSnapshot snapshot;
+	private ArrayList<Settings.Template> templates;
+	
+	
+	@Setup
+	public void Setup() throws Exception
+	{
+		File file = File.createTempFile("lib_settings", ".xml");
+		file.deleteOnExit();
+		FakeVcloud.WriteSettings(file);
+		
+		Settings settings = new Settings(file.getPath());
+		settings.ReadSettings();
+		
+		snapshot = settings.getSnapshot();
+		templates = settings.getTemplates();
+		cpus = new int[servers];
+		
+		for (int i = 0; i < cpus.length; i++)
+		{
+			cpus[i] = CPU_COUNTS[i % CPU_COUNTS.length];
+		}
+	}
+	
+	
+	@Benchmark
+	public long Snapshot()
+	{
+		long total = 0;
+		
+		for (int cpu : cpus)
+		{
+			total += snapshot.GetBaseMemory(cpu);
+		}
+		
+		return total;
+	}
+	
+	
+	@Benchmark
+	public long TemplateScan()
+	{
+		long total = 0;
+		
+		for (int cpu : cpus)
+		{
+			total += Server.GetBaseMemory(cpu, templates);
+		}
+		
+		return total;
+	}
+}
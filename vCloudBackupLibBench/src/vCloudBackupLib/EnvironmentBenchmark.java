@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classifies every server name of a vCloud by Environment, with the shared
+ * <code>EnvironmentClassifier</code> and with the loop <code>Server.GetEnvironmentType</code>
+ * ran before it, which compiled every tag again for every name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EnvironmentBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	public int servers;
+	
+	private ArrayList<String> names;
+	private List<Settings.Environment> environments;
+	private EnvironmentClassifier classifier;
+	
+	
+	@Setup
+	public void Setup() throws Exception
+	{
+		File file = File.createTempFile("lib_settings", ".xml");
+		file.deleteOnExit();
+		FakeVcloud.WriteSettings(file);
+		
+		Settings settings = new Settings(file.getPath());
+		settings.ReadSettings();
+		
+		names = FakeVcloud.ServerNames(servers);
+		environments = settings.getSnapshot().getEnvironments();
+		classifier = settings.getSnapshot().getEnvironmentClassifier();
+	}
+	
+	
+	@Benchmark
+	public void Classifier(Blackhole blackhole)
+	{
+		for (String name : names)
+		{
+			blackhole.consume(classifier.Classify(name));
+		}
+	}
+	
+	
+	@Benchmark
+	public void CompilePerName(Blackhole blackhole)
+	{
+		for (String name : names)
+		{
+			blackhole.consume(GetEnvironmentType(name, environments));
+		}
+	}
+	
+	
+	/**
+	 * Classify the passed in server name the way <code>Server</code> did before the shared classifier.
+	 */
+	private static Server.Environment GetEnvironmentType(String serverName, List<Settings.Environment> environments)
+	{
+		for (Settings.Environment env : environments)
+		{
+			Matcher m = Pattern.compile(env.getTag()).matcher(serverName);
+			
+			if (m.find())
+			{
+				switch (env.getName())
+				{
+					case Server.PRODUCTION_STRING:
+						return Server.Environment.PRODUCTION;
+						
+					case Server.STAGING_STRING:
+						return Server.Environment.STAGING;
+						
+					case Server.DEVELOPMENT_STRING:
+						return Server.Environment.DEVELOPMENT;
+						
+					default:
+						return Server.Environment.UNKNOWN;
+				}
+			}
+		}
+		
+		return Server.Environment.UNKNOWN;
+	}
+}
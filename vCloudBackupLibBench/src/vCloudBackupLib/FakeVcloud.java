@@ -0,0 +1,336 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.vmware.vcloud.api.rest.schema.GuestCustomizationSectionType;
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.Organization;
+import com.vmware.vcloud.sdk.VCloudException;
+import com.vmware.vcloud.sdk.VM;
+import com.vmware.vcloud.sdk.Vapp;
+import com.vmware.vcloud.sdk.Vdc;
+import com.vmware.vcloud.sdk.VirtualCpu;
+import com.vmware.vcloud.sdk.VirtualDisk;
+import com.vmware.vcloud.sdk.VirtualMemory;
+import com.vmware.vcloud.sdk.VirtualNetworkCard;
+
+/**
+ * An in-process stand in for a vCloud, so the benchmarks can crawl and export
+ * without a live vCloud Director. The SDK entities are stub-only mocks, and are
+ * handed out by an <code>EntityCache</code> that looks them up in memory, after an
+ * optional per-request latency. Every vApp gets its own Organization, Vdc and
+ * reference, but the vApps share a small set of VM shapes so that 100k Servers
+ * fit in a benchmark heap.
+ * <p>
+ * The benchmarks live in the library's package so they can reach the crawlers
+ * and the other package-private types directly.
+ */
+class FakeVcloud
+{
+	static final int VDCS_PER_ORGANIZATION = 10;
+	static final int VAPPS_PER_VDC = 100;
+	/**
+	 * The number of distinct VM shapes the vApps share.
+	 */
+	static final int VM_SHAPES = 16;
+	static final String DATA_CENTER = "benchmark";
+
+	/**
+	 * The environment tags the server names are built from, matching the generated settings file.
+	 * The last matches no Environment.
+	 */
+	private static final String[] NAME_TAGS = { "PR", "ST", "DV", "QA" };
+	private static final String[] NAME_ROLES = { "WEB", "APP", "DB", "FS" };
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ArrayList<ReferenceType> organizationRefs = new ArrayList<ReferenceType>();
+	private final HashMap<String, Organization> organizations = new HashMap<String, Organization>();
+	private final HashMap<String, Vdc> vdcs = new HashMap<String, Vdc>();
+	private final HashMap<String, Vapp> vapps = new HashMap<String, Vapp>();
+	/**
+	 * For every vApp, in crawl order, its Organization, Vdc and reference.
+	 */
+	private final ArrayList<Object[]> inventory = new ArrayList<Object[]>();
+
+
+	/**
+	 * Get the references of every Organization.
+	 * @return The Organization references.
+	 */
+	Collection<ReferenceType> getOrganizationRefs()
+	{
+		return organizationRefs;
+	}
+
+
+
+
+
+
+	/**
+	 * Main constructor
+	 * @param servers The number of vApps to create.
+	 * @throws VCloudException
+	 */
+	FakeVcloud(int servers) throws VCloudException
+	{
+		Vapp[] shapes = new Vapp[VM_SHAPES];
+
+		for (int i = 0; i < shapes.length; i++)
+		{
+			shapes[i] = NewVapp(i);
+		}
+
+
+		int perOrganization = VDCS_PER_ORGANIZATION * VAPPS_PER_VDC;
+		int organizationCount = (servers + perOrganization - 1) / perOrganization;
+		int vappNumber = 0;
+
+		for (int o = 0; o < organizationCount; o++)
+		{
+			String orgName = "org" + o;
+			ReferenceType orgRef = QueryCrawler.NewReference(Href("org", orgName), orgName, InventorySnapshot.TYPE_ORG);
+			ArrayList<ReferenceType> vdcRefs = new ArrayList<ReferenceType>();
+			Organization org = Mock(Organization.class);
+			when(org.getReference()).thenReturn(orgRef);
+			when(org.getVdcRefs()).thenReturn(vdcRefs);
+
+			organizationRefs.add(orgRef);
+			organizations.put(orgRef.getHref(), org);
+
+			for (int d = 0; d < VDCS_PER_ORGANIZATION && vappNumber < servers; d++)
+			{
+				String vdcName = orgName + "-vdc" + d;
+				ReferenceType vdcRef = QueryCrawler.NewReference(Href("vdc", vdcName), vdcName, QueryCrawler.TYPE_VDC);
+				ArrayList<ReferenceType> vappRefs = new ArrayList<ReferenceType>();
+				Vdc vdc = Mock(Vdc.class);
+				when(vdc.getReference()).thenReturn(vdcRef);
+				when(vdc.getVappRefs()).thenReturn(vappRefs);
+
+				vdcRefs.add(vdcRef);
+				vdcs.put(vdcRef.getHref(), vdc);
+
+				for (int v = 0; v < VAPPS_PER_VDC && vappNumber < servers; v++, vappNumber++)
+				{
+					String name = ServerName(vappNumber);
+					ReferenceType vappRef = QueryCrawler.NewReference(Href("vApp", "vapp-" + vappNumber), name, QueryCrawler.TYPE_VAPP);
+
+					vappRefs.add(vappRef);
+					vapps.put(vappRef.getHref(), shapes[vappNumber % shapes.length]);
+					inventory.add(new Object[] { org, vdc, vappRef });
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Create an <code>EntityCache</code> that answers every lookup from this vCloud.
+	 * @param latencyMicros The time, in microseconds, each lookup takes, standing in for a request.
+	 * @return The new EntityCache.
+	 */
+	EntityCache NewEntityCache(final long latencyMicros)
+	{
+		return new EntityCache(null, new RequestLimiter(), EntityCache.DEFAULT_TTL, EntityCache.DEFAULT_MAX_ENTRIES)
+		{
+			@Override
+			public Organization getOrganization(ReferenceType ref)
+			{
+				Request(latencyMicros);
+				return organizations.get(ref.getHref());
+			}
+
+			@Override
+			public Vdc getVdc(ReferenceType ref)
+			{
+				Request(latencyMicros);
+				return vdcs.get(ref.getHref());
+			}
+
+			@Override
+			public Vapp getVapp(ReferenceType ref)
+			{
+				Request(latencyMicros);
+				return vapps.get(ref.getHref());
+			}
+		};
+	}
+
+
+	/**
+	 * Build a fully resolved Server for every vApp, as a crawl that is not lazy would.
+	 * @param classifier Classifies each Server by Environment.
+	 * @return An ArrayList of the Servers, in crawl order.
+	 */
+	ArrayList<Server> NewServers(EnvironmentClassifier classifier)
+	{
+		ArrayList<Server> servers = new ArrayList<Server>(inventory.size());
+
+		for (Object[] entry : inventory)
+		{
+			ReferenceType vappRef = (ReferenceType) entry[2];
+
+			servers.add(new Server((Organization) entry[0], (Vdc) entry[1], vappRef.getName(), vapps.get(vappRef.getHref()),
+					DATA_CENTER, classifier));
+		}
+
+		return servers;
+	}
+
+
+	/**
+	 * Build the server names a vCloud of the passed in size would hold. Three in four
+	 * carry an environment tag, and the tag sits at a varying depth in the name.
+	 * @param count The number of names.
+	 * @return An ArrayList of the names.
+	 */
+	static ArrayList<String> ServerNames(int count)
+	{
+		ArrayList<String> names = new ArrayList<String>(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			names.add(ServerName(i));
+		}
+
+		return names;
+	}
+
+
+	/**
+	 * Write a settings file with the layout of lib_settings.xml.
+	 * @param file The file to write.
+	 * @throws IOException
+	 */
+	static void WriteSettings(File file) throws IOException
+	{
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+
+		try
+		{
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n<settings>\n\t<system>\n\t\t<templates>\n");
+
+			for (int cpus = 1; cpus <= 8; cpus *= 2)
+			{
+				out.write("\t\t\t<template>\n\t\t\t\t<cpu>" + cpus + "</cpu>\n\t\t\t\t<memory>" + cpus * 2 + "</memory>\n\t\t\t</template>\n");
+			}
+
+			out.write("\t\t</templates>\n\t\t<environments>\n");
+			out.write("\t\t\t<environment name=\"" + Server.PRODUCTION_STRING + "\">PR</environment>\n");
+			out.write("\t\t\t<environment name=\"" + Server.STAGING_STRING + "\">ST</environment>\n");
+			out.write("\t\t\t<environment name=\"" + Server.DEVELOPMENT_STRING + "\">DV</environment>\n");
+			out.write("\t\t</environments>\n\t</system>\n</settings>\n");
+		}
+
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	private static String ServerName(int number)
+	{
+		String tag = NAME_TAGS[number % NAME_TAGS.length];
+		String role = NAME_ROLES[(number / NAME_TAGS.length) % NAME_ROLES.length];
+
+		return (number % 2 == 0 ? role + tag : "CUST" + number % 97 + "-" + role + "-" + tag) + String.format("%05d", number);
+	}
+
+
+	private static String Href(String type, String id)
+	{
+		return "https://vcloud.example.com/api/" + type + "/" + id;
+	}
+
+
+	private static void Request(long latencyMicros)
+	{
+		if (latencyMicros > 0)
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+	}
+
+
+	/**
+	 * Build a vApp holding one VM of the passed in shape. The CPU count cycles through
+	 * the templates, every other VM has memory beyond its template, and the number of
+	 * extra disks varies.
+	 */
+	private static Vapp NewVapp(int shape) throws VCloudException
+	{
+		int cpus = 1 << (shape % 4);
+
+		VirtualCpu cpu = Mock(VirtualCpu.class);
+		when(cpu.getNoOfCpus()).thenReturn(cpus);
+
+		VirtualMemory memory = Mock(VirtualMemory.class);
+		when(memory.getMemorySize()).thenReturn(BigInteger.valueOf((cpus * 2 + shape % 2) * 1024));
+
+		List<VirtualDisk> disks = new ArrayList<VirtualDisk>();
+
+		for (int i = 0; i < 2 + shape % 3; i++)
+		{
+			VirtualDisk disk = Mock(VirtualDisk.class);
+			when(disk.isHardDisk()).thenReturn(true);
+			when(disk.getHardDiskSize()).thenReturn(BigInteger.valueOf(40960));
+			disks.add(disk);
+		}
+
+		GuestCustomizationSectionType guest = new GuestCustomizationSectionType();
+		guest.setComputerName("vm-" + shape);
+
+		VM vm = Mock(VM.class);
+		when(vm.getCpu()).thenReturn(cpu);
+		when(vm.getMemory()).thenReturn(memory);
+		when(vm.getDisks()).thenReturn(disks);
+		when(vm.getNetworkCards()).thenReturn(Arrays.asList(NewNetworkCard(shape, 2, false), NewNetworkCard(shape, 1, true)));
+		when(vm.getGuestCustomizationSection()).thenReturn(guest);
+
+		Vapp vapp = Mock(Vapp.class);
+		when(vapp.getReference()).thenReturn(QueryCrawler.NewReference(Href("vApp", "shape-" + shape), "shape-" + shape,
+				QueryCrawler.TYPE_VAPP));
+		when(vapp.getChildrenVms()).thenReturn(Arrays.asList(vm));
+
+		return vapp;
+	}
+
+
+	private static VirtualNetworkCard NewNetworkCard(int shape, int network, boolean primary) throws VCloudException
+	{
+		VirtualNetworkCard card = Mock(VirtualNetworkCard.class);
+		when(card.isPrimaryNetworkConnection()).thenReturn(primary);
+		when(card.getIpAddress()).thenReturn("10." + network + ".0." + (shape + 1));
+		when(card.getNetwork()).thenReturn("org0-network" + network);
+
+		return card;
+	}
+
+
+	/**
+	 * Create a mock that does not record its invocations, so a long benchmark does not fill the heap.
+	 */
+	private static <T> T Mock(Class<T> type)
+	{
+		return mock(type, withSettings().stubOnly());
+	}
+}
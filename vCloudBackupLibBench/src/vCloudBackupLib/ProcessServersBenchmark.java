@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vcloud.api.rest.schema.ReferenceType;
+import com.vmware.vcloud.sdk.VCloudException;
+
+/**
+ * Crawls a fake vCloud for its Servers the way <code>Backup.ProcessServers</code> does
+ * in <code>InventoryMode.WALK</code>: one request at a time for a single crawl thread,
+ * and in parallel otherwise. Raise <code>latencyMicros</code> to see what the
+ * parallel crawl saves against a remote vCloud.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ProcessServersBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	public int servers;
+	
+	@Param({ "1", "8" })
+	public int crawlThreads;
+	
+	@Param({ "false", "true" })
+	public boolean lazy;
+	
+	@Param({ "0" })
+	public long latencyMicros;
+	
+	private Collection<ReferenceType> organizations;
+	private EntityCache cache;
+	private EnvironmentClassifier classifier;
+	
+	
+	@Setup
+	public void Setup() throws Exception
+	{
+		File file = File.createTempFile("lib_settings", ".xml");
+		file.deleteOnExit();
+		FakeVcloud.WriteSettings(file);
+		
+		Settings settings = new Settings(file.getPath());
+		settings.ReadSettings();
+		
+		FakeVcloud vcloud = new FakeVcloud(servers);
+		organizations = vcloud.getOrganizationRefs();
+		cache = vcloud.NewEntityCache(latencyMicros);
+		classifier = settings.getEnvironmentClassifier();
+	}
+	
+	
+	@Benchmark
+	public ArrayList<Server> ProcessServers() throws VCloudException
+	{
+		ServerCrawler crawler = new ServerCrawler(cache, FakeVcloud.DATA_CENTER, classifier);
+		crawler.setLazy(lazy);
+		
+		if (crawlThreads > 1)
+			return crawler.CrawlParallel(organizations, crawlThreads);
+		
+		else
+			return crawler.Crawl(organizations);
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import vCloudBackupLib.Backup.ExcelFormat;
+
+/**
+ * Exports the Servers of a fake vCloud with <code>Backup.ServerDetailExcel</code>.
+ * Unless <code>cached</code> is set, every Server's detail is dropped before each
+ * export, so it is fetched again as on a first export. An .xls sheet cannot hold
+ * 100k rows, so at that size <code>XLS</code> only measures the export being refused.
+ * <p>
+ * <code>Backup</code> reads lib_settings.xml from the working directory, so run
+ * this from a directory holding one, such as the vCloudBackupLib project.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ServerDetailExcelBenchmark
+{
+	@Param({ "1000", "10000", "100000" })
+	public int servers;
+	
+	@Param({ "XLS", "XLSX" })
+	public ExcelFormat format;
+	
+	@Param({ "false", "true" })
+	public boolean cached;
+	
+	@Param({ "8" })
+	public int exportThreads;
+	
+	private Backup backup;
+	private ArrayList<Server> serverList;
+	private File file;
+	
+	
+	@Setup
+	public void Setup() throws Exception
+	{
+		backup = new Backup();
+		backup.setExportThreads(exportThreads);
+		
+		serverList = new FakeVcloud(servers).NewServers(backup.getSettings().getEnvironmentClassifier());
+		file = File.createTempFile("servers", format == ExcelFormat.XLS ? ".xls" : ".xlsx");
+	}
+	
+	
+	@Setup(Level.Invocation)
+	public void DropDetails()
+	{
+		if (!cached)
+		{
+			for (Server server : serverList)
+			{
+				server.InvalidateDetail();
+			}
+		}
+	}
+	
+	
+	@TearDown
+	public void TearDown()
+	{
+		file.delete();
+	}
+	
+	
+	@Benchmark
+	public boolean ServerDetailExcel()
+	{
+		return backup.ServerDetailExcel(serverList, file.getPath(), format);
+	}
+}
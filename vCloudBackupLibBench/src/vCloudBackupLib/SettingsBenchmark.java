@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads the settings file with the streaming, validating parser <code>ReadSettings</code>
+ * uses, and with the DOM reader it replaced. The <code>Startup</code> benchmarks time a
+ * single read in a fresh JVM, which is what a <code>Backup</code> pays when it is
+ * created, including loading the parser and compiling the schema; the others time
+ * a read once both are warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SettingsBenchmark
+{
+	private String path;
+	
+	
+	@Setup
+	public void Setup() throws Exception
+	{
+		File file = File.createTempFile("lib_settings", ".xml");
+		file.deleteOnExit();
+		FakeVcloud.WriteSettings(file);
+		
+		path = file.getPath();
+	}
+	
+	
+	@Benchmark
+	public SettingsSnapshot Stax() throws Exception
+	{
+		Settings settings = new Settings(path);
+		settings.ReadSettings();
+		
+		return settings.getSnapshot();
+	}
+	
+	
+	@Benchmark
+	public SettingsSnapshot Dom() throws Exception
+	{
+		return new Settings(path).ReadSettingsDom();
+	}
+	
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Fork(20)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public SettingsSnapshot StartupStax() throws Exception
+	{
+		return Stax();
+	}
+	
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Fork(20)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public SettingsSnapshot StartupDom() throws Exception
+	{
+		return Dom();
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * 
+ */
+package vCloudBackupLib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import vCloudBackupLib.simulator.VcloudSimulator;
+
+/**
+ * Runs an unchanged <code>Backup</code> against a <code>VcloudSimulator</code> on
+ * the loopback address, so crawls and backups go through the SDK and HTTP as they
+ * would against a live vCloud Director. <code>Crawl</code> reports the time of a
+ * whole crawl, <code>BackupServer</code> samples single backups so the tail shows
+ * in the percentiles, and <code>BackupServers</code> times a batch of backups.
+ * <p>
+ * <code>Backup</code> reads lib_settings.xml from the working directory, so run
+ * this from a directory holding one, such as the vCloudBackupLib project.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SimulatedBackupBenchmark
+{
+	@Param({ "1000", "10000" })
+	public int servers;
+
+	/**
+	 * The time, in milliseconds, the simulator takes to answer each request.
+	 */
+	@Param({ "0", "20" })
+	public long latency;
+
+	@Param({ "0", "0.01" })
+	public double errorRate;
+
+	@Param({ "1", "8" })
+	public int crawlThreads;
+
+	@Param({ "50" })
+	public int batchSize;
+
+	@Param({ "100" })
+	public long taskDuration;
+
+	private VcloudSimulator simulator;
+	private Backup backup;
+	private ArrayList<Server> serverList;
+	private final AtomicInteger nextServer = new AtomicInteger();
+
+
+	@Setup
+	public void Setup() throws Exception
+	{
+		int perOrganization = VcloudSimulator.DEFAULT_VDCS_PER_ORGANIZATION * VcloudSimulator.DEFAULT_VAPPS_PER_VDC;
+
+		simulator = new VcloudSimulator();
+		simulator.setInventorySize((servers + perOrganization - 1) / perOrganization, VcloudSimulator.DEFAULT_VDCS_PER_ORGANIZATION,
+				VcloudSimulator.DEFAULT_VAPPS_PER_VDC);
+		simulator.setLatency(latency, latency / 4);
+		simulator.setErrorRate(errorRate);
+		simulator.setTaskDuration(taskDuration);
+		simulator.Start();
+
+		backup = new Backup("benchmark", "benchmark", "org0", simulator.getUrl(), FakeVcloud.DATA_CENTER,
+				VcloudSimulator.DEFAULT_CATALOG_NAME);
+		backup.setCrawlThreads(crawlThreads);
+
+		if (!backup.Login())
+			throw new IllegalStateException("Could not log in to the simulator at " + simulator.getUrl());
+
+		serverList = backup.getServers();
+	}
+
+
+	@TearDown
+	public void TearDown()
+	{
+		backup.Logout();
+		simulator.close();
+	}
+
+
+	@Benchmark
+	public int Crawl()
+	{
+		final AtomicInteger found = new AtomicInteger();
+
+		backup.StreamServers(new ServerListener()
+		{
+			@Override
+			public void ServerFound(Server server)
+			{
+				found.incrementAndGet();
+			}
+		});
+
+		return found.get();
+	}
+
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	public boolean BackupServer()
+	{
+		return backup.BackupServer(NextServers(1).get(0), "benchmark");
+	}
+
+
+	@Benchmark
+	public int BackupServers() throws InterruptedException
+	{
+		BatchBackupResult result = backup.BackupServers(NextServers(batchSize), "benchmark");
+		result.Await();
+
+		return result.getSucceeded().size();
+	}
+
+
+	/**
+	 * Take the next Servers in turn, so successive backups spread over the inventory.
+	 */
+	private List<Server> NextServers(int count)
+	{
+		List<Server> next = new ArrayList<Server>(count);
+		int start = nextServer.getAndAdd(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			next.add(serverList.get(Math.abs((start + i) % serverList.size())));
+		}
+
+		return next;
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * 
+ */
+package vCloudBackupLib.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The entities a <code>VcloudSimulator</code> serves, keyed by id. Every
+ * Organization holds the same number of Vdcs, every Vdc the same number of
+ * vApps, and every vApp a single VM whose sizing cycles through the templates
+ * of lib_settings.xml. vApps and vApp templates can be added and removed while
+ * the simulator runs.
+ */
+class SimulatedInventory
+{
+	private static final String[] NAME_TAGS = { "PR", "ST", "DV", "QA" };
+	private static final String[] NAME_ROLES = { "WEB", "APP", "DB", "FS" };
+
+	final ConcurrentHashMap<String, Org> orgs = new ConcurrentHashMap<String, Org>();
+	final ConcurrentHashMap<String, Vdc> vdcs = new ConcurrentHashMap<String, Vdc>();
+	final ConcurrentHashMap<String, VApp> vapps = new ConcurrentHashMap<String, VApp>();
+	final ConcurrentHashMap<String, VAppTemplate> templates = new ConcurrentHashMap<String, VAppTemplate>();
+	final ConcurrentHashMap<String, Catalog> catalogs = new ConcurrentHashMap<String, Catalog>();
+	final ConcurrentHashMap<String, CatalogItem> catalogItems = new ConcurrentHashMap<String, CatalogItem>();
+	/**
+	 * Every Organization, in the order they were created.
+	 */
+	final List<Org> orgList = new ArrayList<Org>();
+
+	private final AtomicLong nextId = new AtomicLong(1);
+
+
+	/**
+	 * Main constructor
+	 * @param organizations The number of Organizations.
+	 * @param vdcsPerOrganization The number of Vdcs in each Organization.
+	 * @param vappsPerVdc The number of vApps in each Vdc.
+	 * @param catalogName The name of the catalog every Organization holds.
+	 */
+	SimulatedInventory(int organizations, int vdcsPerOrganization, int vappsPerVdc, String catalogName)
+	{
+		int vappNumber = 0;
+
+		for (int o = 0; o < organizations; o++)
+		{
+			Org org = new Org(NewId(), "org" + o);
+			org.catalog = new Catalog(NewId(), catalogName, org);
+
+			orgs.put(org.id, org);
+			orgList.add(org);
+			catalogs.put(org.catalog.id, org.catalog);
+
+			for (int d = 0; d < vdcsPerOrganization; d++)
+			{
+				Vdc vdc = new Vdc(NewId(), org.name + "-vdc" + d, org);
+
+				org.vdcs.add(vdc);
+				vdcs.put(vdc.id, vdc);
+
+				for (int v = 0; v < vappsPerVdc; v++, vappNumber++)
+				{
+					int cpus = 1 << (vappNumber % 4);
+
+					AddVApp(new VApp(NewId(), ServerName(vappNumber), vdc, cpus, (cpus * 2 + vappNumber % 2) * 1024,
+							2 + vappNumber % 3, vappNumber));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Get a new id, unique within this inventory.
+	 * @return The id.
+	 */
+	String NewId()
+	{
+		return Long.toString(nextId.getAndIncrement());
+	}
+
+
+	void AddVApp(VApp vapp)
+	{
+		vapps.put(vapp.id, vapp);
+		vapp.vdc.vapps.add(vapp);
+	}
+
+
+	void RemoveVApp(VApp vapp)
+	{
+		vapps.remove(vapp.id);
+		vapp.vdc.vapps.remove(vapp);
+	}
+
+
+	void RemoveTemplate(VAppTemplate template)
+	{
+		templates.remove(template.id);
+
+		for (CatalogItem item : template.vdc.org.catalog.items)
+		{
+			if (item.template == template)
+			{
+				catalogItems.remove(item.id);
+				template.vdc.org.catalog.items.remove(item);
+			}
+		}
+	}
+
+
+	private static String ServerName(int number)
+	{
+		return NAME_ROLES[(number / NAME_TAGS.length) % NAME_ROLES.length] + NAME_TAGS[number % NAME_TAGS.length] +
+				String.format("%05d", number);
+	}
+
+
+	static class Org
+	{
+		final String id;
+		final String name;
+		final List<Vdc> vdcs = new ArrayList<Vdc>();
+		Catalog catalog;
+
+
+		Org(String id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+
+	static class Vdc
+	{
+		final String id;
+		final String name;
+		final Org org;
+		final List<VApp> vapps = new CopyOnWriteArrayList<VApp>();
+
+
+		Vdc(String id, String name, Org org)
+		{
+			this.id = id;
+			this.name = name;
+			this.org = org;
+		}
+	}
+
+
+	static class VApp
+	{
+		final String id;
+		final String name;
+		final Vdc vdc;
+		final int cpus;
+		final int memoryMb;
+		final int disks;
+		/**
+		 * Sets the VM's addresses apart.
+		 */
+		final int number;
+		final long created = System.currentTimeMillis();
+		volatile boolean poweredOn = true;
+		/**
+		 * Whether the vApp is still being created, as a clone is until its task finishes.
+		 */
+		volatile boolean resolving;
+
+
+		VApp(String id, String name, Vdc vdc, int cpus, int memoryMb, int disks, int number)
+		{
+			this.id = id;
+			this.name = name;
+			this.vdc = vdc;
+			this.cpus = cpus;
+			this.memoryMb = memoryMb;
+			this.disks = disks;
+			this.number = number;
+		}
+	}
+
+
+	static class VAppTemplate
+	{
+		final String id;
+		final String name;
+		final String description;
+		final Vdc vdc;
+		final long created = System.currentTimeMillis();
+		volatile boolean resolving = true;
+
+
+		VAppTemplate(String id, String name, String description, Vdc vdc)
+		{
+			this.id = id;
+			this.name = name;
+			this.description = description;
+			this.vdc = vdc;
+		}
+	}
+
+
+	static class Catalog
+	{
+		final String id;
+		final String name;
+		final Org org;
+		final List<CatalogItem> items = new CopyOnWriteArrayList<CatalogItem>();
+
+
+		Catalog(String id, String name, Org org)
+		{
+			this.id = id;
+			this.name = name;
+			this.org = org;
+		}
+	}
+
+
+	static class CatalogItem
+	{
+		final String id;
+		final String name;
+		final String description;
+		final Catalog catalog;
+		final VAppTemplate template;
+		final long created = System.currentTimeMillis();
+
+
+		CatalogItem(String id, String name, String description, Catalog catalog, VAppTemplate template)
+		{
+			this.id = id;
+			this.name = name;
+			this.description = description;
+			this.catalog = catalog;
+			this.template = template;
+		}
+	}
+}
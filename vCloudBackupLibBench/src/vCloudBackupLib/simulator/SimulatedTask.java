@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package vCloudBackupLib.simulator;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A task started by a <code>VcloudSimulator</code>. It runs for a set time,
+ * then succeeds or fails; on success its effect, such as a vApp changing power
+ * state, is applied once, either when it is next read or when its time is up.
+ */
+class SimulatedTask
+{
+	final String id;
+	final String operation;
+	final String ownerHref;
+	final String ownerName;
+	final String ownerType;
+	final long start = System.currentTimeMillis();
+	final long duration;
+	final boolean fails;
+
+	/**
+	 * Applied once, when the task succeeds.
+	 */
+	private final Runnable effect;
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+
+	/**
+	 * Main constructor
+	 * @param id The id of the task.
+	 * @param operation The name of the operation the task runs.
+	 * @param ownerHref The href of the entity the task runs on.
+	 * @param ownerName The name of the entity the task runs on.
+	 * @param ownerType The media type of the entity the task runs on.
+	 * @param duration The time, in milliseconds, the task runs for.
+	 * @param fails Whether the task ends in an error.
+	 * @param effect Applied once, when the task succeeds, or null if there is none.
+	 */
+	SimulatedTask(String id, String operation, String ownerHref, String ownerName, String ownerType, long duration, boolean fails,
+			Runnable effect)
+	{
+		this.id = id;
+		this.operation = operation;
+		this.ownerHref = ownerHref;
+		this.ownerName = ownerName;
+		this.ownerType = ownerType;
+		this.duration = duration;
+		this.fails = fails;
+		this.effect = effect;
+	}
+
+
+	/**
+	 * Get the status of the task, in the terms of the vCloud API, finishing it if its time is up.
+	 * @return running, success or error.
+	 */
+	String getStatus()
+	{
+		if (System.currentTimeMillis() - start < duration)
+			return "running";
+
+		Complete();
+
+		return fails ? "error" : "success";
+	}
+
+
+	/**
+	 * Finish the task, applying its effect if it succeeded and has not already been applied.
+	 */
+	void Complete()
+	{
+		if (completed.compareAndSet(false, true) && !fails && effect != null)
+			effect.run();
+	}
+}
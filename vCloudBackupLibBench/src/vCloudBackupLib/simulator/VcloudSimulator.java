@@ -0,0 +1,922 @@
+/**
+ * 
+ */
+package vCloudBackupLib.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import vCloudBackupLib.simulator.SimulatedInventory.Catalog;
+import vCloudBackupLib.simulator.SimulatedInventory.CatalogItem;
+import vCloudBackupLib.simulator.SimulatedInventory.Org;
+import vCloudBackupLib.simulator.SimulatedInventory.VApp;
+import vCloudBackupLib.simulator.SimulatedInventory.VAppTemplate;
+import vCloudBackupLib.simulator.SimulatedInventory.Vdc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embeddable HTTP simulator of the parts of the vCloud Director 1.5 API the
+ * library uses: login, Organizations, Vdcs, vApps and their VMs, power actions,
+ * <code>captureVApp</code>, <code>cloneVApp</code>, catalogs, the adminVApp,
+ * adminVM and adminCatalogItem queries, deletes and task polling. Point a
+ * <code>Backup</code> at <code>getUrl()</code> and it runs unchanged, so crawls
+ * and batch backups can be measured without a live vCloud.
+ * <p>
+ * The size of the inventory, the latency of each call, the share of calls that
+ * fail and how long tasks take are all set before <code>Start</code>. Any user
+ * name and password are accepted. Only plain HTTP is served.
+ */
+public class VcloudSimulator implements Closeable
+{
+	/**
+	 * The API version served.
+	 */
+	public static final String API_VERSION = "1.5";
+	/**
+	 * The default name of the catalog every Organization holds.
+	 */
+	public static final String DEFAULT_CATALOG_NAME = "Backups";
+	public static final int DEFAULT_ORGANIZATIONS = 1;
+	public static final int DEFAULT_VDCS_PER_ORGANIZATION = 10;
+	public static final int DEFAULT_VAPPS_PER_VDC = 100;
+	/**
+	 * The default time, in milliseconds, a task runs for.
+	 */
+	public static final long DEFAULT_TASK_DURATION = 200;
+	/**
+	 * The default number of threads requests are served on.
+	 */
+	public static final int DEFAULT_THREADS = 32;
+
+	static final String AUTH_HEADER = "x-vcloud-authorization";
+
+	/**
+	 * The largest page a query returns, as vCloud Director serves by default.
+	 */
+	private static final int MAX_PAGE_SIZE = 128;
+	private static final int DEFAULT_PAGE_SIZE = 25;
+	/**
+	 * How long, in milliseconds, a finished task can still be read.
+	 */
+	private static final long TASK_RETENTION = 10 * 60 * 1000L;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Pattern ROOT_NAME = Pattern.compile("<(?:\\w+:)?\\w+Params?\\b[^>]*?\\sname=\"([^\"]*)\"|<(?:\\w+:)?CatalogItem\\b[^>]*?\\sname=\"([^\"]*)\"");
+	private static final Pattern SOURCE_HREF = Pattern.compile("<(?:\\w+:)?(?:Source|Entity)\\b[^>]*?\\shref=\"([^\"]*)\"");
+	private static final Pattern DESCRIPTION = Pattern.compile("<(?:\\w+:)?Description>([^<]*)</(?:\\w+:)?Description>");
+	private static final Pattern FILTER = Pattern.compile("(\\w+)==([^;,()]*)");
+
+	private final int port;
+	private int organizations = DEFAULT_ORGANIZATIONS;
+	private int vdcsPerOrganization = DEFAULT_VDCS_PER_ORGANIZATION;
+	private int vappsPerVdc = DEFAULT_VAPPS_PER_VDC;
+	private String catalogName = DEFAULT_CATALOG_NAME;
+	private long latency;
+	private long latencyJitter;
+	private double errorRate;
+	private long taskDuration = DEFAULT_TASK_DURATION;
+	private double taskErrorRate;
+	private int threads = DEFAULT_THREADS;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+	private SimulatedInventory inventory;
+	private VcloudXml xml;
+	private String url;
+	private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentHashMap<String, SimulatedTask> tasks = new ConcurrentHashMap<String, SimulatedTask>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+
+	/**
+	 * Get the URL to pass to <code>Backup</code> as the vCloud URL.
+	 * @return The URL, or null if the simulator is not started.
+	 */
+	public String getUrl()
+	{
+		return url;
+	}
+
+	/**
+	 * Get the number of requests served since the simulator was started.
+	 * @return The number of requests.
+	 */
+	public long getRequestCount()
+	{
+		return requests.get();
+	}
+
+	/**
+	 * Get the number of requests failed on purpose since the simulator was started.
+	 * @return The number of injected errors.
+	 */
+	public long getErrorCount()
+	{
+		return errors.get();
+	}
+
+	/**
+	 * Get the total number of vApps the inventory is built with.
+	 * @return The number of vApps.
+	 */
+	public int getVappCount()
+	{
+		return organizations * vdcsPerOrganization * vappsPerVdc;
+	}
+
+	/**
+	 * Set the size of the inventory. Takes effect the next time the simulator is started.
+	 * @param organizations The number of Organizations.
+	 * @param vdcsPerOrganization The number of Vdcs in each Organization.
+	 * @param vappsPerVdc The number of vApps in each Vdc.
+	 */
+	public void setInventorySize(int organizations, int vdcsPerOrganization, int vappsPerVdc)
+	{
+		if (organizations < 1 || vdcsPerOrganization < 0 || vappsPerVdc < 0)
+			throw new IllegalArgumentException("There must be at least 1 organization, and the vdc and vApp counts cannot be negative");
+
+		this.organizations = organizations;
+		this.vdcsPerOrganization = vdcsPerOrganization;
+		this.vappsPerVdc = vappsPerVdc;
+	}
+
+	/**
+	 * Set the name of the catalog every Organization holds. Takes effect the next time the simulator is started.
+	 * @param catalogName The catalog name.
+	 */
+	public void setCatalogName(String catalogName)
+	{
+		this.catalogName = catalogName;
+	}
+
+	/**
+	 * Set how long each call takes. Each call waits the latency plus a random share of the jitter.
+	 * @param latency The time, in milliseconds, every call takes at least.
+	 * @param latencyJitter The most time, in milliseconds, added at random to each call.
+	 */
+	public void setLatency(long latency, long latencyJitter)
+	{
+		if (latency < 0 || latencyJitter < 0)
+			throw new IllegalArgumentException("latency and latencyJitter cannot be negative");
+
+		this.latency = latency;
+		this.latencyJitter = latencyJitter;
+	}
+
+	/**
+	 * Set the share of calls, other than logging in, that fail with a 503 Service Unavailable error.
+	 * @param errorRate The share of calls that fail, between 0 and 1.
+	 */
+	public void setErrorRate(double errorRate)
+	{
+		if (errorRate < 0 || errorRate > 1)
+			throw new IllegalArgumentException("errorRate must be between 0 and 1");
+
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Set how long each task runs for.
+	 * @param taskDuration The time, in milliseconds, a task runs for.
+	 */
+	public void setTaskDuration(long taskDuration)
+	{
+		if (taskDuration < 0)
+			throw new IllegalArgumentException("taskDuration cannot be negative");
+
+		this.taskDuration = taskDuration;
+	}
+
+	/**
+	 * Set the share of tasks that end in an error.
+	 * @param taskErrorRate The share of tasks that fail, between 0 and 1.
+	 */
+	public void setTaskErrorRate(double taskErrorRate)
+	{
+		if (taskErrorRate < 0 || taskErrorRate > 1)
+			throw new IllegalArgumentException("taskErrorRate must be between 0 and 1");
+
+		this.taskErrorRate = taskErrorRate;
+	}
+
+	/**
+	 * Set the number of threads requests are served on. Takes effect the next time the simulator is started.
+	 * @param threads The number of threads.
+	 */
+	public void setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+
+		this.threads = threads;
+	}
+
+
+
+
+
+
+	/**
+	 * Default constructor, listening on a free port.
+	 */
+	public VcloudSimulator()
+	{
+		this(0);
+	}
+
+
+	/**
+	 * Main constructor
+	 * @param port The port to listen on, or 0 for a free port.
+	 */
+	public VcloudSimulator(int port)
+	{
+		this.port = port;
+	}
+
+
+	/**
+	 * Build the inventory and start serving on the loopback address.
+	 * @throws IOException If the port cannot be listened on.
+	 */
+	public synchronized void Start() throws IOException
+	{
+		if (server != null)
+			return;
+
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+		xml = new VcloudXml(url);
+		inventory = new SimulatedInventory(organizations, vdcsPerOrganization, vappsPerVdc, catalogName);
+		requests.set(0);
+		errors.set(0);
+
+		executor = Executors.newFixedThreadPool(threads, NewThreadFactory("vcloud-simulator"));
+		scheduler = Executors.newSingleThreadScheduledExecutor(NewThreadFactory("vcloud-simulator-tasks"));
+
+		server.setExecutor(executor);
+		server.createContext("/api/", new ApiHandler());
+		server.start();
+	}
+
+
+	/**
+	 * Stop serving, and drop the inventory, the sessions and the tasks.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (server == null)
+			return;
+
+
+		server.stop(0);
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+
+		server = null;
+		url = null;
+		inventory = null;
+		sessions.clear();
+		tasks.clear();
+	}
+
+
+	private static ThreadFactory NewThreadFactory(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicLong count = new AtomicLong();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+
+
+	/**
+	 * Start a task on the passed in entity. Its effect is applied when it succeeds.
+	 */
+	private SimulatedTask StartTask(String operation, String ownerHref, String ownerName, String ownerType, Runnable effect)
+	{
+		final SimulatedTask task = new SimulatedTask(inventory.NewId(), operation, ownerHref, ownerName, ownerType, taskDuration,
+				ThreadLocalRandom.current().nextDouble() < taskErrorRate, effect);
+		tasks.put(task.id, task);
+
+		scheduler.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				task.Complete();
+			}
+		}, taskDuration, TimeUnit.MILLISECONDS);
+
+		scheduler.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				tasks.remove(task.id);
+			}
+		}, taskDuration + TASK_RETENTION, TimeUnit.MILLISECONDS);
+
+		return task;
+	}
+
+
+	/**
+	 * Serves every request under /api/.
+	 */
+	private class ApiHandler implements HttpHandler
+	{
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				requests.incrementAndGet();
+				Delay();
+
+				Response response = Route(exchange);
+				Send(exchange, response.status, response.type, response.body);
+			}
+
+			catch (RuntimeException e)
+			{
+				Send(exchange, 500, VcloudXml.TYPE_ERROR, xml.Error(500, "INTERNAL_SERVER_ERROR", String.valueOf(e)));
+			}
+
+			finally
+			{
+				exchange.close();
+			}
+		}
+
+
+		private Response Route(HttpExchange exchange) throws IOException
+		{
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath().substring("/api/".length());
+			List<String> parts = new ArrayList<String>(Arrays.asList(path.split("/")));
+			parts.removeAll(Collections.singleton(""));
+
+			if (parts.isEmpty())
+				return NotFound();
+
+			String resource = parts.get(0);
+
+
+			//Unauthenticated
+			if (resource.equals("versions") && method.equals("GET"))
+				return new Response(200, "application/xml", xml.Versions());
+
+			if (resource.equals("sessions") && method.equals("POST"))
+				return Login(exchange);
+
+
+			String token = exchange.getRequestHeaders().getFirst(AUTH_HEADER);
+
+			if (token == null || !sessions.contains(token))
+				return Error(401, "ACCESS_TO_RESOURCE_IS_FORBIDDEN", "Not logged in");
+
+			if (resource.equals("session") && method.equals("DELETE"))
+			{
+				sessions.remove(token);
+				return new Response(204, null, null);
+			}
+
+			if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+			{
+				errors.incrementAndGet();
+				return Error(503, "SERVICE_UNAVAILABLE", "Simulated failure");
+			}
+
+
+			String id = parts.size() > 1 ? parts.get(1) : null;
+			String action = parts.size() > 2 ? Join(parts.subList(2, parts.size())) : null;
+
+			switch (resource)
+			{
+				case "org":
+					if (id == null)
+						return Ok(VcloudXml.TYPE_ORG_LIST, xml.OrgList(inventory.orgList));
+
+					Org org = inventory.orgs.get(id);
+					return org == null ? NotFound() : Ok(VcloudXml.TYPE_ORG, xml.Org(org));
+
+				case "admin":
+					return "extension".equals(id) ? Ok(VcloudXml.TYPE_EXTENSION, xml.Extension()) : NotFound();
+
+				case "vdc":
+					return Vdc(exchange, inventory.vdcs.get(id), action);
+
+				case "vApp":
+					return VApp(exchange, id, action);
+
+				case "vAppTemplate":
+					return VAppTemplate(exchange, inventory.templates.get(Strip(id, "vappTemplate-")));
+
+				case "catalog":
+					return Catalog(exchange, inventory.catalogs.get(id), action);
+
+				case "catalogItem":
+					CatalogItem item = inventory.catalogItems.get(id);
+					return item == null ? NotFound() : Ok(VcloudXml.TYPE_CATALOG_ITEM, xml.CatalogItem(item));
+
+				case "task":
+					SimulatedTask task = tasks.get(id);
+					return task == null ? NotFound() : Ok(VcloudXml.TYPE_TASK, xml.Task(task));
+
+				case "query":
+					return Query(exchange);
+
+				default:
+					return NotFound();
+			}
+		}
+
+
+		/**
+		 * Log in. Any user name and password are accepted, but HTTP Basic credentials must be sent.
+		 */
+		private Response Login(HttpExchange exchange)
+		{
+			String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			
+			if (authorization == null || !authorization.startsWith("Basic "))
+				return Error(401, "ACCESS_TO_RESOURCE_IS_FORBIDDEN", "Missing credentials");
+			
+			
+			String token = UUID.randomUUID().toString();
+			sessions.add(token);
+			exchange.getResponseHeaders().add(AUTH_HEADER, token);
+			
+			return Ok(VcloudXml.TYPE_SESSION, xml.Session());
+		}
+		
+		
+		private Response Vdc(HttpExchange exchange, final Vdc vdc, String action) throws IOException
+		{
+			if (vdc == null)
+				return NotFound();
+
+			if (action == null)
+				return Ok(VcloudXml.TYPE_VDC, xml.Vdc(vdc));
+
+			if (!exchange.getRequestMethod().equals("POST"))
+				return NotFound();
+
+
+			String body = ReadBody(exchange);
+			VApp source = inventory.vapps.get(Strip(LastSegment(Find(SOURCE_HREF, body)), "vapp-"));
+			String name = Find(ROOT_NAME, body);
+
+			if (source == null || name == null)
+				return Error(400, "BAD_REQUEST", "The source vApp or the name is missing");
+
+			if (action.equals("action/captureVApp"))
+			{
+				if (source.poweredOn)
+					return Error(400, "BAD_REQUEST", "The vApp must be powered off to be captured");
+
+				final VAppTemplate template = new VAppTemplate(inventory.NewId(), name, Find(DESCRIPTION, body), vdc);
+				inventory.templates.put(template.id, template);
+
+				SimulatedTask task = StartTask("vdcCaptureTemplate", xml.Href(template), template.name, VcloudXml.TYPE_VAPP_TEMPLATE, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						template.resolving = false;
+					}
+				});
+
+				return new Response(201, VcloudXml.TYPE_VAPP_TEMPLATE, xml.VAppTemplate(template, Collections.singletonList(task)));
+			}
+
+			if (action.equals("action/cloneVApp"))
+			{
+				final VApp clone = new VApp(inventory.NewId(), name, vdc, source.cpus, source.memoryMb, source.disks, source.number);
+				clone.poweredOn = false;
+				clone.resolving = true;
+				inventory.AddVApp(clone);
+
+				SimulatedTask task = StartTask("vdcCopyVapp", xml.Href(clone), clone.name, VcloudXml.TYPE_VAPP, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						clone.resolving = false;
+					}
+				});
+
+				return new Response(201, VcloudXml.TYPE_VAPP, xml.VApp(clone, Collections.singletonList(task)));
+			}
+
+			return NotFound();
+		}
+
+
+		private Response VApp(HttpExchange exchange, String id, String action)
+		{
+			String method = exchange.getRequestMethod();
+			boolean vm = id != null && id.startsWith("vm-");
+			final VApp vapp = inventory.vapps.get(Strip(id, vm ? "vm-" : "vapp-"));
+
+			if (vapp == null)
+				return NotFound();
+
+			if (action == null && method.equals("GET"))
+			{
+				if (vm)
+					return Ok(VcloudXml.TYPE_VM, xml.Vm(vapp, vapp.poweredOn ? "4" : "8", true));
+
+				return Ok(VcloudXml.TYPE_VAPP, xml.VApp(vapp, null));
+			}
+
+			if (action == null && method.equals("DELETE"))
+			{
+				if (vapp.poweredOn)
+					return Error(400, "BAD_REQUEST", "The vApp must be powered off to be deleted");
+
+				return Accepted(StartTask("vdcDeleteVapp", xml.Href(vapp), vapp.name, VcloudXml.TYPE_VAPP, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						inventory.RemoveVApp(vapp);
+					}
+				}));
+			}
+
+			if (method.equals("POST") && ("power/action/powerOn".equals(action) || "power/action/powerOff".equals(action)))
+			{
+				final boolean on = action.endsWith("powerOn");
+
+				if (vapp.poweredOn == on)
+					return Error(400, "BAD_REQUEST", "The requested operation could not be executed since vApp \"" + vapp.name +
+							"\" is already " + (on ? "running" : "powered off"));
+
+				return Accepted(StartTask(on ? "vappDeploy" : "vappPowerOff", xml.Href(vapp), vapp.name, VcloudXml.TYPE_VAPP, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						vapp.poweredOn = on;
+					}
+				}));
+			}
+
+			return NotFound();
+		}
+
+
+		private Response VAppTemplate(HttpExchange exchange, final VAppTemplate template)
+		{
+			if (template == null)
+				return NotFound();
+
+			if (exchange.getRequestMethod().equals("GET"))
+				return Ok(VcloudXml.TYPE_VAPP_TEMPLATE, xml.VAppTemplate(template, null));
+
+			if (exchange.getRequestMethod().equals("DELETE"))
+			{
+				return Accepted(StartTask("vdcDeleteTemplate", xml.Href(template), template.name, VcloudXml.TYPE_VAPP_TEMPLATE, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						inventory.RemoveTemplate(template);
+					}
+				}));
+			}
+
+			return NotFound();
+		}
+
+
+		private Response Catalog(HttpExchange exchange, Catalog catalog, String action) throws IOException
+		{
+			if (catalog == null)
+				return NotFound();
+
+			if (action == null)
+				return Ok(VcloudXml.TYPE_CATALOG, xml.Catalog(catalog));
+
+			if (!action.equals("catalogItems") || !exchange.getRequestMethod().equals("POST"))
+				return NotFound();
+
+
+			String body = ReadBody(exchange);
+			VAppTemplate template = inventory.templates.get(Strip(LastSegment(Find(SOURCE_HREF, body)), "vappTemplate-"));
+			String name = Find(ROOT_NAME, body);
+
+			if (template == null || name == null)
+				return Error(400, "BAD_REQUEST", "The vApp template or the name is missing");
+
+			CatalogItem item = new CatalogItem(inventory.NewId(), name, Find(DESCRIPTION, body), catalog, template);
+			inventory.catalogItems.put(item.id, item);
+			catalog.items.add(item);
+
+			return new Response(201, VcloudXml.TYPE_CATALOG_ITEM, xml.CatalogItem(item));
+		}
+
+
+		/**
+		 * Answer the adminVApp, adminVM and adminCatalogItem queries, a page at a time. Of
+		 * the filters, only those on name and catalogName are applied.
+		 */
+		private Response Query(HttpExchange exchange) throws UnsupportedEncodingException
+		{
+			Map<String, String> params = QueryParams(exchange.getRequestURI().getRawQuery());
+			String type = params.get("type");
+			int page = Math.max(1, ParseInt(params.get("page"), 1));
+			int pageSize = Math.min(MAX_PAGE_SIZE, Math.max(1, ParseInt(params.get("pageSize"), DEFAULT_PAGE_SIZE)));
+			Map<String, String> filter = new HashMap<String, String>();
+
+			if (params.get("filter") != null)
+			{
+				Matcher m = FILTER.matcher(params.get("filter"));
+
+				while (m.find())
+				{
+					filter.put(m.group(1), m.group(2));
+				}
+			}
+
+
+			List<String> records = new ArrayList<String>();
+			String named = filter.get("name");
+			int total = 0;
+			int first = (page - 1) * pageSize;
+
+			if ("adminVApp".equals(type) || "adminVM".equals(type))
+			{
+				for (Org org : inventory.orgList)
+				{
+					for (Vdc vdc : org.vdcs)
+					{
+						for (VApp vapp : vdc.vapps)
+						{
+							if (named != null && !named.equals(vapp.name))
+								continue;
+
+							if (total >= first && total < first + pageSize)
+								records.add(type.equals("adminVApp") ? xml.AdminVAppRecord(vapp) : xml.AdminVMRecord(vapp));
+
+							total++;
+						}
+					}
+				}
+			}
+
+			else if ("adminCatalogItem".equals(type))
+			{
+				String wanted = filter.get("catalogName");
+
+				for (Org org : inventory.orgList)
+				{
+					if (wanted != null && !wanted.equals(org.catalog.name))
+						continue;
+
+					for (CatalogItem item : org.catalog.items)
+					{
+						if (named != null && !named.equals(item.name))
+							continue;
+
+						if (total >= first && total < first + pageSize)
+							records.add(xml.AdminCatalogItemRecord(item));
+
+						total++;
+					}
+				}
+			}
+
+			else
+				return Error(400, "BAD_REQUEST", "Unsupported query type " + type);
+
+
+			return Ok(VcloudXml.TYPE_QUERY_RECORDS, xml.QueryRecords(type, records, total, page, pageSize));
+		}
+
+
+		/**
+		 * Wait for the configured latency.
+		 */
+		private void Delay()
+		{
+			long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0);
+
+			if (delay <= 0)
+				return;
+
+			try
+			{
+				Thread.sleep(delay);
+			}
+
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+
+		private Response Ok(String type, String body)
+		{
+			return new Response(200, type, body);
+		}
+
+
+		private Response Accepted(SimulatedTask task)
+		{
+			return new Response(202, VcloudXml.TYPE_TASK, xml.Task(task));
+		}
+
+
+		private Response NotFound()
+		{
+			return Error(404, "RESOURCE_NOT_FOUND", "The requested resource was not found");
+		}
+
+
+		private Response Error(int status, String code, String message)
+		{
+			return new Response(status, VcloudXml.TYPE_ERROR, xml.Error(status, code, message));
+		}
+
+
+		private void Send(HttpExchange exchange, int status, String type, String body) throws IOException
+		{
+			if (body == null)
+			{
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+
+
+			byte[] bytes = body.getBytes(UTF8);
+
+			if (type != null)
+				exchange.getResponseHeaders().set("Content-Type", type + (type.startsWith("application/vnd") ? ";version=" + API_VERSION : ""));
+
+			exchange.sendResponseHeaders(status, bytes.length);
+
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}
+	}
+
+
+	private static String ReadBody(HttpExchange exchange) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while ((read = in.read(buffer)) != -1)
+		{
+			body.write(buffer, 0, read);
+		}
+
+		return new String(body.toByteArray(), UTF8);
+	}
+
+
+	/**
+	 * Get the first group that matched the passed in pattern in the passed in text, unescaped.
+	 * @return The value, or null if the pattern does not match.
+	 */
+	private static String Find(Pattern pattern, String text)
+	{
+		Matcher m = pattern.matcher(text);
+
+		if (!m.find())
+			return null;
+
+		for (int group = 1; group <= m.groupCount(); group++)
+		{
+			if (m.group(group) != null)
+				return VcloudXml.Unescape(m.group(group));
+		}
+
+		return null;
+	}
+
+
+	private static String Join(List<String> parts)
+	{
+		StringBuilder joined = new StringBuilder();
+		
+		for (String part : parts)
+		{
+			joined.append(joined.length() > 0 ? "/" : "").append(part);
+		}
+		
+		return joined.toString();
+	}
+	
+	
+	private static String LastSegment(String href)
+	{
+		return href == null ? null : href.substring(href.lastIndexOf('/') + 1);
+	}
+
+
+	private static String Strip(String id, String prefix)
+	{
+		return id != null && id.startsWith(prefix) ? id.substring(prefix.length()) : id;
+	}
+
+
+	private static int ParseInt(String value, int defaultValue)
+	{
+		try
+		{
+			return value == null ? defaultValue : Integer.parseInt(value);
+		}
+
+		catch (NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
+
+
+	private static Map<String, String> QueryParams(String query) throws UnsupportedEncodingException
+	{
+		Map<String, String> params = new HashMap<String, String>();
+
+		if (query == null)
+			return params;
+
+		for (String pair : query.split("&"))
+		{
+			int equals = pair.indexOf('=');
+
+			if (equals > 0)
+				params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+
+		return params;
+	}
+
+
+	/**
+	 * A response waiting to be sent.
+	 */
+	private static class Response
+	{
+		private final int status;
+		private final String type;
+		private final String body;
+
+
+		private Response(int status, String type, String body)
+		{
+			this.status = status;
+			this.type = type;
+			this.body = body;
+		}
+	}
+}
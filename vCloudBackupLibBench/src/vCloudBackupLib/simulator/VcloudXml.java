@@ -0,0 +1,512 @@
+/**
+ * 
+ */
+package vCloudBackupLib.simulator;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import vCloudBackupLib.simulator.SimulatedInventory.Catalog;
+import vCloudBackupLib.simulator.SimulatedInventory.CatalogItem;
+import vCloudBackupLib.simulator.SimulatedInventory.Org;
+import vCloudBackupLib.simulator.SimulatedInventory.VApp;
+import vCloudBackupLib.simulator.SimulatedInventory.VAppTemplate;
+import vCloudBackupLib.simulator.SimulatedInventory.Vdc;
+
+/**
+ * Renders the simulated entities as vCloud API 1.5 documents. Only the
+ * elements and links the SDK reads for the calls the library makes are
+ * written.
+ */
+class VcloudXml
+{
+	static final String NS = "http://www.vmware.com/vcloud/v1.5";
+	static final String NS_VERSIONS = "http://www.vmware.com/vcloud/versions";
+	static final String NS_EXTENSION = "http://www.vmware.com/vcloud/extension/v1.5";
+	static final String NS_OVF = "http://schemas.dmtf.org/ovf/envelope/1";
+	static final String NS_RASD = "http://schemas.dmtf.org/wbem/wscim/1/cim-schema/2/CIM_ResourceAllocationSettingData";
+	static final String NS_VSSD = "http://schemas.dmtf.org/wbem/wscim/1/cim-schema/2/CIM_VirtualSystemSettingData";
+
+	static final String TYPE_SESSION = "application/vnd.vmware.vcloud.session+xml";
+	static final String TYPE_ORG_LIST = "application/vnd.vmware.vcloud.orgList+xml";
+	static final String TYPE_ORG = "application/vnd.vmware.vcloud.org+xml";
+	static final String TYPE_VDC = "application/vnd.vmware.vcloud.vdc+xml";
+	static final String TYPE_VAPP = "application/vnd.vmware.vcloud.vApp+xml";
+	static final String TYPE_VM = "application/vnd.vmware.vcloud.vm+xml";
+	static final String TYPE_VAPP_TEMPLATE = "application/vnd.vmware.vcloud.vAppTemplate+xml";
+	static final String TYPE_CATALOG = "application/vnd.vmware.vcloud.catalog+xml";
+	static final String TYPE_CATALOG_ITEM = "application/vnd.vmware.vcloud.catalogItem+xml";
+	static final String TYPE_TASK = "application/vnd.vmware.vcloud.task+xml";
+	static final String TYPE_ERROR = "application/vnd.vmware.vcloud.error+xml";
+	static final String TYPE_EXTENSION = "application/vnd.vmware.admin.vmwextension+xml";
+	static final String TYPE_QUERY_RECORDS = "application/vnd.vmware.vcloud.query.records+xml";
+	static final String TYPE_QUERY_LIST = "application/vnd.vmware.vcloud.query.queryList+xml";
+	static final String TYPE_CAPTURE_PARAMS = "application/vnd.vmware.vcloud.captureVAppParams+xml";
+	static final String TYPE_CLONE_PARAMS = "application/vnd.vmware.vcloud.cloneVAppParams+xml";
+
+	private static final String STATUS_RESOLVING = "0";
+	private static final String STATUS_POWERED_ON = "4";
+	private static final String STATUS_POWERED_OFF = "8";
+
+	/**
+	 * The base of every href, such as http://localhost:8080/api/.
+	 */
+	private final String api;
+
+
+	/**
+	 * Main constructor
+	 * @param baseUrl The URL the simulator is reached at, without a trailing slash.
+	 */
+	VcloudXml(String baseUrl)
+	{
+		this.api = baseUrl + "/api/";
+	}
+
+
+	String Versions()
+	{
+		return Header() + "<SupportedVersions xmlns=\"" + NS_VERSIONS + "\">" +
+				"<VersionInfo deprecated=\"false\"><Version>" + VcloudSimulator.API_VERSION + "</Version>" +
+				"<LoginUrl>" + api + "sessions</LoginUrl></VersionInfo></SupportedVersions>";
+	}
+
+
+	String Session()
+	{
+		return Header() + "<Session xmlns=\"" + NS + "\" type=\"" +
+				TYPE_SESSION + "\" href=\"" + api + "session/\">" +
+				Link("down", TYPE_ORG_LIST, api + "org/", null) +
+				Link("down", TYPE_QUERY_LIST, api + "query", null) +
+				Link("down", "application/vnd.vmware.admin.vcloud+xml", api + "admin/", null) +
+				Link("down", TYPE_EXTENSION, api + "admin/extension", null) +
+				"</Session>";
+	}
+
+
+	String OrgList(List<Org> orgs)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+		xml.append("<OrgList xmlns=\"").append(NS).append("\" type=\"").append(TYPE_ORG_LIST).append("\" href=\"").append(api).append("org/\">");
+
+		for (Org org : orgs)
+		{
+			xml.append("<Org type=\"").append(TYPE_ORG).append("\" name=\"").append(Escape(org.name)).append("\" href=\"")
+					.append(Href(org)).append("\"/>");
+		}
+
+		return xml.append("</OrgList>").toString();
+	}
+
+
+	String Org(Org org)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+		xml.append("<Org xmlns=\"").append(NS).append("\"").append(Entity(org.name, "org", org.id, TYPE_ORG, Href(org))).append(">");
+
+		for (Vdc vdc : org.vdcs)
+		{
+			xml.append(Link("down", TYPE_VDC, Href(vdc), vdc.name));
+		}
+
+		xml.append(Link("down", TYPE_CATALOG, Href(org.catalog), org.catalog.name));
+		xml.append("<Description/><FullName>").append(Escape(org.name)).append("</FullName>");
+
+		return xml.append("</Org>").toString();
+	}
+
+
+	String Extension()
+	{
+		return Header() + "<vmext:VMWExtension xmlns=\"" + NS + "\" xmlns:vmext=\"" + NS_EXTENSION + "\" type=\"" + TYPE_EXTENSION +
+				"\" href=\"" + api + "admin/extension\">" +
+				Link("up", "application/vnd.vmware.admin.vcloud+xml", api + "admin/", null) +
+				"</vmext:VMWExtension>";
+	}
+
+
+	String Vdc(Vdc vdc)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+		xml.append("<Vdc xmlns=\"").append(NS).append("\" status=\"1\"").append(Entity(vdc.name, "vdc", vdc.id, TYPE_VDC, Href(vdc))).append(">");
+		xml.append(Link("up", TYPE_ORG, Href(vdc.org), null));
+		xml.append(Link("add", TYPE_CAPTURE_PARAMS, Href(vdc) + "/action/captureVApp", null));
+		xml.append(Link("add", TYPE_CLONE_PARAMS, Href(vdc) + "/action/cloneVApp", null));
+		xml.append("<AllocationModel>AllocationPool</AllocationModel><ResourceEntities>");
+
+		for (VApp vapp : vdc.vapps)
+		{
+			xml.append("<ResourceEntity type=\"").append(TYPE_VAPP).append("\" name=\"").append(Escape(vapp.name)).append("\" href=\"")
+					.append(Href(vapp)).append("\"/>");
+		}
+
+		return xml.append("</ResourceEntities><IsEnabled>true</IsEnabled></Vdc>").toString();
+	}
+
+
+	String VApp(VApp vapp, List<SimulatedTask> tasks)
+	{
+		String status = vapp.resolving ? STATUS_RESOLVING : vapp.poweredOn ? STATUS_POWERED_ON : STATUS_POWERED_OFF;
+		StringBuilder xml = new StringBuilder(Header());
+
+		xml.append("<VApp").append(Namespaces()).append(" deployed=\"").append(vapp.poweredOn).append("\" status=\"").append(status).append("\"")
+				.append(Entity(vapp.name, "vapp", vapp.id, TYPE_VAPP, Href(vapp))).append(">");
+		xml.append(Link("power:powerOn", null, Href(vapp) + "/power/action/powerOn", null));
+		xml.append(Link("power:powerOff", null, Href(vapp) + "/power/action/powerOff", null));
+		xml.append(Link("remove", null, Href(vapp), null));
+		xml.append(Link("up", TYPE_VDC, Href(vapp.vdc), null));
+		xml.append("<Description/>");
+		xml.append(Tasks(tasks));
+		xml.append("<Children>").append(Vm(vapp, status, false)).append("</Children>");
+
+		return xml.append("</VApp>").toString();
+	}
+
+
+	/**
+	 * Render the single VM of the passed in vApp, with the hardware, network and guest sections the library reads.
+	 * @param vapp The vApp.
+	 * @param status The status of the VM, in the terms of the vCloud API.
+	 * @param document True, to render a whole document, false to render an element for the Children of a vApp.
+	 * @return The Vm.
+	 */
+	String Vm(VApp vapp, String status, boolean document)
+	{
+		String href = api + "vApp/vm-" + vapp.id;
+		String network = vapp.vdc.org.name + "-Internal";
+		int host = vapp.number + 1;
+		String ip = "10." + (host >> 16 & 255) + "." + (host >> 8 & 255) + "." + (host & 255);
+		String mac = String.format("00:50:56:%02x:%02x:%02x", host >> 16 & 255, host >> 8 & 255, host & 255);
+		StringBuilder xml = new StringBuilder(document ? Header() : "");
+
+		xml.append("<Vm").append(document ? Namespaces() : "").append(" needsCustomization=\"false\" deployed=\"").append(vapp.poweredOn).append("\" status=\"").append(status).append("\"")
+				.append(Entity(vapp.name, "vm", vapp.id, TYPE_VM, href)).append(">");
+		xml.append(Link("up", TYPE_VAPP, Href(vapp), null));
+		xml.append("<Description/>");
+
+		xml.append("<ovf:VirtualHardwareSection ovf:transport=\"\" vcloud:type=\"application/vnd.vmware.vcloud.virtualHardwareSection+xml\" vcloud:href=\"")
+				.append(href).append("/virtualHardwareSection/\">");
+		xml.append("<ovf:Info>Virtual hardware requirements</ovf:Info>");
+		xml.append("<ovf:System><vssd:ElementName>Virtual Hardware Family</vssd:ElementName><vssd:InstanceID>0</vssd:InstanceID>")
+				.append("<vssd:VirtualSystemIdentifier>").append(Escape(vapp.name)).append("</vssd:VirtualSystemIdentifier>")
+				.append("<vssd:VirtualSystemType>vmx-07</vssd:VirtualSystemType></ovf:System>");
+
+		xml.append("<ovf:Item><rasd:Address>").append(mac).append("</rasd:Address><rasd:AddressOnParent>0</rasd:AddressOnParent>")
+				.append("<rasd:AutomaticAllocation>true</rasd:AutomaticAllocation>")
+				.append("<rasd:Connection vcloud:ipAddressingMode=\"POOL\" vcloud:ipAddress=\"").append(ip)
+				.append("\" vcloud:primaryNetworkConnection=\"true\">").append(Escape(network)).append("</rasd:Connection>")
+				.append("<rasd:Description>E1000 ethernet adapter on &quot;").append(Escape(network)).append("&quot;</rasd:Description>")
+				.append("<rasd:ElementName>Network adapter 0</rasd:ElementName><rasd:InstanceID>1</rasd:InstanceID>")
+				.append("<rasd:ResourceSubType>E1000</rasd:ResourceSubType><rasd:ResourceType>10</rasd:ResourceType></ovf:Item>");
+
+		xml.append("<ovf:Item><rasd:Address>0</rasd:Address><rasd:Description>SCSI Controller</rasd:Description>")
+				.append("<rasd:ElementName>SCSI Controller 0</rasd:ElementName><rasd:InstanceID>2</rasd:InstanceID>")
+				.append("<rasd:ResourceSubType>lsilogic</rasd:ResourceSubType><rasd:ResourceType>6</rasd:ResourceType></ovf:Item>");
+
+		for (int i = 0; i < vapp.disks; i++)
+		{
+			xml.append("<ovf:Item><rasd:AddressOnParent>").append(i).append("</rasd:AddressOnParent>")
+					.append("<rasd:Description>Hard disk</rasd:Description><rasd:ElementName>Hard disk ").append(i + 1)
+					.append("</rasd:ElementName><rasd:HostResource vcloud:capacity=\"40960\" vcloud:busSubType=\"lsilogic\" vcloud:busType=\"6\"/>")
+					.append("<rasd:InstanceID>").append(2000 + i).append("</rasd:InstanceID><rasd:Parent>2</rasd:Parent>")
+					.append("<rasd:ResourceType>17</rasd:ResourceType></ovf:Item>");
+		}
+
+		xml.append("<ovf:Item vcloud:type=\"application/vnd.vmware.vcloud.rasdItem+xml\" vcloud:href=\"").append(href)
+				.append("/virtualHardwareSection/cpu\"><rasd:AllocationUnits>hertz * 10^6</rasd:AllocationUnits>")
+				.append("<rasd:Description>Number of Virtual CPUs</rasd:Description><rasd:ElementName>").append(vapp.cpus)
+				.append(" virtual CPU(s)</rasd:ElementName><rasd:InstanceID>4</rasd:InstanceID><rasd:Reservation>0</rasd:Reservation>")
+				.append("<rasd:ResourceType>3</rasd:ResourceType><rasd:VirtualQuantity>").append(vapp.cpus)
+				.append("</rasd:VirtualQuantity><rasd:Weight>0</rasd:Weight></ovf:Item>");
+
+		xml.append("<ovf:Item vcloud:type=\"application/vnd.vmware.vcloud.rasdItem+xml\" vcloud:href=\"").append(href)
+				.append("/virtualHardwareSection/memory\"><rasd:AllocationUnits>byte * 2^20</rasd:AllocationUnits>")
+				.append("<rasd:Description>Memory Size</rasd:Description><rasd:ElementName>").append(vapp.memoryMb)
+				.append(" MB of memory</rasd:ElementName><rasd:InstanceID>5</rasd:InstanceID><rasd:Reservation>0</rasd:Reservation>")
+				.append("<rasd:ResourceType>4</rasd:ResourceType><rasd:VirtualQuantity>").append(vapp.memoryMb)
+				.append("</rasd:VirtualQuantity><rasd:Weight>0</rasd:Weight></ovf:Item>");
+		xml.append("</ovf:VirtualHardwareSection>");
+
+		xml.append("<NetworkConnectionSection type=\"application/vnd.vmware.vcloud.networkConnectionSection+xml\" href=\"").append(href)
+				.append("/networkConnectionSection/\" ovf:required=\"false\"><ovf:Info>Specifies the available VM network connections</ovf:Info>")
+				.append("<PrimaryNetworkConnectionIndex>0</PrimaryNetworkConnectionIndex>")
+				.append("<NetworkConnection network=\"").append(Escape(network)).append("\" needsCustomization=\"false\">")
+				.append("<NetworkConnectionIndex>0</NetworkConnectionIndex><IpAddress>").append(ip).append("</IpAddress>")
+				.append("<IsConnected>true</IsConnected><MACAddress>").append(mac).append("</MACAddress>")
+				.append("<IpAddressAllocationMode>POOL</IpAddressAllocationMode></NetworkConnection></NetworkConnectionSection>");
+
+		xml.append("<GuestCustomizationSection type=\"application/vnd.vmware.vcloud.guestCustomizationSection+xml\" href=\"").append(href)
+				.append("/guestCustomizationSection/\" ovf:required=\"false\"><ovf:Info>Specifies Guest OS Customization Settings</ovf:Info>")
+				.append("<Enabled>true</Enabled><ChangeSid>false</ChangeSid><VirtualMachineId>").append(vapp.id).append("</VirtualMachineId>")
+				.append("<JoinDomainEnabled>false</JoinDomainEnabled><UseOrgSettings>false</UseOrgSettings>")
+				.append("<AdminPasswordEnabled>false</AdminPasswordEnabled><AdminPasswordAuto>true</AdminPasswordAuto>")
+				.append("<ResetPasswordRequired>false</ResetPasswordRequired><ComputerName>").append(Escape(ComputerName(vapp)))
+				.append("</ComputerName></GuestCustomizationSection>");
+
+		return xml.append("</Vm>").toString();
+	}
+
+
+	String VAppTemplate(VAppTemplate template, List<SimulatedTask> tasks)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+
+		xml.append("<VAppTemplate xmlns=\"").append(NS).append("\" ovfDescriptorUploaded=\"true\" goldMaster=\"false\" status=\"")
+				.append(template.resolving ? STATUS_RESOLVING : STATUS_POWERED_OFF).append("\"")
+				.append(Entity(template.name, "vapptemplate", template.id, TYPE_VAPP_TEMPLATE, Href(template))).append(">");
+		xml.append(Link("remove", null, Href(template), null));
+		xml.append(Link("up", TYPE_VDC, Href(template.vdc), null));
+		xml.append("<Description>").append(Escape(template.description)).append("</Description>");
+		xml.append(Tasks(tasks));
+
+		return xml.append("</VAppTemplate>").toString();
+	}
+
+
+	String Catalog(Catalog catalog)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+
+		xml.append("<Catalog xmlns=\"").append(NS).append("\"").append(Entity(catalog.name, "catalog", catalog.id, TYPE_CATALOG, Href(catalog)))
+				.append(">");
+		xml.append(Link("up", TYPE_ORG, Href(catalog.org), null));
+		xml.append(Link("add", TYPE_CATALOG_ITEM, Href(catalog) + "/catalogItems", null));
+		xml.append("<Description/><CatalogItems>");
+
+		for (CatalogItem item : catalog.items)
+		{
+			xml.append("<CatalogItem type=\"").append(TYPE_CATALOG_ITEM).append("\" name=\"").append(Escape(item.name)).append("\" href=\"")
+					.append(Href(item)).append("\"/>");
+		}
+
+		return xml.append("</CatalogItems><IsPublished>false</IsPublished></Catalog>").toString();
+	}
+
+
+	String CatalogItem(CatalogItem item)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+
+		xml.append("<CatalogItem xmlns=\"").append(NS).append("\"").append(Entity(item.name, "catalogitem", item.id, TYPE_CATALOG_ITEM, Href(item)))
+				.append(">");
+		xml.append(Link("up", TYPE_CATALOG, Href(item.catalog), null));
+		xml.append(Link("remove", null, Href(item), null));
+		xml.append("<Description>").append(Escape(item.description)).append("</Description>");
+		xml.append("<Entity type=\"").append(TYPE_VAPP_TEMPLATE).append("\" name=\"").append(Escape(item.template.name)).append("\" href=\"")
+				.append(Href(item.template)).append("\"/>");
+
+		return xml.append("</CatalogItem>").toString();
+	}
+
+
+	String Task(SimulatedTask task)
+	{
+		return Header() + "<Task xmlns=\"" + NS + "\"" + TaskBody(task) + "</Task>";
+	}
+
+
+	String Error(int status, String code, String message)
+	{
+		return Header() + "<Error xmlns=\"" + NS + "\" minorErrorCode=\"" + code + "\" message=\"" + Escape(message) +
+				"\" majorErrorCode=\"" + status + "\"/>";
+	}
+
+
+	/**
+	 * Render one page of query records.
+	 * @param name The name of the query, such as adminVApp.
+	 * @param records The rendered records of the page.
+	 * @param total The number of records across every page.
+	 * @param page The page number, from 1.
+	 * @param pageSize The number of records per page.
+	 * @return The QueryResultRecords document.
+	 */
+	String QueryRecords(String name, List<String> records, int total, int page, int pageSize)
+	{
+		StringBuilder xml = new StringBuilder(Header());
+		String href = api + "query?type=" + name + "&amp;page=" + page + "&amp;pageSize=" + pageSize + "&amp;format=records";
+
+		xml.append("<QueryResultRecords xmlns=\"").append(NS).append("\" total=\"").append(total).append("\" pageSize=\"").append(pageSize)
+				.append("\" page=\"").append(page).append("\" name=\"").append(name).append("\" type=\"").append(TYPE_QUERY_RECORDS)
+				.append("\" href=\"").append(href).append("\">");
+
+		if ((long) page * pageSize < total)
+			xml.append(Link("nextPage", TYPE_QUERY_RECORDS, href.replace("page=" + page + "&", "page=" + (page + 1) + "&"), null));
+
+		for (String record : records)
+		{
+			xml.append(record);
+		}
+
+		return xml.append("</QueryResultRecords>").toString();
+	}
+
+
+	String AdminVAppRecord(VApp vapp)
+	{
+		return "<AdminVAppRecord vdcName=\"" + Escape(vapp.vdc.name) + "\" vdc=\"" + Href(vapp.vdc) + "\" org=\"" + Href(vapp.vdc.org) +
+				"\" status=\"" + (vapp.poweredOn ? "POWERED_ON" : "POWERED_OFF") + "\" numberOfVMs=\"1\" name=\"" + Escape(vapp.name) +
+				"\" isExpired=\"false\" isDeployed=\"" + vapp.poweredOn + "\" creationDate=\"" + Date(vapp.created) +
+				"\" href=\"" + Href(vapp) + "\"/>";
+	}
+
+
+	String AdminVMRecord(VApp vapp)
+	{
+		return "<AdminVMRecord vdc=\"" + Href(vapp.vdc) + "\" status=\"" + (vapp.poweredOn ? "POWERED_ON" : "POWERED_OFF") +
+				"\" numberOfCpus=\"" + vapp.cpus + "\" memoryMB=\"" + vapp.memoryMb + "\" name=\"" + Escape(vapp.name) +
+				"\" isVAppTemplate=\"false\" isDeployed=\"" + vapp.poweredOn + "\" containerName=\"" + Escape(vapp.name) +
+				"\" container=\"" + Href(vapp) + "\" href=\"" + api + "vApp/vm-" + vapp.id + "\"/>";
+	}
+
+
+	String AdminCatalogItemRecord(CatalogItem item)
+	{
+		return "<AdminCatalogItemRecord entity=\"" + Href(item.template) + "\" entityName=\"" + Escape(item.template.name) +
+				"\" entityType=\"vapptemplate\" catalog=\"" + Href(item.catalog) + "\" catalogName=\"" + Escape(item.catalog.name) +
+				"\" org=\"" + Href(item.catalog.org) + "\" name=\"" + Escape(item.name) + "\" creationDate=\"" + Date(item.created) +
+				"\" status=\"" + (item.template.resolving ? "UNRESOLVED" : "RESOLVED") + "\" href=\"" + Href(item) + "\"/>";
+	}
+
+
+	String Href(Org org)
+	{
+		return api + "org/" + org.id;
+	}
+
+
+	String Href(Vdc vdc)
+	{
+		return api + "vdc/" + vdc.id;
+	}
+
+
+	String Href(VApp vapp)
+	{
+		return api + "vApp/vapp-" + vapp.id;
+	}
+
+
+	String Href(VAppTemplate template)
+	{
+		return api + "vAppTemplate/vappTemplate-" + template.id;
+	}
+
+
+	String Href(Catalog catalog)
+	{
+		return api + "catalog/" + catalog.id;
+	}
+
+
+	String Href(CatalogItem item)
+	{
+		return api + "catalogItem/" + item.id;
+	}
+
+
+	String Href(SimulatedTask task)
+	{
+		return api + "task/" + task.id;
+	}
+
+
+	private String Tasks(List<SimulatedTask> tasks)
+	{
+		if (tasks == null || tasks.isEmpty())
+			return "";
+
+		StringBuilder xml = new StringBuilder("<Tasks>");
+
+		for (SimulatedTask task : tasks)
+		{
+			xml.append("<Task").append(TaskBody(task)).append("</Task>");
+		}
+
+		return xml.append("</Tasks>").toString();
+	}
+
+
+	private String TaskBody(SimulatedTask task)
+	{
+		String status = task.getStatus();
+		StringBuilder xml = new StringBuilder();
+
+		xml.append(" status=\"").append(status).append("\" startTime=\"").append(Date(task.start)).append("\" operationName=\"")
+				.append(task.operation).append("\" operation=\"").append(task.operation).append(" ").append(Escape(task.ownerName)).append("\"");
+
+		if (!status.equals("running"))
+			xml.append(" endTime=\"").append(Date(task.start + task.duration)).append("\"");
+
+		xml.append(Entity(task.operation, "task", task.id, TYPE_TASK, Href(task))).append(">");
+		xml.append("<Owner type=\"").append(task.ownerType).append("\" name=\"").append(Escape(task.ownerName)).append("\" href=\"")
+				.append(task.ownerHref).append("\"/>");
+
+		if (status.equals("error"))
+			xml.append("<Error minorErrorCode=\"INTERNAL_SERVER_ERROR\" message=\"Simulated task failure\" majorErrorCode=\"500\"/>");
+
+		return xml.toString();
+	}
+
+
+	private static String Entity(String name, String urnType, String id, String type, String href)
+	{
+		return " name=\"" + Escape(name) + "\" id=\"urn:vcloud:" + urnType + ":" + id + "\" type=\"" + type + "\" href=\"" + href + "\"";
+	}
+
+
+	private static String Link(String rel, String type, String href, String name)
+	{
+		return "<Link rel=\"" + rel + "\"" + (type != null ? " type=\"" + type + "\"" : "") + (name != null ? " name=\"" + Escape(name) + "\"" : "") +
+				" href=\"" + href + "\"/>";
+	}
+
+
+	private static String ComputerName(VApp vapp)
+	{
+		String name = vapp.name.replaceAll("[^A-Za-z0-9-]", "");
+
+		return name.length() > 15 ? name.substring(0, 15) : name;
+	}
+
+
+	private static String Namespaces()
+	{
+		return " xmlns=\"" + NS + "\" xmlns:ovf=\"" + NS_OVF + "\" xmlns:rasd=\"" + NS_RASD + "\" xmlns:vssd=\"" + NS_VSSD +
+				"\" xmlns:vcloud=\"" + NS + "\"";
+	}
+
+
+	private static String Header()
+	{
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	}
+
+
+	private static String Date(long time)
+	{
+		return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").format(new Date(time));
+	}
+
+
+	/**
+	 * Escape the passed in text for use in an attribute or element.
+	 */
+	static String Escape(String text)
+	{
+		if (text == null)
+			return "";
+
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+	}
+
+
+	/**
+	 * Undo <code>Escape</code>.
+	 */
+	static String Unescape(String text)
+	{
+		return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+	}
+}